@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+
+public class TestArtPackCache extends AndroidTestCase {
+
+    private static final String PACK = "http://example.com/test/art_%s.png";
+    private static final String OTHER_PACK = "http://example.com/other/art_%s.png";
+
+    // A clear day, and a storm.
+    private static final int CLEAR = 800;
+    private static final int STORM = 200;
+
+    private ArtPackCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = ArtPackCache.getInstance(mContext);
+        mCache.evictExcept(null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.evictExcept(null);
+        super.tearDown();
+    }
+
+    /*
+        Wide art in a different color per condition, as a pack would download it.
+     */
+    private static Bitmap[] createArt() {
+        Bitmap[] art = new Bitmap[WeatherConditions.COUNT];
+        for (int condition = 0; condition < art.length; condition++) {
+            art[condition] = Bitmap.createBitmap(300, 150, Bitmap.Config.ARGB_8888);
+            art[condition].eraseColor(Color.rgb(condition * 30, 255 - condition * 30, 128));
+        }
+        return art;
+    }
+
+    public void testRoundTrip() throws IOException {
+        assertFalse(mCache.isWarm(PACK));
+        assertNull(mCache.getArt(PACK, CLEAR, ArtPackCache.SIZE_LIST));
+
+        mCache.storePack(PACK, createArt());
+        assertTrue("Error: The pack just stored isn't warm", mCache.isWarm(PACK));
+        assertFalse(mCache.isWarm(OTHER_PACK));
+
+        int listIcon = mContext.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        Bitmap clear = mCache.getArt(PACK, CLEAR, ArtPackCache.SIZE_LIST);
+        assertNotNull(clear);
+        assertEquals("Error: The art wasn't scaled to fit the icon", listIcon, clear.getWidth());
+        assertEquals(listIcon / 2, clear.getHeight(), 1);
+        assertEquals(Color.rgb(150, 105, 128), clear.getPixel(clear.getWidth() / 2, 0));
+
+        Bitmap storm = mCache.getArt(PACK, STORM, ArtPackCache.SIZE_TODAY);
+        assertEquals(mContext.getResources().getDimensionPixelSize(R.dimen.today_icon),
+                storm.getWidth());
+        assertEquals(Color.rgb(0, 255, 128), storm.getPixel(0, 0));
+
+        assertSame("Error: The art wasn't shared", clear,
+                mCache.getArt(PACK, CLEAR, ArtPackCache.SIZE_LIST));
+        assertNull(mCache.getArt(PACK, 0, ArtPackCache.SIZE_LIST));
+    }
+
+    public void testStalePacksAreEvicted() throws IOException {
+        mCache.storePack(OTHER_PACK, createArt());
+        mCache.storePack(PACK, createArt());
+        assertTrue(mCache.isWarm(OTHER_PACK));
+
+        mCache.evictExcept(PACK);
+        assertFalse("Error: The stale pack wasn't evicted", mCache.isWarm(OTHER_PACK));
+        assertTrue(mCache.isWarm(PACK));
+        assertNotNull(mCache.getArt(PACK, STORM, ArtPackCache.SIZE_NOTIFICATION));
+
+        mCache.evictExcept(null);
+        assertFalse(mCache.hasPacks());
+        assertNull(mCache.getArt(PACK, STORM, ArtPackCache.SIZE_NOTIFICATION));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.DateEngine;
+
+import java.util.Arrays;
+
+/*
+    The adapter dispatches whatever ForecastSnapshot.diff returns, so these check that a sync
+    only touches the rows that changed.
+ */
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    // Same order as ForecastFragment.FORECAST_COLUMNS.
+    private static final String[] COLUMNS = {
+            "_id", "date", "short_desc", "max", "min", "location_setting", "weather_id",
+            "coord_lat", "coord_long", "humidity", "pressure", "wind", "degrees"
+    };
+
+    private static final int FIRST_JULIAN_DAY = DateEngine.toJulianDay(System.currentTimeMillis());
+
+    /*
+        Builds a snapshot of consecutive days starting at firstDay, with highs from the array.
+     */
+    private static ForecastSnapshot createSnapshot(String location, int firstDay, double... highs) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < highs.length; i++) {
+            long date = DateEngine.fromJulianDay(FIRST_JULIAN_DAY + firstDay + i);
+            cursor.addRow(new Object[]{i, date, "Clear", highs[i], 0.0, location, 800,
+                    "64.7488", "-147.353", 73.0, 1013.5, 4.25, 270.0});
+        }
+        ForecastSnapshot snapshot = ForecastSnapshot.fromCursor(cursor);
+        cursor.close();
+        return snapshot;
+    }
+
+    private static void assertOps(String error, int[] expected, int[] actual) {
+        assertTrue(error + ", got " + Arrays.toString(actual), Arrays.equals(expected, actual));
+    }
+
+    public void testUnchangedForecastDispatchesNothing() {
+        ForecastSnapshot before = createSnapshot("99705", 0, 1, 2, 3, 4);
+        ForecastSnapshot after = createSnapshot("99705", 0, 1, 2, 3, 4);
+        assertOps("Error: Identical forecasts produced updates", new int[0],
+                ForecastSnapshot.diff(before, after));
+    }
+
+    public void testOneChangedHighRebindsOneRow() {
+        ForecastSnapshot before = createSnapshot("99705", 0, 1, 2, 3, 4);
+        ForecastSnapshot after = createSnapshot("99705", 0, 1, 2, 30, 4);
+        assertOps("Error: Expected a single change at position 2",
+                new int[]{ForecastSnapshot.OP_CHANGE, 2, 1},
+                ForecastSnapshot.diff(before, after));
+    }
+
+    public void testWindowMovesForward() {
+        // The first two days expired and two new ones arrived at the end.
+        ForecastSnapshot before = createSnapshot("99705", 0, 1, 2, 3, 4);
+        ForecastSnapshot after = createSnapshot("99705", 2, 3, 4, 5, 6);
+        assertOps("Error: Expected a removal at the top and an insert at the bottom",
+                new int[]{ForecastSnapshot.OP_REMOVE, 0, 2, ForecastSnapshot.OP_INSERT, 2, 2},
+                ForecastSnapshot.diff(before, after));
+    }
+
+    public void testRangesAreMerged() {
+        ForecastSnapshot before = createSnapshot("99705", 0, 1, 2, 3, 4, 5);
+        ForecastSnapshot after = createSnapshot("99705", 0, 1, 20, 30, 40, 5);
+        assertOps("Error: Adjacent changes were not merged",
+                new int[]{ForecastSnapshot.OP_CHANGE, 1, 3},
+                ForecastSnapshot.diff(before, after));
+    }
+
+    public void testLocationChangeRebindsEverything() {
+        ForecastSnapshot before = createSnapshot("99705", 0, 1, 2, 3);
+        ForecastSnapshot after = createSnapshot("94043", 0, 1, 2, 3);
+        assertOps("Error: A new location must rebind every row",
+                new int[]{ForecastSnapshot.OP_CHANGE, 0, 3},
+                ForecastSnapshot.diff(before, after));
+    }
+
+    public void testDisplaySettingsChangeRebindsEverything() {
+        // A units or art pack change reloads the same rows.
+        ForecastSnapshot before = createSnapshot("99705", 0, 1, 2, 3)
+                .withDisplaySettings(true, "http://example.com/%s.png");
+        ForecastSnapshot imperial = createSnapshot("99705", 0, 1, 2, 3)
+                .withDisplaySettings(false, "http://example.com/%s.png");
+        assertOps("Error: New units must rebind every row",
+                new int[]{ForecastSnapshot.OP_CHANGE, 0, 3},
+                ForecastSnapshot.diff(before, imperial));
+
+        ForecastSnapshot otherArt = createSnapshot("99705", 0, 1, 2, 3)
+                .withDisplaySettings(true, "http://example.com/other/%s.png");
+        assertOps("Error: A new art pack must rebind every row",
+                new int[]{ForecastSnapshot.OP_CHANGE, 0, 3},
+                ForecastSnapshot.diff(before, otherArt));
+
+        ForecastSnapshot same = createSnapshot("99705", 0, 1, 2, 3)
+                .withDisplaySettings(true, "http://example.com/%s.png");
+        assertOps("Error: Unchanged settings produced updates", new int[0],
+                ForecastSnapshot.diff(before, same));
+    }
+
+    public void testSameDay() {
+        ForecastSnapshot before = createSnapshot("99705", 0, 1, 2, 3);
+        // The first day expired, so the days moved up a position.
+        ForecastSnapshot after = createSnapshot("99705", 1, 2, 3, 4);
+        assertTrue("Error: A day that moved up isn't the same day", after.sameDay(0, before, 1));
+        assertFalse(after.sameDay(0, before, 0));
+
+        ForecastSnapshot changed = createSnapshot("99705", 0, 1, 20, 3);
+        assertTrue(changed.sameDay(0, before, 0));
+        assertFalse("Error: A changed high is the same day", changed.sameDay(1, before, 1));
+        assertFalse("Error: A day of another location is the same day",
+                createSnapshot("94043", 0, 1, 2, 3).sameDay(0, before, 0));
+        assertFalse("Error: A day in other units is the same day", before
+                .withDisplaySettings(false, null).sameDay(0, before, 0));
+
+        // The list doesn't show the humidity, but the detail view does.
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[]{0, before.getDate(0), "Clear", 1.0, 0.0, "99705", 800,
+                "64.7488", "-147.353", 95.0, 1013.5, 4.25, 270.0});
+        ForecastSnapshot humid = ForecastSnapshot.fromCursor(cursor);
+        cursor.close();
+        assertOps("Error: The list rebound a row for a column it doesn't show", new int[]{
+                ForecastSnapshot.OP_REMOVE, 1, 2}, ForecastSnapshot.diff(before, humid));
+        assertFalse("Error: A changed humidity is the same day", humid.sameDay(0, before, 0));
+    }
+
+    public void testIndexOfDate() {
+        ForecastSnapshot snapshot = createSnapshot("99705", 0, 1, 2, 3);
+        assertEquals(1, snapshot.indexOfDate(DateEngine.fromJulianDay(FIRST_JULIAN_DAY + 1)));
+        assertEquals(-1, snapshot.indexOfDate(DateEngine.fromJulianDay(FIRST_JULIAN_DAY + 5)));
+        assertEquals(0, ForecastSnapshot.fromCursor(null).getCount());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.DateEngine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class TestForecastSnapshotFile extends AndroidTestCase {
+
+    private static final String LOCATION = "99705";
+
+    private int mTodayJulianDay;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTodayJulianDay = DateEngine.toJulianDay(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastSnapshotFile.write(mContext, ForecastSnapshot.EMPTY);
+        super.tearDown();
+    }
+
+    /*
+        Consecutive days from firstDay on, relative to today, with highs going up a degree a day.
+     */
+    private ForecastSnapshot createSnapshot(int firstDay, int days) {
+        long[] dates = new long[days];
+        int[] weatherIds = new int[days];
+        String[] descriptions = new String[days];
+        double[] highs = new double[days];
+        double[] lows = new double[days];
+        float[] humidities = new float[days];
+        float[] pressures = new float[days];
+        float[] windSpeeds = new float[days];
+        float[] degrees = new float[days];
+        for (int i = 0; i < days; i++) {
+            dates[i] = DateEngine.fromJulianDay(mTodayJulianDay + firstDay + i);
+            weatherIds[i] = 800 + i;
+            descriptions[i] = "Clear " + i;
+            highs[i] = 20.5 + i;
+            lows[i] = -3.25;
+            humidities[i] = 60 + i;
+            pressures[i] = 1013.5f;
+            windSpeeds[i] = 4.25f;
+            degrees[i] = 45 * i;
+        }
+        return ForecastSnapshot.fromColumns(dates, weatherIds, descriptions, highs, lows,
+                humidities, pressures, windSpeeds, degrees, LOCATION, "64.7488", null);
+    }
+
+    public void testRoundTrip() throws IOException {
+        ForecastSnapshotFile.write(mContext, createSnapshot(0, 5));
+
+        ForecastSnapshot read = ForecastSnapshotFile.read(mContext, LOCATION);
+        assertNotNull("Error: The snapshot just written couldn't be read", read);
+        assertEquals(5, read.getCount());
+        assertEquals(LOCATION, read.getLocationSetting());
+        assertEquals("64.7488", read.getCoordLat());
+        assertNull(read.getCoordLong());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(DateEngine.fromJulianDay(mTodayJulianDay + i), read.getDate(i));
+            assertEquals(800 + i, read.getWeatherId(i));
+            assertEquals("Clear " + i, read.getDescription(i));
+            assertEquals(20.5 + i, read.getHigh(i));
+            assertEquals(-3.25, read.getLow(i));
+            assertEquals(60f + i, read.getHumidity(i));
+            assertEquals(1013.5f, read.getPressure(i));
+            assertEquals(4.25f, read.getWindSpeed(i));
+            assertEquals(45f * i, read.getDegrees(i));
+        }
+    }
+
+    public void testPastDaysAreLeftOut() throws IOException {
+        // Written two days ago.
+        ForecastSnapshotFile.write(mContext, createSnapshot(-2, 4));
+
+        ForecastSnapshot read = ForecastSnapshotFile.read(mContext, LOCATION);
+        assertEquals(2, read.getCount());
+        assertEquals(DateEngine.fromJulianDay(mTodayJulianDay), read.getDate(0));
+        assertEquals(22.5, read.getHigh(0));
+
+        ForecastSnapshotFile.write(mContext, createSnapshot(-3, 2));
+        assertNull("Error: A snapshot of past days only was shown",
+                ForecastSnapshotFile.read(mContext, LOCATION));
+    }
+
+    public void testOtherLocationIsIgnored() throws IOException {
+        ForecastSnapshotFile.write(mContext, createSnapshot(0, 3));
+        assertNull(ForecastSnapshotFile.read(mContext, "94043"));
+    }
+
+    public void testCorruptFileIsIgnored() throws IOException {
+        ForecastSnapshotFile.write(mContext, createSnapshot(0, 3));
+        File file = new File(mContext.getFilesDir(), "forecast_snapshot");
+        long length = file.length();
+
+        // Cut off in the middle of the last day.
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.getChannel().truncate(length - 6);
+        out.close();
+        assertNull(ForecastSnapshotFile.read(mContext, LOCATION));
+
+        // Another format version.
+        out = new FileOutputStream(file);
+        out.write(new byte[]{0x53, 0x55, 0x4e, 0x53, 0, 0, 0, 99});
+        out.close();
+        assertNull(ForecastSnapshotFile.read(mContext, LOCATION));
+    }
+}
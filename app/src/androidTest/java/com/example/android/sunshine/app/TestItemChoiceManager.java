@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Bundle;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+
+public class TestItemChoiceManager extends AndroidTestCase {
+
+    /*
+        An adapter over a window of consecutive IDs, like days of archived history.
+     */
+    private static class IdAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        long mFirstId;
+        int mCount;
+
+        IdAdapter(long firstId, int count) {
+            mFirstId = firstId;
+            mCount = count;
+            setHasStableIds(true);
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        }
+
+        @Override
+        public int getItemCount() {
+            return mCount;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mFirstId + position * 86400000L;
+        }
+    }
+
+    public void testIndexFindsEveryId() {
+        IdAdapter adapter = new IdAdapter(1419033600000L, 5000);
+        IdPositionIndex index = new IdPositionIndex();
+        index.rebuild(adapter);
+        for (int position = 0; position < adapter.getItemCount(); position++) {
+            assertEquals(position, index.positionOf(adapter.getItemId(position)));
+        }
+        assertEquals(RecyclerView.NO_POSITION, index.positionOf(adapter.getItemId(-1)));
+        assertEquals(RecyclerView.NO_POSITION, index.positionOf(adapter.getItemId(5000)));
+
+        // Shrinking reuses the table without leaving old entries behind.
+        adapter.mCount = 10;
+        index.rebuild(adapter);
+        assertEquals(9, index.positionOf(adapter.getItemId(9)));
+        assertEquals(RecyclerView.NO_POSITION, index.positionOf(adapter.getItemId(10)));
+    }
+
+    public void testSelectionFollowsIdFarAway() {
+        IdAdapter adapter = new IdAdapter(1419033600000L, 1000);
+        ItemChoiceManager icm = new ItemChoiceManager(adapter);
+        icm.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+
+        // Select the last item, then prepend 500 days.  The old window search gave up after 20.
+        Bundle state = new Bundle();
+        icm.mCheckStates.put(999, true);
+        icm.mCheckedIds[0] = adapter.getItemId(999);
+        icm.mCheckedIdPositions[0] = 999;
+        icm.mCheckedIdCount = 1;
+        icm.onSaveInstanceState(state);
+
+        adapter.mFirstId -= 500 * 86400000L;
+        adapter.mCount = 1500;
+        ItemChoiceManager restored = new ItemChoiceManager(adapter);
+        restored.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+        restored.onRestoreInstanceState(state);
+        restored.onDataSetChanged();
+        assertEquals("Error: Selection lost after the item moved 500 positions",
+                1499, restored.getSelectedItemPosition());
+
+        // Once the item is gone the selection goes with it.
+        adapter.mCount = 1000;
+        restored.onDataSetChanged();
+        assertEquals(RecyclerView.NO_POSITION, restored.getSelectedItemPosition());
+    }
+}
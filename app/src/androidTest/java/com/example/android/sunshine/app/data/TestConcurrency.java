@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Runs the queries the forecast list makes against syncs on another thread, and reports how
+    long the queries took.  With write-ahead logging a query reads the last commit instead of
+    waiting for the sync's transaction.
+ */
+public class TestConcurrency extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrency.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int SYNCS = 30;
+    private static final int READERS = 3;
+    private static final int MAX_SAMPLES_PER_READER = 20000;
+
+    private long mLocationRowId;
+    private int mTodayJulianDay;
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        mTodayJulianDay = DateEngine.toJulianDay(System.currentTimeMillis());
+        mLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        sync(0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    /*
+        What a sync does: a fresh forecast for two weeks, and the previous days expired.
+     */
+    private void sync(int iteration) {
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(mLocationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE, DateEngine.fromJulianDay(mTodayJulianDay + i));
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, iteration + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(DateEngine.fromJulianDay(mTodayJulianDay))});
+    }
+
+    /*
+        The forecast list's query, read to the end like a CursorLoader does.
+     */
+    private int queryForecast() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, System.currentTimeMillis());
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long percentile(long[] sorted, int count, double fraction) {
+        int index = (int) Math.ceil(fraction * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))];
+    }
+
+    public void testReaderLatencyDuringSyncs() throws InterruptedException {
+        final AtomicBoolean syncing = new AtomicBoolean(true);
+        final long[][] samples = new long[READERS][MAX_SAMPLES_PER_READER];
+        final int[] sampleCounts = new int[READERS];
+        final CountDownLatch readersDone = new CountDownLatch(READERS);
+
+        for (int r = 0; r < READERS; r++) {
+            final int reader = r;
+            new Thread("ForecastReader" + r) {
+                @Override
+                public void run() {
+                    try {
+                        while (syncing.get() && sampleCounts[reader] < MAX_SAMPLES_PER_READER) {
+                            long start = System.nanoTime();
+                            queryForecast();
+                            samples[reader][sampleCounts[reader]++] = System.nanoTime() - start;
+                        }
+                    } finally {
+                        readersDone.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        for (int i = 1; i <= SYNCS; i++) {
+            sync(i);
+        }
+        syncing.set(false);
+        assertTrue("Error: Readers didn't finish", readersDone.await(10, TimeUnit.SECONDS));
+
+        int count = 0;
+        for (int r = 0; r < READERS; r++) {
+            count += sampleCounts[r];
+        }
+        long[] latencies = new long[count];
+        int offset = 0;
+        for (int r = 0; r < READERS; r++) {
+            System.arraycopy(samples[r], 0, latencies, offset, sampleCounts[r]);
+            offset += sampleCounts[r];
+        }
+        assertTrue("Error: No query ran during the syncs", count > 0);
+        Arrays.sort(latencies);
+
+        Log.i(LOG_TAG, String.format(Locale.US, "%d queries during %d syncs, latency in us:"
+                        + " p50 %d, p95 %d, p99 %d, max %d",
+                count, SYNCS,
+                TimeUnit.NANOSECONDS.toMicros(percentile(latencies, count, 0.50)),
+                TimeUnit.NANOSECONDS.toMicros(percentile(latencies, count, 0.95)),
+                TimeUnit.NANOSECONDS.toMicros(percentile(latencies, count, 0.99)),
+                TimeUnit.NANOSECONDS.toMicros(latencies[count - 1])));
+    }
+
+    /*
+        A sync that has written a row and is still reading the rest of the download.
+     */
+    private ForecastRowSink openSyncWithOneRow(WeatherProvider provider) {
+        ForecastRowSink sink = provider.openWeatherSink();
+        sink.beginRow();
+        sink.locationId(mLocationRowId);
+        sink.date(DateEngine.fromJulianDay(mTodayJulianDay + DAYS));
+        sink.weatherId(800);
+        sink.shortDesc("Clear");
+        sink.min(1);
+        sink.max(2);
+        sink.humidity(3);
+        sink.pressure(4);
+        sink.windSpeed(5);
+        sink.degrees(6);
+        sink.endRow();
+        return sink;
+    }
+
+    public void testQueryDoesNotWaitForOpenSync() throws InterruptedException {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        ForecastRowSink sink = openSyncWithOneRow(provider);
+
+        try {
+            final int[] rows = {-1};
+            Thread reader = new Thread("ForecastReader") {
+                @Override
+                public void run() {
+                    rows[0] = queryForecast();
+                }
+            };
+            reader.start();
+            reader.join(2000);
+            assertFalse("Error: The query waited for the open sync transaction", reader.isAlive());
+            assertEquals("Error: The query saw an uncommitted row", DAYS, rows[0]);
+        } finally {
+            sink.close();
+            client.release();
+        }
+    }
+
+    public void testWriteDoesNotWaitForOpenSync() throws InterruptedException {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        ForecastRowSink sink = openSyncWithOneRow(provider);
+
+        try {
+            // Another writer, like the delta ingest or the expiry, while the download stalls.
+            Thread writer = new Thread("ForecastWriter") {
+                @Override
+                public void run() {
+                    sync(1);
+                }
+            };
+            writer.start();
+            writer.join(2000);
+            assertFalse("Error: The write waited for the download", writer.isAlive());
+        } finally {
+            sink.close();
+            client.release();
+        }
+    }
+}
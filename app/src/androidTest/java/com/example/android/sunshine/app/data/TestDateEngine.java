@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/*
+    DateEngine replaces android.text.format.Time for all of the date handling in the app, so
+    these tests check that both agree, across time zones on both sides of UTC, half hour zones,
+    the date line and DST transitions in either hemisphere.
+ */
+public class TestDateEngine extends AndroidTestCase {
+
+    private static final String[] TIME_ZONES = {
+            "UTC",
+            "America/Los_Angeles",
+            "America/New_York",
+            "America/Sao_Paulo",
+            "Europe/London",
+            "Europe/Berlin",
+            "Asia/Kolkata",
+            "Asia/Kathmandu",
+            "Australia/Adelaide",
+            "Australia/Lord_Howe",
+            "Pacific/Auckland",
+            "Pacific/Apia",
+            "Pacific/Kiritimati"
+    };
+
+    // 2014 and 2015, which covers two DST cycles in both hemispheres.
+    private static final int FIRST_JULIAN_DAY = 2456659;
+    private static final int LAST_JULIAN_DAY = 2457388;
+
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+
+    // Days on which the clocks go back over midnight, so it happens twice: Cuba goes from 01:00
+    // daylight time back to 00:00, and Newfoundland went from 00:01 back to 23:01 until 2011.
+    private static final String[][] REPEATED_MIDNIGHTS = {
+            {"America/Havana", "2014", "11", "2"},
+            {"America/Havana", "2015", "11", "1"},
+            {"America/St_Johns", "2009", "11", "1"},
+            {"America/St_Johns", "2010", "11", "7"}
+    };
+
+    private TimeZone mDefaultTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultTimeZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultTimeZone);
+        DateEngine.resetTimeZone();
+        super.tearDown();
+    }
+
+    private static void useTimeZone(String id) {
+        TimeZone.setDefault(TimeZone.getTimeZone(id));
+        DateEngine.resetTimeZone();
+    }
+
+    private static boolean midnightExists(String timeZoneId, long midnight) {
+        // When the clocks jump over midnight, DateEngine returns the first instant of the day,
+        // which is not on a local day boundary.
+        TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
+        return (midnight + timeZone.getOffset(midnight)) % DateEngine.DAY_IN_MILLIS == 0;
+    }
+
+    public void testFromJulianDayMatchesTime() {
+        for (String id : TIME_ZONES) {
+            useTimeZone(id);
+            Time time = new Time();
+            for (int julianDay = FIRST_JULIAN_DAY; julianDay <= LAST_JULIAN_DAY; julianDay++) {
+                long expected = time.setJulianDay(julianDay);
+                long actual = DateEngine.fromJulianDay(julianDay);
+                if (!midnightExists(id, actual)) continue;
+                assertEquals("Error: Start of Julian day " + julianDay + " in " + id,
+                        expected, actual);
+            }
+        }
+    }
+
+    public void testToJulianDayMatchesTime() {
+        for (String id : TIME_ZONES) {
+            useTimeZone(id);
+            Time time = new Time();
+            long first = new Time().setJulianDay(FIRST_JULIAN_DAY);
+            long last = new Time().setJulianDay(LAST_JULIAN_DAY);
+            // Every hour, plus a minute either side of it, to hit the DST transitions.
+            for (long millis = first; millis <= last; millis += HOUR_IN_MILLIS) {
+                for (long delta = -60 * 1000; delta <= 60 * 1000; delta += 60 * 1000) {
+                    long instant = millis + delta;
+                    time.set(instant);
+                    assertEquals("Error: Julian day of " + instant + " in " + id,
+                            Time.getJulianDay(instant, time.gmtoff),
+                            DateEngine.toJulianDay(instant));
+                }
+            }
+        }
+    }
+
+    public void testNormalizeDateIsStable() {
+        for (String id : TIME_ZONES) {
+            useTimeZone(id);
+            for (int julianDay = FIRST_JULIAN_DAY; julianDay <= LAST_JULIAN_DAY; julianDay++) {
+                long midnight = DateEngine.fromJulianDay(julianDay);
+                assertEquals("Error: Julian day doesn't round trip in " + id,
+                        julianDay, DateEngine.toJulianDay(midnight));
+                assertEquals("Error: Normalizing a normalized date changed it in " + id,
+                        midnight, DateEngine.normalizeDate(midnight));
+                assertEquals("Error: Late evening normalized to the wrong day in " + id,
+                        midnight, DateEngine.normalizeDate(midnight + 23 * HOUR_IN_MILLIS - 1));
+            }
+        }
+    }
+
+    public void testRepeatedMidnightStartsDayAtFirst() {
+        for (String[] day : REPEATED_MIDNIGHTS) {
+            String id = day[0];
+            useTimeZone(id);
+            TimeZone timeZone = TimeZone.getTimeZone(id);
+            int julianDay = DateEngine.toJulianDay(Integer.parseInt(day[1]),
+                    Integer.parseInt(day[2]), Integer.parseInt(day[3]));
+            long midnight = DateEngine.fromJulianDay(julianDay);
+            String date = day[1] + "-" + day[2] + "-" + day[3] + " in " + id;
+
+            assertTrue("Error: " + date + " doesn't start at midnight",
+                    midnightExists(id, midnight));
+            assertTrue("Error: Midnight of " + date + " isn't repeated",
+                    timeZone.getOffset(midnight) != timeZone.getOffset(
+                            midnight + DateEngine.DAY_IN_MILLIS));
+            assertEquals("Error: " + date + " starts at the second midnight",
+                    julianDay - 1, DateEngine.toJulianDay(midnight - 1));
+            assertEquals(julianDay, DateEngine.toJulianDay(midnight));
+            assertEquals(midnight, DateEngine.normalizeDate(midnight + HOUR_IN_MILLIS));
+        }
+    }
+
+    public void testTimeZoneChangeIsPickedUp() {
+        useTimeZone("Europe/Berlin");
+        long berlin = DateEngine.fromJulianDay(FIRST_JULIAN_DAY);
+        useTimeZone("America/Los_Angeles");
+        long losAngeles = DateEngine.fromJulianDay(FIRST_JULIAN_DAY);
+        assertEquals("Error: Cached offsets survived a time zone change",
+                9 * HOUR_IN_MILLIS, losAngeles - berlin);
+    }
+
+    public void testCalendarFields() {
+        GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        // From 1900 to 2100, which includes the non leap years 1900 and 2100 and the leap year 2000.
+        int first = DateEngine.toJulianDay(1900, 1, 1);
+        int last = DateEngine.toJulianDay(2100, 12, 31);
+        for (int julianDay = first; julianDay <= last; julianDay++) {
+            calendar.setTimeInMillis(
+                    DateEngine.epochDayToUtcMillis(DateEngine.julianDayToEpochDay(julianDay)));
+            int year = calendar.get(Calendar.YEAR);
+            int month = calendar.get(Calendar.MONTH) + 1;
+            int dayOfMonth = calendar.get(Calendar.DAY_OF_MONTH);
+            assertEquals(year, DateEngine.year(julianDay));
+            assertEquals(month, DateEngine.month(julianDay));
+            assertEquals(dayOfMonth, DateEngine.dayOfMonth(julianDay));
+            assertEquals(julianDay, DateEngine.toJulianDay(year, month, dayOfMonth));
+            // Calendar counts Sunday as 1, DateEngine counts Monday as 0.
+            assertEquals((calendar.get(Calendar.DAY_OF_WEEK) + 5) % 7,
+                    DateEngine.dayOfWeek(julianDay));
+        }
+
+        // Months out of range roll over into the neighbouring years.
+        assertEquals(DateEngine.toJulianDay(2015, 1, 1), DateEngine.toJulianDay(2014, 13, 1));
+        assertEquals(DateEngine.toJulianDay(2014, 12, 1), DateEngine.toJulianDay(2015, 0, 1));
+    }
+
+    public void testEpochDayConversions() {
+        assertEquals(0, DateEngine.julianDayToEpochDay(DateEngine.EPOCH_JULIAN_DAY));
+        assertEquals(DateEngine.EPOCH_JULIAN_DAY, DateEngine.epochDayToJulianDay(0));
+        assertEquals(-1, DateEngine.utcMillisToEpochDay(-1));
+        assertEquals(16436, DateEngine.utcMillisToEpochDay(
+                DateEngine.epochDayToUtcMillis(16436) + DateEngine.DAY_IN_MILLIS - 1));
+    }
+}
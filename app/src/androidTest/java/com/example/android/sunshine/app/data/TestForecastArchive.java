@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+public class TestForecastArchive extends AndroidTestCase {
+
+    private static final int FIRST_JULIAN_DAY = 2457000;
+    private static final int DAYS_IN_YEAR = 365;
+
+    private File mDirectory;
+    private ForecastArchive mArchive;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(mContext.getCacheDir(), "test-archive");
+        deleteDirectory(mDirectory);
+        mArchive = new ForecastArchive(mDirectory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory(mDirectory);
+        super.tearDown();
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static ForecastArchive.Day[] createDays(int firstJulianDay, int count) {
+        ForecastArchive.Day[] days = new ForecastArchive.Day[count];
+        for (int i = 0; i < count; i++) {
+            // A handful of distinct conditions, like real data.
+            days[i] = new ForecastArchive.Day(firstJulianDay + i, 800 + (i % 5),
+                    20.04 + i * 0.1, -5.55 - i * 0.1);
+        }
+        return days;
+    }
+
+    private ArrayList<ForecastArchive.Day> readAll(String location, int from, int to)
+            throws Exception {
+        final ArrayList<ForecastArchive.Day> days = new ArrayList<ForecastArchive.Day>();
+        mArchive.read(location, from, to, new ForecastArchive.DayVisitor() {
+            @Override
+            public void visit(int julianDay, int weatherId, double high, double low) {
+                days.add(new ForecastArchive.Day(julianDay, weatherId, high, low));
+            }
+        });
+        return days;
+    }
+
+    public void testAppendAndReadRange() throws Exception {
+        ForecastArchive.Day[] days = createDays(FIRST_JULIAN_DAY, 30);
+        assertEquals(30, mArchive.append(TestUtilities.TEST_LOCATION, days));
+        assertEquals(FIRST_JULIAN_DAY + 29, mArchive.getLastJulianDay(TestUtilities.TEST_LOCATION));
+
+        ArrayList<ForecastArchive.Day> read = readAll(TestUtilities.TEST_LOCATION,
+                FIRST_JULIAN_DAY + 10, FIRST_JULIAN_DAY + 19);
+        assertEquals("Error: Range read returned the wrong number of days", 10, read.size());
+        for (int i = 0; i < read.size(); i++) {
+            ForecastArchive.Day expected = days[10 + i];
+            ForecastArchive.Day actual = read.get(i);
+            assertEquals(expected.julianDay, actual.julianDay);
+            assertEquals(expected.weatherId, actual.weatherId);
+            assertEquals("Error: High temperature not kept to one decimal place",
+                    expected.high, actual.high, 0.05);
+            assertEquals("Error: Low temperature not kept to one decimal place",
+                    expected.low, actual.low, 0.05);
+        }
+    }
+
+    public void testAppendSkipsArchivedDays() throws Exception {
+        mArchive.append(TestUtilities.TEST_LOCATION, createDays(FIRST_JULIAN_DAY, 10));
+
+        // Overlaps the first append by five days.
+        int written = mArchive.append(TestUtilities.TEST_LOCATION,
+                createDays(FIRST_JULIAN_DAY + 5, 10));
+        assertEquals("Error: Days already in the archive were written again", 5, written);
+
+        ArrayList<ForecastArchive.Day> read = readAll(TestUtilities.TEST_LOCATION,
+                Integer.MIN_VALUE, Integer.MAX_VALUE);
+        assertEquals(15, read.size());
+        for (int i = 1; i < read.size(); i++) {
+            assertEquals("Error: Archived days are not contiguous",
+                    read.get(i - 1).julianDay + 1, read.get(i).julianDay);
+        }
+    }
+
+    public void testDailyAppendsStayCompact() throws Exception {
+        // This is what the sync adapter does: expire one day at a time, for a year.
+        for (int i = 0; i < DAYS_IN_YEAR; i++) {
+            mArchive.append(TestUtilities.TEST_LOCATION, createDays(FIRST_JULIAN_DAY + i, 1));
+        }
+
+        ArrayList<ForecastArchive.Day> read = readAll(TestUtilities.TEST_LOCATION,
+                Integer.MIN_VALUE, Integer.MAX_VALUE);
+        assertEquals("Error: Days lost while compacting", DAYS_IN_YEAR, read.size());
+        assertEquals(FIRST_JULIAN_DAY, read.get(0).julianDay);
+        assertEquals(FIRST_JULIAN_DAY + DAYS_IN_YEAR - 1, read.get(DAYS_IN_YEAR - 1).julianDay);
+
+        long size = 0;
+        for (File file : mDirectory.listFiles()) {
+            size += file.length();
+        }
+        assertTrue("Error: A year of history takes " + size + " bytes", size < 8 * 1024);
+    }
+
+    public void testLocationsAreSeparate() throws Exception {
+        mArchive.append(TestUtilities.TEST_LOCATION, createDays(FIRST_JULIAN_DAY, 3));
+        // intentionally includes a slash to make sure the file name is encoded
+        mArchive.append("/North Pole", createDays(FIRST_JULIAN_DAY, 7));
+
+        assertEquals(3, readAll(TestUtilities.TEST_LOCATION,
+                Integer.MIN_VALUE, Integer.MAX_VALUE).size());
+        assertEquals(7, readAll("/North Pole", Integer.MIN_VALUE, Integer.MAX_VALUE).size());
+        assertEquals(0, readAll("unknown", Integer.MIN_VALUE, Integer.MAX_VALUE).size());
+    }
+
+    public void testCorruptHeaderStartsNewArchive() throws Exception {
+        mArchive.append(TestUtilities.TEST_LOCATION, createDays(FIRST_JULIAN_DAY, 10));
+        File[] files = mDirectory.listFiles();
+        assertEquals(1, files.length);
+
+        // Damage the magic, as a torn write of the header would.
+        RandomAccessFile raf = new RandomAccessFile(files[0], "rw");
+        try {
+            raf.writeInt(0);
+        } finally {
+            raf.close();
+        }
+        try {
+            mArchive.getLastJulianDay(TestUtilities.TEST_LOCATION);
+            fail("Error: A damaged header was read");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        assertEquals("Error: Days weren't archived after the header was damaged", 5,
+                mArchive.append(TestUtilities.TEST_LOCATION, createDays(FIRST_JULIAN_DAY + 20, 5)));
+        assertEquals(FIRST_JULIAN_DAY + 24, mArchive.getLastJulianDay(TestUtilities.TEST_LOCATION));
+        ArrayList<ForecastArchive.Day> read = readAll(TestUtilities.TEST_LOCATION,
+                Integer.MIN_VALUE, Integer.MAX_VALUE);
+        assertEquals(5, read.size());
+        assertEquals(FIRST_JULIAN_DAY + 20, read.get(0).julianDay);
+        assertEquals("Error: The damaged archive wasn't kept aside", 2,
+                mDirectory.listFiles().length);
+    }
+
+    /*
+        Deleting through WeatherEntry.ARCHIVE_ON_DELETE_URI should move the rows into the archive,
+        where they can be read back through ArchiveEntry.
+     */
+    public void testArchiveOnDelete() {
+        File providerArchive = new File(mContext.getFilesDir(), WeatherProvider.ARCHIVE_DIRECTORY);
+        deleteDirectory(providerArchive);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                locationValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        long firstDate = DateEngine.fromJulianDay(FIRST_JULIAN_DAY);
+        ContentValues[] weatherValues = new ContentValues[5];
+        for (int i = 0; i < weatherValues.length; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+            values.put(WeatherEntry.COLUMN_DATE, DateEngine.fromJulianDay(FIRST_JULIAN_DAY + i));
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 30 + i);
+            weatherValues[i] = values;
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        long lastExpiredDate = DateEngine.fromJulianDay(FIRST_JULIAN_DAY + 2);
+        int deleted = mContext.getContentResolver().delete(WeatherEntry.ARCHIVE_ON_DELETE_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(lastExpiredDate)});
+        assertEquals("Error: Expired rows were not deleted", 3, deleted);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocationWithRange(TestUtilities.TEST_LOCATION,
+                        firstDate, lastExpiredDate),
+                null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals("Error: Expired rows were not archived", 3, cursor.getCount());
+        int i = 0;
+        while (cursor.moveToNext()) {
+            assertEquals(DateEngine.fromJulianDay(FIRST_JULIAN_DAY + i),
+                    cursor.getLong(cursor.getColumnIndex(ArchiveEntry.COLUMN_DATE)));
+            assertEquals(30.0 + i,
+                    cursor.getDouble(cursor.getColumnIndex(ArchiveEntry.COLUMN_MAX_TEMP)), 0.05);
+            assertEquals(321,
+                    cursor.getInt(cursor.getColumnIndex(ArchiveEntry.COLUMN_WEATHER_ID)));
+            i++;
+        }
+        cursor.close();
+
+        assertEquals(ArchiveEntry.CONTENT_TYPE, mContext.getContentResolver().getType(
+                ArchiveEntry.buildArchiveLocation(TestUtilities.TEST_LOCATION)));
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        deleteDirectory(providerArchive);
+    }
+}
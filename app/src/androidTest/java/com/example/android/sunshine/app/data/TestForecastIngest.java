@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.sync.ForecastJsonParser;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Locale;
+
+/*
+    Runs OpenWeatherMap style payloads through ForecastJsonParser into the provider's sink, the
+    way the sync adapter does.
+ */
+public class TestForecastIngest extends AndroidTestCase {
+
+    private static final int FIRST_JULIAN_DAY = 2457000;
+
+    private static final String DAY_FORMAT = "{\"dt\":1418040000," +
+            "\"temp\":{\"day\":1.5,\"min\":%1$d.5,\"max\":%2$d.25,\"night\":0,\"eve\":1,\"morn\":2}," +
+            "\"pressure\":1013.5,\"humidity\":%3$d," +
+            "\"weather\":[{\"id\":%4$d,\"main\":\"Clear\",\"description\":\"sky is clear\"," +
+            "\"icon\":\"01d\"},{\"id\":999,\"main\":\"Ignored\"}]," +
+            "\"speed\":4.25,\"deg\":270,\"clouds\":0}";
+
+    private ContentProviderClient mClient;
+    private long mLocationId;
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mLocationId = -1;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mClient.release();
+        deleteAll();
+        super.tearDown();
+    }
+
+    private static String buildForecast(int days) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":5861897,\"name\":\"North Pole\",")
+                .append("\"coord\":{\"lon\":-147.353,\"lat\":64.7488},\"country\":\"US\"},")
+                .append("\"cod\":\"200\",\"message\":0.0076,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) json.append(',');
+            json.append(String.format(Locale.US, DAY_FORMAT, i, 10 + i, 50 + i, 800 + i));
+        }
+        return json.append("]}").toString();
+    }
+
+    private int ingest(String json) throws Exception {
+        InputStream in = new ByteArrayInputStream(json.getBytes("UTF-8"));
+        WeatherProvider provider = (WeatherProvider) mClient.getLocalContentProvider();
+        ForecastRowSink sink = provider.openWeatherSink();
+        try {
+            int parsed = ForecastJsonParser.parse(in, FIRST_JULIAN_DAY,
+                    new ForecastJsonParser.Callbacks() {
+                        @Override
+                        public boolean onResponseCode(int code) {
+                            return code == 200;
+                        }
+
+                        @Override
+                        public long onCity(String cityName, double lat, double lon) {
+                            assertEquals("North Pole", cityName);
+                            assertEquals(64.7488, lat, 0.00001);
+                            assertEquals(-147.353, lon, 0.00001);
+                            mLocationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+                            return mLocationId;
+                        }
+                    }, sink);
+            return parsed < 0 ? parsed : sink.commit();
+        } finally {
+            sink.close();
+        }
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testIngestStoresEveryDay() throws Exception {
+        assertEquals(14, ingest(buildForecast(14)));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Not every day was stored", 14, cursor.getCount());
+        int i = 0;
+        while (cursor.moveToNext()) {
+            assertEquals(mLocationId,
+                    cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_LOC_KEY)));
+            assertEquals(DateEngine.fromJulianDay(FIRST_JULIAN_DAY + i),
+                    cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+            assertEquals(800 + i,
+                    cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)));
+            assertEquals("Clear",
+                    cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+            assertEquals(i + 0.5,
+                    cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)), 0.001);
+            assertEquals(10 + i + 0.25,
+                    cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)), 0.001);
+            assertEquals(50.0 + i,
+                    cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY)), 0.001);
+            assertEquals(1013.5,
+                    cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_PRESSURE)), 0.001);
+            assertEquals(4.25,
+                    cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_WIND_SPEED)), 0.001);
+            assertEquals(270.0,
+                    cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_DEGREES)), 0.001);
+            i++;
+        }
+        cursor.close();
+
+        // The sink keeps the rollups up to date like bulkInsert does.
+        cursor = mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION,
+                        DateEngine.fromJulianDay(FIRST_JULIAN_DAY),
+                        DateEngine.fromJulianDay(FIRST_JULIAN_DAY + 13), StatsEntry.BUCKET_WEEK),
+                null, null, null, null);
+        assertEquals("Error: Rollups not updated by the sink", 2, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testBackfillIsStoredWhole() throws Exception {
+        // More days than the sink starts with room for, several times over.
+        int days = WeatherInsertSink.INITIAL_ROWS * 6 + 1;
+        assertEquals(days, ingest(buildForecast(days)));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: A long backfill wasn't stored whole", days, cursor.getCount());
+        cursor.moveToLast();
+        assertEquals(DateEngine.fromJulianDay(FIRST_JULIAN_DAY + days - 1),
+                cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        assertEquals(800 + days - 1,
+                cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)));
+        assertEquals(10 + days - 1 + 0.25,
+                cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)), 0.001);
+        cursor.close();
+    }
+
+    public void testIncompleteDayStoresNothing() throws Exception {
+        String json = buildForecast(3).replace("\"humidity\":52,", "");
+        try {
+            ingest(json);
+            fail("Error: A day without humidity was accepted");
+        } catch (JSONException e) {
+            // expected
+        }
+        assertEquals("Error: Rows from a bad payload were committed", 0, countWeatherRows());
+    }
+
+    public void testErrorCodeStopsParsing() throws Exception {
+        assertEquals(-1, ingest("{\"cod\":\"404\",\"message\":\"Error: Not found city\"}"));
+        assertEquals(0, countWeatherRows());
+    }
+
+    public void testMalformedPayloadIsReportedAsJson() throws Exception {
+        try {
+            ingest(buildForecast(2).substring(0, 200).replace(":", ";"));
+            fail("Error: Malformed payload was accepted");
+        } catch (JSONException e) {
+            // expected
+        }
+        assertEquals(0, countWeatherRows());
+    }
+}
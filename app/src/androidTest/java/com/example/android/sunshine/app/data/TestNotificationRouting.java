@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Counts how often observers of each location and day are woken by a write, the way the
+    forecast list (a location) and the detail view (a day) observe them.
+ */
+public class TestNotificationRouting extends AndroidTestCase {
+
+    private static final String LOCATION_A = "99705";
+    private static final String LOCATION_B = "94043";
+
+    // Monday, December 8th, 2014
+    private static final int FIRST_JULIAN_DAY = 2457000;
+    private static final int DAYS = 3;
+
+    // Long enough for a notification that was wrongly sent to have arrived.
+    private static final long QUIET_PERIOD_MILLIS = 500;
+
+    private static class CountingObserver extends ContentObserver {
+        final AtomicInteger mWakeUps = new AtomicInteger();
+
+        CountingObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mWakeUps.incrementAndGet();
+        }
+    }
+
+    private HandlerThread mObserverThread;
+    private final ArrayList<CountingObserver> mObservers = new ArrayList<CountingObserver>();
+
+    private long mLocationA;
+    private long mLocationB;
+
+    private static long dateOf(int day) {
+        return DateEngine.fromJulianDay(FIRST_JULIAN_DAY + day);
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private int insertDays(long locationId) {
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, dateOf(i));
+        }
+        return mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    /*
+        Cursors register for their query URI and its descendants, so observers do too.
+     */
+    private CountingObserver observe(Uri uri) {
+        CountingObserver observer = new CountingObserver(new Handler(mObserverThread.getLooper()));
+        mContext.getContentResolver().registerContentObserver(uri, true, observer);
+        mObservers.add(observer);
+        return observer;
+    }
+
+    private void waitForWakeUps(final CountingObserver observer, final int expected) {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return observer.mWakeUps.get() >= expected;
+            }
+        }.run();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        mLocationA = insertLocation(LOCATION_A);
+        mLocationB = insertLocation(LOCATION_B);
+
+        mObserverThread = new HandlerThread("CountingObserverThread");
+        mObserverThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (CountingObserver observer : mObservers) {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+        }
+        mObservers.clear();
+        mObserverThread.quit();
+        deleteAll();
+        super.tearDown();
+    }
+
+    public void testBulkInsertWakesOnlyItsLocation() throws InterruptedException {
+        CountingObserver listA = observe(WeatherEntry.buildWeatherLocation(LOCATION_A));
+        CountingObserver listB = observe(WeatherEntry.buildWeatherLocation(LOCATION_B));
+
+        assertEquals(DAYS, insertDays(mLocationA));
+
+        waitForWakeUps(listA, 1);
+        Thread.sleep(QUIET_PERIOD_MILLIS);
+        assertEquals("Error: A sync of several days woke the list more than once",
+                1, listA.mWakeUps.get());
+        assertEquals("Error: A sync for one location woke the list of another",
+                0, listB.mWakeUps.get());
+    }
+
+    public void testUpdateWakesOnlyItsDay() throws InterruptedException {
+        insertDays(mLocationA);
+        insertDays(mLocationB);
+
+        CountingObserver listA = observe(WeatherEntry.buildWeatherLocation(LOCATION_A));
+        CountingObserver listB = observe(WeatherEntry.buildWeatherLocation(LOCATION_B));
+        CountingObserver detailDay0 = observe(
+                WeatherEntry.buildWeatherLocationWithDate(LOCATION_A, dateOf(0)));
+        CountingObserver detailDay1 = observe(
+                WeatherEntry.buildWeatherLocationWithDate(LOCATION_A, dateOf(1)));
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        int updated = mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mLocationA), Long.toString(dateOf(1))});
+        assertEquals(1, updated);
+
+        waitForWakeUps(detailDay1, 1);
+        waitForWakeUps(listA, 1);
+        Thread.sleep(QUIET_PERIOD_MILLIS);
+        assertEquals("Error: Updating one day woke the detail view of another",
+                0, detailDay0.mWakeUps.get());
+        assertEquals("Error: Updating one location woke the list of another",
+                0, listB.mWakeUps.get());
+    }
+
+    public void testDeleteWakesOnlyItsLocation() throws InterruptedException {
+        insertDays(mLocationA);
+        insertDays(mLocationB);
+
+        CountingObserver listA = observe(WeatherEntry.buildWeatherLocation(LOCATION_A));
+        CountingObserver listB = observe(WeatherEntry.buildWeatherLocation(LOCATION_B));
+
+        int deleted = mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(mLocationB)});
+        assertEquals(DAYS, deleted);
+
+        waitForWakeUps(listB, 1);
+        Thread.sleep(QUIET_PERIOD_MILLIS);
+        assertEquals("Error: Deleting one location's days woke the list of another",
+                0, listA.mWakeUps.get());
+    }
+
+    public void testBatchNotifiesOnceAfterCommit() throws Exception {
+        CountingObserver listA = observe(WeatherEntry.buildWeatherLocation(LOCATION_A));
+        CountingObserver listB = observe(WeatherEntry.buildWeatherLocation(LOCATION_B));
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(mLocationA);
+            values.put(WeatherEntry.COLUMN_DATE, dateOf(i));
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values).build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " = ?",
+                        new String[]{Long.toString(dateOf(0))})
+                .build());
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        waitForWakeUps(listA, 1);
+        Thread.sleep(QUIET_PERIOD_MILLIS);
+        assertEquals("Error: A batch of " + operations.size() + " writes woke the list more than once",
+                1, listA.mWakeUps.get());
+        assertEquals(0, listB.mWakeUps.get());
+    }
+
+    public void testBatchRollsBackAsUnit() throws Exception {
+        CountingObserver all = observe(WeatherEntry.CONTENT_URI);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(TestUtilities.createWeatherValues(mLocationA)).build());
+        // No short description, which the NOT NULL constraint rejects.
+        ContentValues invalid = TestUtilities.createWeatherValues(mLocationB);
+        invalid.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(invalid).build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: A batch with an invalid row was applied");
+        } catch (SQLException expected) {
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: The valid row of a failed batch was kept", 0, cursor.getCount());
+        cursor.close();
+
+        Thread.sleep(QUIET_PERIOD_MILLIS);
+        assertEquals("Error: A failed batch woke observers", 0, all.mWakeUps.get());
+    }
+
+    public void testWriteWithNothingMatchedWakesNobody() throws InterruptedException {
+        CountingObserver all = observe(WeatherEntry.CONTENT_URI);
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(mLocationA)});
+
+        Thread.sleep(QUIET_PERIOD_MILLIS);
+        assertEquals("Error: A delete that matched no rows woke observers",
+                0, all.mWakeUps.get());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestPackedForecast extends AndroidTestCase {
+
+    private static final int DAYS = 5;
+
+    private int mTodayJulianDay;
+    private long mLocationRowId;
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        mTodayJulianDay = DateEngine.toJulianDay(System.currentTimeMillis());
+
+        mLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+
+        // Yesterday and the days from today on, highs going up by a degree a day.
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(mLocationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE, DateEngine.fromJulianDay(mTodayJulianDay - 1 + i));
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 10 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    public void testLoadFromStartDate() {
+        PackedForecast forecast = PackedForecast.load(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, System.currentTimeMillis(), null);
+
+        assertEquals("Error: Yesterday should be left out", DAYS - 1, forecast.getCount());
+        assertTrue(forecast.hasStartDay());
+        for (int i = 0; i < forecast.getCount(); i++) {
+            assertEquals(DateEngine.fromJulianDay(mTodayJulianDay + i), forecast.getDate(i));
+            assertEquals(11.0 + i, forecast.getHigh(i));
+            assertEquals(65.0, forecast.getLow(i));
+            assertEquals(321, forecast.getWeatherId(i));
+            assertEquals("Asteroids", forecast.getDescription(i));
+        }
+    }
+
+    public void testUnchangedForecastIsReused() {
+        ContentResolver resolver = mContext.getContentResolver();
+        long now = System.currentTimeMillis();
+        PackedForecast first = PackedForecast.load(resolver, TestUtilities.TEST_LOCATION, now, null);
+        PackedForecast second = PackedForecast.load(resolver, TestUtilities.TEST_LOCATION, now, first);
+        assertSame("Error: Nothing was written, but the forecast was read again", first, second);
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 40);
+        resolver.update(WeatherEntry.CONTENT_URI, values, WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(DateEngine.fromJulianDay(mTodayJulianDay))});
+
+        PackedForecast third = PackedForecast.load(resolver, TestUtilities.TEST_LOCATION, now, second);
+        assertNotSame("Error: A write didn't change the version", second, third);
+        assertTrue(third.getVersion() != second.getVersion());
+        assertEquals(40.0, third.getHigh(0));
+
+        // Another location never reuses the previous forecast, whatever the version.
+        PackedForecast other = PackedForecast.load(resolver, "94043", now, third);
+        assertNotSame(third, other);
+        assertEquals(0, other.getCount());
+        assertFalse(other.hasStartDay());
+    }
+
+    public void testCallWithoutExtrasSendsEveryDay() {
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                PackedForecast.METHOD_GET, TestUtilities.TEST_LOCATION, null);
+        assertNotNull(result);
+        assertEquals("Error: A call without a start date left days out", DAYS,
+                result.getLongArray(PackedForecast.KEY_DATES).length);
+    }
+
+    public void testUnknownMethodIsRejected() {
+        try {
+            mContext.getContentResolver().call(WeatherEntry.CONTENT_URI, "getForecast",
+                    TestUtilities.TEST_LOCATION, new Bundle());
+            fail("Error: An unknown method was accepted");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+    }
+}
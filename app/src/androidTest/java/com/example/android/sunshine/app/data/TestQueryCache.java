@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestQueryCache extends AndroidTestCase {
+
+    private static final String OTHER_LOCATION = "94043";
+    private static final int DAYS = 3;
+
+    private ContentProviderClient mClient;
+    private QueryResultCache mCache;
+    private long mLocationRowId;
+    private long mOtherLocationRowId;
+    private int mTodayJulianDay;
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mCache = ((WeatherProvider) mClient.getLocalContentProvider()).getQueryCache();
+        mTodayJulianDay = DateEngine.toJulianDay(System.currentTimeMillis());
+
+        mLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues other = TestUtilities.createNorthPoleLocationValues();
+        other.put(LocationEntry.COLUMN_LOCATION_SETTING, OTHER_LOCATION);
+        mOtherLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, other));
+
+        insertDays(mLocationRowId, 10);
+        insertDays(mOtherLocationRowId, 10);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        mClient.release();
+        super.tearDown();
+    }
+
+    private long dateOf(int day) {
+        return DateEngine.fromJulianDay(mTodayJulianDay + day);
+    }
+
+    private void insertDays(long locationRowId, int high) {
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE, dateOf(i));
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, high + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    private void updateHigh(long locationRowId, int day, int high) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(locationRowId), Long.toString(dateOf(day))});
+    }
+
+    /*
+        The high of the first row of the query.
+     */
+    private double queryHigh(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertTrue("Error: Empty cursor returned for " + uri, cursor.moveToFirst());
+            return cursor.getDouble(1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testRepeatedQueryIsServedFromCache() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, dateOf(0));
+        long hits = mCache.getHitCount();
+        long misses = mCache.getMissCount();
+
+        assertEquals(10.0, queryHigh(uri));
+        assertEquals(misses + 1, mCache.getMissCount());
+
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals("Error: The second query wasn't served from the cache",
+                    hits + 1, mCache.getHitCount());
+            assertEquals(DAYS, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                assertEquals(dateOf(i), cursor.getLong(0));
+                assertEquals(10.0 + i, cursor.getDouble(1));
+                assertEquals(Cursor.FIELD_TYPE_FLOAT, cursor.getType(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testWriteInvalidatesItsLocationAndDays() {
+        Uri list = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, dateOf(0));
+        Uri today = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, dateOf(0));
+        Uri tomorrow = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, dateOf(1));
+        Uri otherList = WeatherEntry.buildWeatherLocationWithStartDate(OTHER_LOCATION, dateOf(0));
+        queryHigh(list);
+        queryHigh(today);
+        queryHigh(tomorrow);
+        queryHigh(otherList);
+
+        updateHigh(mLocationRowId, 1, 40);
+
+        long hits = mCache.getHitCount();
+        assertEquals(10.0, queryHigh(list));
+        assertEquals("Error: The list was served from the cache after a write to one of its days",
+                hits, mCache.getHitCount());
+        assertEquals(40.0, queryHigh(tomorrow));
+        assertEquals(hits, mCache.getHitCount());
+
+        // Another day and another location were left cached.
+        assertEquals(10.0, queryHigh(today));
+        assertEquals(10.0, queryHigh(otherList));
+        assertEquals(hits + 2, mCache.getHitCount());
+    }
+
+    public void testLocationWriteClearsCache() {
+        Uri list = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, dateOf(0));
+        queryHigh(list);
+
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, "99999");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, values,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(mLocationRowId)});
+
+        Cursor cursor = mContext.getContentResolver().query(list, null, null, null, null);
+        try {
+            assertEquals("Error: The location's old setting still found its rows",
+                    0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+
+public class TestWeatherRollups extends AndroidTestCase {
+
+    // Monday, December 8th, 2014
+    private static final int FIRST_JULIAN_DAY = 2457000;
+    private static final int DAYS = 14;
+
+    private long mLocationRowId;
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        dbHelper.getWritableDatabase().delete(StatsEntry.TABLE_NAME, null, null);
+        dbHelper.getWritableDatabase().delete(StatsEntry.CONDITION_TABLE_NAME, null, null);
+        dbHelper.close();
+
+        File archive = new File(mContext.getFilesDir(), WeatherProvider.ARCHIVE_DIRECTORY);
+        File[] files = archive.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(locationUri);
+
+        // Two full weeks, highs going up by a degree a day, alternating clear and rain.
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, dateOf(i));
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 10 + i);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, i);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, i % 2 == 0 ? 800 : 500);
+            values[i] = weatherValues;
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    private static long dateOf(int day) {
+        return DateEngine.fromJulianDay(FIRST_JULIAN_DAY + day);
+    }
+
+    private Cursor queryWeeks() {
+        return mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION, dateOf(0), dateOf(DAYS - 1),
+                        StatsEntry.BUCKET_WEEK),
+                null, null, null, null);
+    }
+
+    private static void validateBucket(Cursor cursor, long bucketStart, int dayCount,
+                                       double avgHigh, double maxHigh, double minLow) {
+        assertEquals("Error: Wrong bucket start", bucketStart,
+                cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_BUCKET_START)));
+        assertEquals("Error: Wrong day count", dayCount,
+                cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_DAY_COUNT)));
+        assertEquals("Error: Wrong average high", avgHigh,
+                cursor.getDouble(cursor.getColumnIndex(StatsEntry.COLUMN_AVG_HIGH)), 0.001);
+        assertEquals("Error: Wrong max high", maxHigh,
+                cursor.getDouble(cursor.getColumnIndex(StatsEntry.COLUMN_MAX_HIGH)), 0.001);
+        assertEquals("Error: Wrong min low", minLow,
+                cursor.getDouble(cursor.getColumnIndex(StatsEntry.COLUMN_MIN_LOW)), 0.001);
+    }
+
+    public void testBucketBoundaries() {
+        // Weeks start on Mondays.
+        assertEquals(FIRST_JULIAN_DAY,
+                WeatherRollups.bucketStart(StatsEntry.BUCKET_TYPE_WEEK, FIRST_JULIAN_DAY + 6));
+        assertEquals(FIRST_JULIAN_DAY + 7,
+                WeatherRollups.nextBucketStart(StatsEntry.BUCKET_TYPE_WEEK, FIRST_JULIAN_DAY));
+
+        // December 1st, 2014 and January 1st, 2015.
+        assertEquals(FIRST_JULIAN_DAY - 7,
+                WeatherRollups.bucketStart(StatsEntry.BUCKET_TYPE_MONTH, FIRST_JULIAN_DAY));
+        assertEquals(FIRST_JULIAN_DAY + 24,
+                WeatherRollups.nextBucketStart(StatsEntry.BUCKET_TYPE_MONTH, FIRST_JULIAN_DAY - 7));
+
+        // February in a leap year.
+        int february2016 = 2457420;
+        assertEquals(february2016 + 29,
+                WeatherRollups.nextBucketStart(StatsEntry.BUCKET_TYPE_MONTH, february2016));
+    }
+
+    public void testWeeklyStats() {
+        Cursor cursor = queryWeeks();
+        assertEquals("Error: Expected one row per week", 2, cursor.getCount());
+        cursor.moveToFirst();
+        validateBucket(cursor, dateOf(0), 7, 13, 16, 0);
+        cursor.moveToNext();
+        validateBucket(cursor, dateOf(7), 7, 20, 23, 7);
+        cursor.close();
+    }
+
+    public void testMonthlyConditionCounts() {
+        Cursor cursor = mContext.getContentResolver().query(
+                StatsEntry.buildConditionStatsUri(TestUtilities.TEST_LOCATION, dateOf(0),
+                        dateOf(DAYS - 1), StatsEntry.BUCKET_MONTH),
+                null, null, null, StatsEntry.COLUMN_WEATHER_ID + " ASC");
+        assertEquals("Error: Expected one row per condition", 2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(500, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_WEATHER_ID)));
+        assertEquals(7, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_DAY_COUNT)));
+        assertEquals(dateOf(-7),
+                cursor.getLong(cursor.getColumnIndex(StatsEntry.COLUMN_BUCKET_START)));
+        cursor.moveToNext();
+        assertEquals(800, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_WEATHER_ID)));
+        assertEquals(7, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_DAY_COUNT)));
+        cursor.close();
+    }
+
+    public void testUpdateRefreshesBucket() {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 50);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(dateOf(0))});
+
+        Cursor cursor = queryWeeks();
+        cursor.moveToFirst();
+        // The first high went from 10 to 50.
+        validateBucket(cursor, dateOf(0), 7, 13 + 40.0 / 7, 50, 0);
+        cursor.close();
+    }
+
+    public void testExpiredRowsStayCounted() {
+        // Expire the first three days the way the sync adapter does.
+        mContext.getContentResolver().delete(WeatherEntry.ARCHIVE_ON_DELETE_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(dateOf(2))});
+
+        Cursor cursor = queryWeeks();
+        assertEquals(2, cursor.getCount());
+        cursor.moveToFirst();
+        validateBucket(cursor, dateOf(0), 7, 13, 16, 0);
+        cursor.close();
+
+        // Rows deleted outright are no longer counted; only the archived ones remain.
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        cursor = queryWeeks();
+        assertEquals("Error: Empty bucket was not removed", 1, cursor.getCount());
+        cursor.moveToFirst();
+        validateBucket(cursor, dateOf(0), 3, 11, 12, 0);
+        cursor.close();
+    }
+}
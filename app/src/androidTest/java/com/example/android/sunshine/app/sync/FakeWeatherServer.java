@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    A stand-in for OpenWeatherMap on localhost, so syncs can be run and timed offline.  Serves
+    the forecast set for the "q" parameter of a request, or the default one, gzipped when the
+    client asks for it, and keeps connections alive like the real server.
+
+    Forecasts are usually the recorded payloads next to this class, see fixture().
+ */
+class FakeWeatherServer {
+    private static final String LOG_TAG = FakeWeatherServer.class.getSimpleName();
+
+    static final String FORECAST_14_DAY = "forecast_14_day.json";
+    static final String FORECAST_16_DAY = "forecast_16_day.json";
+    static final String FORECAST_MALFORMED = "forecast_malformed.json";
+    // Well formed responses with an error "cod", sent with HTTP 200 like OpenWeatherMap does:
+    // an unknown city, a bad API key and too many requests.
+    static final String FORECAST_NOT_FOUND = "forecast_not_found.json";
+    static final String FORECAST_UNAUTHORIZED = "forecast_unauthorized.json";
+    static final String FORECAST_RATE_LIMITED = "forecast_rate_limited.json";
+    // 16 days for each of 50 locations, keyed by location setting.  See setResponses().
+    static final String FORECAST_MULTI_LOCATION = "forecast_multi_location.json";
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily";
+
+    static final class Response {
+        final int mStatus;
+        final byte[] mBody;
+        final byte[] mGzippedBody;
+
+        Response(int status, byte[] body) throws IOException {
+            mStatus = status;
+            mBody = body;
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(gzipped);
+            out.write(body);
+            out.close();
+            mGzippedBody = gzipped.toByteArray();
+        }
+    }
+
+    private final Map<String, Response> mResponses = new HashMap<String, Response>();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final CountDownLatch mShutdown = new CountDownLatch(1);
+    private volatile Response mDefaultResponse;
+    private volatile boolean mStalled;
+    private ServerSocket mServerSocket;
+
+    static byte[] fixture(String name) throws IOException {
+        InputStream in = FakeWeatherServer.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("No fixture " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        mConnectionCount.incrementAndGet();
+                        mExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // Closed by shutdown().
+                    }
+                }
+            }
+        });
+    }
+
+    void shutdown() throws IOException {
+        mShutdown.countDown();
+        mServerSocket.close();
+        mExecutor.shutdownNow();
+    }
+
+    /*
+        The base URL to give SunshineSyncAdapter.setForecastBaseUrl.
+     */
+    String getForecastBaseUrl() {
+        return String.format(Locale.US, "http://127.0.0.1:%d%s?",
+                mServerSocket.getLocalPort(), FORECAST_PATH);
+    }
+
+    void setDefaultResponse(int status, byte[] body) throws IOException {
+        mDefaultResponse = new Response(status, body);
+    }
+
+    void setResponse(String location, int status, byte[] body) throws IOException {
+        Response response = new Response(status, body);
+        synchronized (mResponses) {
+            mResponses.put(location, response);
+        }
+    }
+
+    /*
+        While stalled, the server sends the head and half the body of a response, then nothing
+        more until shutdown(), like a server that hangs mid-response.
+     */
+    void setStalled(boolean stalled) {
+        mStalled = stalled;
+    }
+
+    /*
+        Serves each forecast of a multi-location fixture for its location.  The platform's
+        JSONObject keeps the order of the keys, which the parser relies on.
+
+        Returns the locations, in the order of the fixture.
+     */
+    String[] setResponses(byte[] fixture) throws IOException {
+        try {
+            JSONObject forecasts = new JSONObject(new String(fixture, "UTF-8"));
+            ArrayList<String> locations = new ArrayList<String>();
+            Iterator<String> keys = forecasts.keys();
+            while (keys.hasNext()) {
+                String location = keys.next();
+                setResponse(location, 200,
+                        forecasts.getJSONObject(location).toString().getBytes("UTF-8"));
+                locations.add(location);
+            }
+            return locations.toArray(new String[locations.size()]);
+        } catch (JSONException e) {
+            throw new IOException("Not a multi-location fixture", e);
+        }
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    private Response responseFor(String location) {
+        synchronized (mResponses) {
+            Response response = mResponses.get(location);
+            return response != null ? response : mDefaultResponse;
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = readLine(in)) != null) {
+                boolean gzip = false;
+                boolean close = false;
+                String header;
+                while ((header = readLine(in)) != null && !header.isEmpty()) {
+                    String lower = header.toLowerCase(Locale.US);
+                    if (lower.startsWith("accept-encoding:") && lower.contains("gzip")) {
+                        gzip = true;
+                    } else if (lower.startsWith("connection:") && lower.contains("close")) {
+                        close = true;
+                    }
+                }
+                mRequestCount.incrementAndGet();
+
+                String[] parts = requestLine.split(" ");
+                Uri uri = parts.length > 1 ? Uri.parse(parts[1]) : null;
+                Response response = uri != null && FORECAST_PATH.equals(uri.getPath())
+                        ? responseFor(uri.getQueryParameter("q")) : null;
+                if (response == null) {
+                    response = new Response(404, "{\"cod\":\"404\"}".getBytes("UTF-8"));
+                    gzip = false;
+                }
+                byte[] body = gzip ? response.mGzippedBody : response.mBody;
+                StringBuilder head = new StringBuilder()
+                        .append("HTTP/1.1 ").append(response.mStatus).append(" Fake\r\n")
+                        .append("Content-Type: application/json; charset=utf-8\r\n")
+                        .append("Content-Length: ").append(body.length).append("\r\n");
+                if (gzip) {
+                    head.append("Content-Encoding: gzip\r\n");
+                }
+                head.append(close ? "Connection: close\r\n" : "Connection: keep-alive\r\n")
+                        .append("\r\n");
+                out.write(head.toString().getBytes("US-ASCII"));
+                if (mStalled) {
+                    out.write(body, 0, body.length / 2);
+                    out.flush();
+                    mShutdown.await();
+                    break;
+                }
+                out.write(body);
+                out.flush();
+                if (close) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Connection dropped: " + e);
+        } catch (InterruptedException e) {
+            // Shut down while stalled.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to do with it.
+            }
+        }
+    }
+
+    /*
+        Reads a header line, without its line break.  Null at the end of the stream.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+}
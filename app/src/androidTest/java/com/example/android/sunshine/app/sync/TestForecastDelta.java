@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.DateEngine;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/*
+    Runs pushed forecast changes through ForecastJsonParser.parseDelta into ForecastDeltaSink,
+    the way ForecastDeltaService does.
+ */
+public class TestForecastDelta extends AndroidTestCase {
+
+    private static final String LOCATION = "99705";
+    private static final int DAYS = 3;
+
+    private int mTodayJulianDay;
+    private long mLocationRowId;
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        mTodayJulianDay = DateEngine.toJulianDay(System.currentTimeMillis());
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+
+        ContentValues[] days = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            days[i] = new ContentValues();
+            days[i].put(WeatherEntry.COLUMN_LOC_KEY, mLocationRowId);
+            days[i].put(WeatherEntry.COLUMN_DATE, DateEngine.fromJulianDay(mTodayJulianDay + i));
+            days[i].put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            days[i].put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            days[i].put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, 20);
+            days[i].put(WeatherEntry.COLUMN_MIN_TEMP, 10);
+            days[i].put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            days[i].put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            days[i].put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    /*
+        The "dt" of a day relative to today, in seconds: its local noon.
+     */
+    private long dtOf(int day) {
+        return DateEngine.fromJulianDay(mTodayJulianDay + day) / 1000 + 12 * 60 * 60;
+    }
+
+    private int apply(String delta) throws IOException, JSONException {
+        ForecastDeltaSink sink = new ForecastDeltaSink(mContext, mTodayJulianDay);
+        try {
+            ForecastJsonParser.parseDelta(new ByteArrayInputStream(delta.getBytes("UTF-8")),
+                    mLocationRowId, sink);
+            return sink.commit();
+        } finally {
+            sink.close();
+        }
+    }
+
+    private Cursor queryDay(int day) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(LOCATION,
+                        DateEngine.fromJulianDay(mTodayJulianDay + day)),
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP, WeatherEntry.COLUMN_MIN_TEMP,
+                        WeatherEntry.COLUMN_WEATHER_ID, WeatherEntry.COLUMN_SHORT_DESC},
+                null, null, null);
+        assertTrue("Error: Day " + day + " wasn't stored", cursor.moveToFirst());
+        return cursor;
+    }
+
+    public void testChangedValuesAreApplied() throws Exception {
+        String delta = String.format(Locale.US,
+                "[{\"dt\":%d,\"temp\":{\"max\":25.5}},"
+                        + "{\"dt\":%d,\"weather\":[{\"id\":500,\"main\":\"Rain\"}]}]",
+                dtOf(0), dtOf(2));
+        assertEquals(2, apply(delta));
+
+        Cursor today = queryDay(0);
+        assertEquals(25.5, today.getDouble(0));
+        assertEquals("Error: A value that wasn't pushed changed", 10.0, today.getDouble(1));
+        assertEquals(800, today.getInt(2));
+        today.close();
+
+        Cursor tomorrow = queryDay(1);
+        assertEquals(20.0, tomorrow.getDouble(0));
+        tomorrow.close();
+
+        Cursor third = queryDay(2);
+        assertEquals(500, third.getInt(2));
+        assertEquals("Rain", third.getString(3));
+        third.close();
+    }
+
+    public void testDaysOutsideTheForecastAreDropped() throws Exception {
+        String delta = String.format(Locale.US,
+                "[{\"dt\":%d,\"temp\":{\"max\":1}},{\"dt\":%d,\"temp\":{\"max\":2}}]",
+                dtOf(-1), dtOf(20));
+        assertEquals(0, apply(delta));
+
+        // A day in the window that isn't stored isn't inserted either.
+        delta = String.format(Locale.US, "[{\"dt\":%d,\"temp\":{\"max\":3}}]", dtOf(DAYS));
+        assertEquals(0, apply(delta));
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(DAYS, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testBadChangeIsRejectedAsAWhole() throws Exception {
+        String delta = String.format(Locale.US,
+                "[{\"dt\":%d,\"temp\":{\"max\":30}},{\"dt\":%d,\"humidity\":250}]",
+                dtOf(0), dtOf(1));
+        try {
+            apply(delta);
+            fail("Error: A humidity of 250% was accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        Cursor today = queryDay(0);
+        assertEquals("Error: Part of a rejected change was applied", 20.0, today.getDouble(0));
+        today.close();
+
+        String[] malformed = {
+                // No date.
+                "[{\"temp\":{\"max\":30}}]",
+                // Nothing but a date.
+                String.format(Locale.US, "[{\"dt\":%d}]", dtOf(0)),
+                // A weather id without its description.
+                String.format(Locale.US, "[{\"dt\":%d,\"weather\":[{\"id\":500}]}]", dtOf(0)),
+                "{\"dt\":1}"
+        };
+        for (String json : malformed) {
+            try {
+                apply(json);
+                fail("Error: Accepted " + json);
+            } catch (JSONException e) {
+                // Expected.
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Runs the broker against a dispatcher that only counts, so no sync is ever requested.
+ */
+public class TestSyncRequestBroker extends AndroidTestCase {
+
+    private static final long WINDOW_MS = 200;
+
+    private static final class CountingDispatcher implements SyncRequestBroker.SyncDispatcher {
+        final AtomicInteger mLookups = new AtomicInteger();
+        final AtomicInteger mSyncs = new AtomicInteger();
+        volatile boolean mPending;
+        volatile boolean mAccountRemoved;
+        volatile boolean mRejectRequests;
+
+        @Override
+        public Account findAccount() {
+            mLookups.incrementAndGet();
+            mAccountRemoved = false;
+            return new Account("Sunshine", "example.com");
+        }
+
+        @Override
+        public boolean hasAccount(Account account) {
+            return !mAccountRemoved;
+        }
+
+        @Override
+        public boolean isSyncPending(Account account) {
+            return mPending;
+        }
+
+        @Override
+        public void requestSync(Account account) {
+            if (mRejectRequests) {
+                throw new IllegalArgumentException("Unknown account " + account);
+            }
+            mSyncs.incrementAndGet();
+        }
+    }
+
+    private CountingDispatcher mDispatcher;
+    private SyncRequestBroker mBroker;
+    private SyncStatusStore.Status mSavedStatus;
+    private String mLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDispatcher = new CountingDispatcher();
+        mBroker = new SyncRequestBroker(mContext, mDispatcher, WINDOW_MS);
+        mSavedStatus = SyncStatusStore.getInstance(mContext).getStatus();
+        mLocation = Utility.getPreferredLocation(mContext);
+        // As after a location change, so the forecast isn't fresh.
+        Utility.resetLocationStatus(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncStatusStore store = SyncStatusStore.getInstance(mContext);
+        store.recordSyncSuccess(mSavedStatus.getLastSyncTime(), mSavedStatus.getLastPayloadHash());
+        store.setLocationStatus(mSavedStatus.getLocationStatus());
+        super.tearDown();
+    }
+
+    /*
+        Waits until every request so far has either become a sync or been coalesced.
+     */
+    private void waitForDispatch() {
+        new PollingCheck(WINDOW_MS * 10) {
+            @Override
+            protected boolean check() {
+                return mBroker.getRequestedCount()
+                        == mBroker.getCoalescedCount() + mBroker.getExecutedCount();
+            }
+        }.run();
+    }
+
+    public void testRequestsWithinWindowAreMerged() {
+        for (int i = 0; i < 5; i++) {
+            mBroker.requestSync();
+        }
+        waitForDispatch();
+        assertEquals("Error: Merged requests didn't make a single sync", 1,
+                mDispatcher.mSyncs.get());
+        assertEquals(5, mBroker.getRequestedCount());
+        assertEquals(4, mBroker.getCoalescedCount());
+        assertEquals(1, mBroker.getExecutedCount());
+
+        // The next window makes a sync of its own.
+        mBroker.requestSync();
+        waitForDispatch();
+        assertEquals(2, mDispatcher.mSyncs.get());
+        assertEquals("Error: The account was looked up more than once", 1,
+                mDispatcher.mLookups.get());
+    }
+
+    public void testRunningSyncIsJoined() {
+        mBroker.onSyncStarted(mLocation);
+        mBroker.requestSync();
+        waitForDispatch();
+        assertEquals("Error: A sync of the same location was requested while one ran", 0,
+                mDispatcher.mSyncs.get());
+
+        // A sync of the location the user just left doesn't do.
+        mBroker.onSyncStarted(mLocation + "0");
+        mBroker.requestSync();
+        waitForDispatch();
+        assertEquals(1, mDispatcher.mSyncs.get());
+        assertEquals(1, mBroker.getCoalescedCount());
+    }
+
+    public void testPendingSyncIsJoined() {
+        mDispatcher.mPending = true;
+        mBroker.requestSync();
+        waitForDispatch();
+        assertEquals("Error: A sync was requested while one was pending", 0,
+                mDispatcher.mSyncs.get());
+    }
+
+    public void testFreshForecastIsNotSyncedAgain() {
+        mBroker.onSyncStarted(mLocation);
+        SyncStatusStore.getInstance(mContext).recordSyncSuccess(System.currentTimeMillis(), 0);
+        mBroker.onSyncFinished();
+
+        mBroker.requestSync();
+        waitForDispatch();
+        assertEquals("Error: A fresh forecast was synced again", 0, mDispatcher.mSyncs.get());
+
+        Utility.resetLocationStatus(mContext);
+        mBroker.requestSync();
+        waitForDispatch();
+        assertEquals("Error: A reset location status didn't sync", 1, mDispatcher.mSyncs.get());
+    }
+
+    public void testRemovedAccountIsLookedUpAgain() {
+        mBroker.requestSync();
+        waitForDispatch();
+        assertEquals(1, mDispatcher.mLookups.get());
+
+        mDispatcher.mAccountRemoved = true;
+        mBroker.requestSync();
+        waitForDispatch();
+        assertEquals("Error: A removed account was used", 2, mDispatcher.mLookups.get());
+        assertEquals(2, mDispatcher.mSyncs.get());
+    }
+
+    public void testRejectedRequestForgetsAccount() {
+        mDispatcher.mRejectRequests = true;
+        mBroker.requestSync();
+        new PollingCheck(WINDOW_MS * 10) {
+            @Override
+            protected boolean check() {
+                return mBroker.getAccount() != null && mDispatcher.mLookups.get() == 2;
+            }
+        }.run();
+        assertEquals("Error: A rejected request made a sync", 0, mBroker.getExecutedCount());
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderClient;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Runs whole syncs, from the download to the widgets and Muzei being told, against a local
+    stand-in for OpenWeatherMap serving recorded payloads.  Checks how each payload is handled,
+    and reports syncs per second, the latency of each stage and the bytes allocated per sync,
+    so a regression in the sync shows up in the log of a test run.  Nothing leaves the device.
+ */
+public class TestSyncThroughput extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncThroughput.class.getSimpleName();
+
+    private static final String LOCATION = "94043";
+    private static final int WARM_UP_SYNCS = 5;
+    private static final int SYNCS = 50;
+
+    private static final String[] STAGE_NAMES = {"download", "parse", "store", "notify"};
+
+    private FakeWeatherServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private ContentProviderClient mClient;
+    private String mLocationKey;
+    private String mSavedLocation;
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private SharedPreferences prefs() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    private void setLocation(String location) {
+        prefs().edit().putString(mLocationKey, location).commit();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        mLocationKey = mContext.getString(R.string.pref_location_key);
+        mSavedLocation = prefs().getString(mLocationKey, null);
+        setLocation(LOCATION);
+
+        mServer = new FakeWeatherServer();
+        mServer.start();
+        SunshineSyncAdapter.setForecastBaseUrl(mServer.getForecastBaseUrl());
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mClient.release();
+        SunshineSyncAdapter.setForecastBaseUrl(null);
+        mServer.shutdown();
+        if (mSavedLocation != null) {
+            setLocation(mSavedLocation);
+        } else {
+            prefs().edit().remove(mLocationKey).commit();
+        }
+        deleteAll();
+        super.tearDown();
+    }
+
+    private void sync() {
+        mSyncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY,
+                mClient, new SyncResult());
+    }
+
+    private int storedDays(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(location), null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private SyncStatusStore.Status status() {
+        return SyncStatusStore.getInstance(mContext).getStatus();
+    }
+
+    public void testFixturesAreHandled() throws Exception {
+        mServer.setDefaultResponse(HttpURLConnection.HTTP_OK,
+                FakeWeatherServer.fixture(FakeWeatherServer.FORECAST_14_DAY));
+        sync();
+        assertEquals(14, storedDays(LOCATION));
+        SyncStatusStore.Status status = status();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, status.getLocationStatus());
+        assertTrue("Error: The forecast wasn't downloaded compressed",
+                status.getLastCompressedBytes() < status.getLastUncompressedBytes());
+
+        mServer.setDefaultResponse(HttpURLConnection.HTTP_OK,
+                FakeWeatherServer.fixture(FakeWeatherServer.FORECAST_16_DAY));
+        sync();
+        assertEquals(16, storedDays(LOCATION));
+
+        mServer.setDefaultResponse(HttpURLConnection.HTTP_OK,
+                FakeWeatherServer.fixture(FakeWeatherServer.FORECAST_MALFORMED));
+        sync();
+        status = status();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                status.getLocationStatus());
+        assertNotNull(status.getStageError(SyncStatusStore.STAGE_PARSE));
+        assertEquals("Error: A malformed forecast replaced the stored one",
+                16, storedDays(LOCATION));
+
+        mServer.setDefaultResponse(HttpURLConnection.HTTP_OK,
+                FakeWeatherServer.fixture(FakeWeatherServer.FORECAST_NOT_FOUND));
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                status().getLocationStatus());
+
+        // Errors OpenWeatherMap sends with HTTP 200 are the server's fault, not the location's.
+        mServer.setDefaultResponse(HttpURLConnection.HTTP_OK,
+                FakeWeatherServer.fixture(FakeWeatherServer.FORECAST_UNAUTHORIZED));
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                status().getLocationStatus());
+
+        mServer.setDefaultResponse(HttpURLConnection.HTTP_OK,
+                FakeWeatherServer.fixture(FakeWeatherServer.FORECAST_RATE_LIMITED));
+        sync();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                status().getLocationStatus());
+        assertEquals("Error: An error response replaced the stored forecast",
+                16, storedDays(LOCATION));
+
+        mServer.setDefaultResponse(HttpURLConnection.HTTP_INTERNAL_ERROR,
+                "{\"cod\":\"500\"}".getBytes("UTF-8"));
+        sync();
+        status = status();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, status.getLocationStatus());
+        assertNotNull(status.getStageError(SyncStatusStore.STAGE_DOWNLOAD));
+    }
+
+    public void testConnectionsAreReused() throws Exception {
+        mServer.setDefaultResponse(HttpURLConnection.HTTP_OK,
+                FakeWeatherServer.fixture(FakeWeatherServer.FORECAST_14_DAY));
+        for (int i = 0; i < 5; i++) {
+            sync();
+        }
+        assertEquals(5, mServer.getRequestCount());
+        assertEquals("Error: Each sync opened a new connection", 1, mServer.getConnectionCount());
+    }
+
+    public void testSyncThroughputOneLocation() throws Exception {
+        mServer.setDefaultResponse(HttpURLConnection.HTTP_OK,
+                FakeWeatherServer.fixture(FakeWeatherServer.FORECAST_14_DAY));
+        runSyncs("14 days, 1 location", new String[]{LOCATION});
+    }
+
+    public void testSyncThroughputManyLocations() throws Exception {
+        String[] locations = mServer.setResponses(
+                FakeWeatherServer.fixture(FakeWeatherServer.FORECAST_MULTI_LOCATION));
+        runSyncs("16 days, " + locations.length + " locations", locations);
+        for (String location : locations) {
+            assertEquals(16, storedDays(location));
+        }
+    }
+
+    /*
+        Syncs the locations in turn, and logs how fast that was.
+     */
+    private void runSyncs(String name, String[] locations) {
+        for (int i = 0; i < WARM_UP_SYNCS; i++) {
+            setLocation(locations[i % locations.length]);
+            sync();
+        }
+
+        long[] totals = new long[SYNCS];
+        long[][] stages = new long[STAGE_NAMES.length][SYNCS];
+        long[] allocated = new long[SYNCS];
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < SYNCS; i++) {
+                setLocation(locations[i % locations.length]);
+                Debug.resetThreadAllocSize();
+                long syncStart = System.nanoTime();
+                sync();
+                totals[i] = System.nanoTime() - syncStart;
+                // Only what the sync allocated on this thread, not the wearable's or Glide's.
+                allocated[i] = Debug.getThreadAllocSize();
+                long[] stageNanos = mSyncAdapter.getLastStageNanos();
+                for (int s = 0; s < STAGE_NAMES.length; s++) {
+                    stages[s][i] = stageNanos[s];
+                }
+                assertEquals("Error: A sync failed", SunshineSyncAdapter.LOCATION_STATUS_OK,
+                        status().getLocationStatus());
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        StringBuilder report = new StringBuilder(String.format(Locale.US,
+                "%s: %d syncs, %.1f syncs/s, %d bytes allocated per sync (p50)."
+                        + " Latency in us, p50/p99: total %s",
+                name, SYNCS, SYNCS * 1e9 / elapsed, percentile(allocated, 0.50),
+                latencies(totals)));
+        for (int s = 0; s < STAGE_NAMES.length; s++) {
+            report.append(", ").append(STAGE_NAMES[s]).append(' ').append(latencies(stages[s]));
+        }
+        Log.i(LOG_TAG, report.toString());
+    }
+
+    private static String latencies(long[] samples) {
+        return TimeUnit.NANOSECONDS.toMicros(percentile(samples, 0.50)) + "/"
+                + TimeUnit.NANOSECONDS.toMicros(percentile(samples, 0.99));
+    }
+
+    private static long percentile(long[] samples, double fraction) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
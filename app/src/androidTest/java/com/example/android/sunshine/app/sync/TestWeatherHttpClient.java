@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Decodes response bodies the way WeatherHttpClient does after the request, without a server,
+    and checks the timeouts and concurrent requests against a local server.
+ */
+public class TestWeatherHttpClient extends AndroidTestCase {
+
+    private static final int READ_TIMEOUT_MILLIS = 500;
+
+    private static byte[] body() throws IOException {
+        // Repetitive, like a forecast, and longer than one pooled buffer.
+        StringBuilder json = new StringBuilder("{\"list\":[");
+        for (int i = 0; i < 500; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"temp\":{\"max\":21.5,\"min\":11.2},\"description\":\"Cléar\"}");
+        }
+        return json.append("]}").toString().getBytes("UTF-8");
+    }
+
+    private static byte[] compress(byte[] bytes, OutputStream out, ByteArrayOutputStream sink)
+            throws IOException {
+        out.write(bytes);
+        out.close();
+        return sink.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private void checkDecoded(String encoding, byte[] wire, byte[] expected) throws IOException {
+        WeatherHttpClient.Download download =
+                new WeatherHttpClient.Download(new ByteArrayInputStream(wire), encoding, null);
+        try {
+            assertTrue("Error: The " + encoding + " body was decoded wrong",
+                    Arrays.equals(expected, readAll(download.getBody())));
+            assertEquals(wire.length, download.getCompressedBytes());
+            assertEquals(expected.length, download.getUncompressedBytes());
+        } finally {
+            download.close();
+        }
+    }
+
+    public void testEncodingsAreDecoded() throws IOException {
+        byte[] body = body();
+        checkDecoded(null, body, body);
+        checkDecoded("identity", body, body);
+
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        byte[] gzipped = compress(body, new GZIPOutputStream(gzip), gzip);
+        assertTrue("Error: The test body didn't compress", gzipped.length * 4 < body.length);
+        checkDecoded("gzip", gzipped, body);
+
+        ByteArrayOutputStream deflate = new ByteArrayOutputStream();
+        checkDecoded("deflate", compress(body, new DeflaterOutputStream(deflate), deflate), body);
+    }
+
+    public void testUnknownEncodingIsRejected() throws IOException {
+        byte[] body = body();
+        try {
+            new WeatherHttpClient.Download(new ByteArrayInputStream(body), "br", null);
+            fail("Error: An encoding that wasn't asked for was accepted");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    public void testStalledServerTimesOut() throws IOException {
+        FakeWeatherServer server = new FakeWeatherServer();
+        server.start();
+        try {
+            server.setDefaultResponse(200, body());
+            server.setStalled(true);
+            WeatherHttpClient client = new WeatherHttpClient(READ_TIMEOUT_MILLIS,
+                    READ_TIMEOUT_MILLIS);
+            long start = System.nanoTime();
+            WeatherHttpClient.Download download =
+                    client.get(new URL(server.getForecastBaseUrl() + "q=94043"));
+            try {
+                readAll(download.getBody());
+                fail("Error: Reading from a stalled server didn't time out");
+            } catch (SocketTimeoutException e) {
+                // Expected.
+            } finally {
+                download.close();
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+            assertTrue("Error: The timeout took " + elapsedMillis + "ms to fire",
+                    elapsedMillis < READ_TIMEOUT_MILLIS * 10);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testConcurrentRequestsReuseConnections() throws IOException {
+        FakeWeatherServer server = new FakeWeatherServer();
+        server.start();
+        try {
+            final byte[] body = body();
+            server.setDefaultResponse(200, body);
+            WeatherHttpClient client = new WeatherHttpClient(
+                    WeatherHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS * 10);
+            // A location apiece, as a sync of several locations would ask for them.
+            List<URL> urls = new ArrayList<URL>();
+            for (int i = 0; i < WeatherHttpClient.MAX_CONCURRENT_REQUESTS; i++) {
+                urls.add(new URL(server.getForecastBaseUrl() + "q=9404" + i));
+            }
+            WeatherHttpClient.BodyHandler<Boolean> handler =
+                    new WeatherHttpClient.BodyHandler<Boolean>() {
+                        @Override
+                        public Boolean handle(URL url, WeatherHttpClient.Download download)
+                                throws IOException {
+                            return Arrays.equals(body, readAll(download.getBody()));
+                        }
+                    };
+
+            int rounds = 3;
+            for (int round = 0; round < rounds; round++) {
+                for (Boolean matches : client.fetchAll(urls, handler)) {
+                    assertTrue("Error: A concurrent response was read wrong", matches);
+                }
+            }
+            assertEquals(rounds * urls.size(), server.getRequestCount());
+            assertTrue("Error: " + server.getConnectionCount() + " connections for "
+                            + server.getRequestCount() + " requests",
+                    server.getConnectionCount() <= urls.size());
+        } finally {
+            server.shutdown();
+        }
+    }
+}
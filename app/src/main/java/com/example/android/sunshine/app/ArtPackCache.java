@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.support.annotation.IntDef;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The art of a downloaded art pack, kept on disk already decoded and scaled to each size the app
+ * draws it at, so that once {@link ArtPackWarmupService} has stored a pack nothing has to be
+ * downloaded or decoded for it again.  Bitmaps read from disk are kept in memory and shared by
+ * everyone asking for the same art.
+ * <p>
+ * Each pack is a directory named after its URL format, holding a manifest and one file per
+ * condition and size.  The manifest is written last, so a pack without one is incomplete.  It
+ * records the URL format and the pixel sizes the art was scaled to, so a pack stored for
+ * another art pack setting or screen density is stale and can be evicted.
+ * <p>
+ * Format, big-endian.  Manifest: magic, version, URL format, time stored, size count, then per
+ * size its width and height.  Art: width, height, then the ARGB_8888 pixels as
+ * {@link Bitmap#copyPixelsToBuffer} writes them.
+ */
+public final class ArtPackCache {
+
+    private static final String LOG_TAG = ArtPackCache.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({SIZE_LIST, SIZE_TODAY, SIZE_NOTIFICATION})
+    public @interface Size {}
+
+    // A forecast list row, and the detail widget's rows.
+    public static final int SIZE_LIST = 0;
+    // The today row of the forecast list, and the detail view.
+    public static final int SIZE_TODAY = 1;
+    // The large icon of the forecast notification.
+    public static final int SIZE_NOTIFICATION = 2;
+    static final int SIZE_COUNT = 3;
+
+    private static final String DIRECTORY = "art_packs";
+    private static final String MANIFEST = "manifest";
+    private static final int MAGIC = 0x41525450; // "ARTP"
+    private static final int VERSION = 1;
+
+    private static volatile ArtPackCache sInstance;
+
+    private final Context mContext;
+    private final File mRoot;
+    private final int[] mWidths = new int[SIZE_COUNT];
+    private final int[] mHeights = new int[SIZE_COUNT];
+    private final LruCache<String, Bitmap> mBitmaps;
+
+    // Guarded by this.  The URL format of the last pack looked up, and whether it is stored.
+    private String mCheckedUrlFormat;
+    private boolean mCheckedWarm;
+
+    public static ArtPackCache getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (ArtPackCache.class) {
+                if (sInstance == null) {
+                    sInstance = new ArtPackCache(context.getApplicationContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private ArtPackCache(Context context) {
+        mContext = context;
+        mRoot = new File(context.getFilesDir(), DIRECTORY);
+        Resources resources = context.getResources();
+        mWidths[SIZE_LIST] = mHeights[SIZE_LIST] =
+                resources.getDimensionPixelSize(R.dimen.list_icon);
+        mWidths[SIZE_TODAY] = mHeights[SIZE_TODAY] =
+                resources.getDimensionPixelSize(R.dimen.today_icon);
+        mWidths[SIZE_NOTIFICATION] =
+                resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        mHeights[SIZE_NOTIFICATION] =
+                resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
+
+        // Enough for every condition at every size on the densest screens.
+        mBitmaps = new LruCache<String, Bitmap>((int) (Runtime.getRuntime().maxMemory() / 16)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    private File getPackDirectory(String urlFormat) {
+        return new File(mRoot, Integer.toHexString(urlFormat.hashCode()));
+    }
+
+    private static File getArtFile(File pack, int condition, @Size int size) {
+        return new File(pack, WeatherConditions.getArtName(condition) + "_" + size);
+    }
+
+    /**
+     * @return whether every condition of the pack with {@code urlFormat} is stored, at the sizes
+     * this screen needs.
+     */
+    public synchronized boolean isWarm(String urlFormat) {
+        if (!urlFormat.equals(mCheckedUrlFormat)) {
+            mCheckedWarm = readManifest(getPackDirectory(urlFormat), urlFormat);
+            mCheckedUrlFormat = urlFormat;
+        }
+        return mCheckedWarm;
+    }
+
+    /*
+        Whether the pack in the directory has a manifest for the URL format and this screen.
+     */
+    private boolean readManifest(File pack, String urlFormat) {
+        File file = new File(pack, MANIFEST);
+        if (!file.exists()) {
+            return false;
+        }
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return false;
+            }
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalArgumentException("Bad URL format length " + length);
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            if (!urlFormat.equals(new String(bytes, StandardCharsets.UTF_8))) {
+                return false;
+            }
+            buffer.getLong(); // When it was stored, for whoever looks at the files.
+            if (buffer.getInt() != SIZE_COUNT) {
+                return false;
+            }
+            for (int size = 0; size < SIZE_COUNT; size++) {
+                if (buffer.getInt() != mWidths[size] || buffer.getInt() != mHeights[size]) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable art pack manifest in " + pack, e);
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Read-only, nothing was lost.
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the stored art for {@code weatherId} at {@code size}, or null if the pack with
+     * {@code urlFormat} isn't stored and it has to be downloaded.
+     */
+    public Bitmap getArt(String urlFormat, int weatherId, @Size int size) {
+        int condition = WeatherConditions.classify(weatherId);
+        if (condition == WeatherConditions.UNKNOWN || !isWarm(urlFormat)) {
+            return null;
+        }
+        File file = getArtFile(getPackDirectory(urlFormat), condition, size);
+        String key = file.getPath();
+        Bitmap art = mBitmaps.get(key);
+        if (art == null) {
+            art = readArt(file);
+            if (art == null) {
+                // Deleted from under us, download it until the pack is stored again.
+                forgetChecked();
+                return null;
+            }
+            mBitmaps.put(key, art);
+        }
+        return art;
+    }
+
+    /**
+     * Same as {@link #getArt}, for the art pack the user picked.
+     *
+     * @return null if the pack is the one built into the app, or isn't stored.
+     */
+    public Bitmap getArtForWeatherCondition(int weatherId, @Size int size) {
+        if (Utility.usingLocalGraphics(mContext)) {
+            return null;
+        }
+        return getArt(Utility.getArtPackUrlFormat(mContext), weatherId, size);
+    }
+
+    private static Bitmap readArt(File file) {
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            if (width <= 0 || height <= 0
+                    || (long) width * height * 4 != buffer.remaining()) {
+                throw new IllegalArgumentException("Bad art size " + width + "x" + height);
+            }
+            Bitmap art = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            art.copyPixelsFromBuffer(buffer.slice());
+            return art;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable art " + file, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Read-only, nothing was lost.
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the art of every condition of a pack, replacing the pack stored for
+     * {@code urlFormat} if there is one.  Call on a background thread.
+     *
+     * @param art the downloaded art, indexed by {@link WeatherConditions} condition.
+     */
+    void storePack(String urlFormat, Bitmap[] art) throws IOException {
+        File pack = getPackDirectory(urlFormat);
+        File temp = new File(mRoot, pack.getName() + ".tmp");
+        deleteRecursively(temp);
+        if (!temp.mkdirs()) {
+            throw new IOException("Unable to create " + temp);
+        }
+
+        for (int condition = 0; condition < WeatherConditions.COUNT; condition++) {
+            for (int size = 0; size < SIZE_COUNT; size++) {
+                Bitmap scaled = scaleToFit(art[condition], mWidths[size], mHeights[size]);
+                try {
+                    writeArt(getArtFile(temp, condition, size), scaled);
+                } finally {
+                    if (scaled != art[condition]) {
+                        scaled.recycle();
+                    }
+                }
+            }
+        }
+        writeManifest(new File(temp, MANIFEST), urlFormat);
+
+        deleteRecursively(pack);
+        if (!temp.renameTo(pack)) {
+            deleteRecursively(temp);
+            throw new IOException("Unable to replace " + pack);
+        }
+        mBitmaps.evictAll();
+        forgetChecked();
+    }
+
+    /*
+        Scales the art down or up to fit the size, keeping its aspect ratio, the way fitCenter
+        does.
+     */
+    private static Bitmap scaleToFit(Bitmap art, int width, int height) {
+        float scale = Math.min((float) width / art.getWidth(), (float) height / art.getHeight());
+        int scaledWidth = Math.max(1, Math.round(art.getWidth() * scale));
+        int scaledHeight = Math.max(1, Math.round(art.getHeight() * scale));
+        if (scaledWidth == art.getWidth() && scaledHeight == art.getHeight()
+                && art.getConfig() == Bitmap.Config.ARGB_8888) {
+            return art;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(art, scaledWidth, scaledHeight, true);
+        if (scaled.getConfig() != Bitmap.Config.ARGB_8888) {
+            Bitmap converted = scaled.copy(Bitmap.Config.ARGB_8888, false);
+            if (scaled != art) {
+                scaled.recycle();
+            }
+            scaled = converted;
+        }
+        return scaled;
+    }
+
+    private static void writeArt(File file, Bitmap art) throws IOException {
+        ByteBuffer pixels = ByteBuffer.allocate(art.getByteCount());
+        art.copyPixelsToBuffer(pixels);
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(art.getWidth());
+            out.writeInt(art.getHeight());
+            out.write(pixels.array(), 0, pixels.position());
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+    }
+
+    private void writeManifest(File file, String urlFormat) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        byte[] format = urlFormat.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(format.length);
+        out.write(format);
+        out.writeLong(System.currentTimeMillis());
+        out.writeInt(SIZE_COUNT);
+        for (int size = 0; size < SIZE_COUNT; size++) {
+            out.writeInt(mWidths[size]);
+            out.writeInt(mHeights[size]);
+        }
+        out.flush();
+
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            bytes.writeTo(stream);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Deletes every stored pack but the one for {@code urlFormat}, and anything left over from
+     * an interrupted {@link #storePack}.  Call on a background thread.
+     *
+     * @param urlFormat the pack to keep, or null to delete them all.
+     */
+    void evictExcept(String urlFormat) {
+        File[] packs = mRoot.listFiles();
+        if (packs == null) {
+            return;
+        }
+        String keep = urlFormat != null ? getPackDirectory(urlFormat).getName() : null;
+        for (File pack : packs) {
+            if (pack.getName().equals(keep) && readManifest(pack, urlFormat)) {
+                continue;
+            }
+            Log.d(LOG_TAG, "Evicting art pack " + pack.getName());
+            deleteRecursively(pack);
+        }
+        mBitmaps.evictAll();
+        forgetChecked();
+    }
+
+    private synchronized void forgetChecked() {
+        mCheckedUrlFormat = null;
+    }
+
+    /**
+     * @return whether any pack, stale or not, is stored.
+     */
+    boolean hasPacks() {
+        String[] packs = mRoot.list();
+        return packs != null && packs.length > 0;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
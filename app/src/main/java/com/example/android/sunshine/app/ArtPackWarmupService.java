@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Downloads the art of every condition of the art pack the user picked, in one go over an
+ * unmetered network, and stores it in {@link ArtPackCache}.  From then on the list, the detail
+ * view, the widgets and the notification read the art from disk.
+ * <p>
+ * Also evicts the packs stored for other art pack settings.  When the built-in pack is picked
+ * there is nothing to download, so the job only evicts, and doesn't wait for a network.
+ */
+public class ArtPackWarmupService extends JobService {
+
+    private static final String LOG_TAG = ArtPackWarmupService.class.getSimpleName();
+
+    private static final int JOB_ID = 1;
+    private static final long BACKOFF_MILLIS = 30 * 1000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    // One job at a time, so a pack is never stored and evicted at once.
+    private static final Executor sExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, LOG_TAG);
+                }
+            });
+
+    private volatile boolean mStopped;
+
+    /**
+     * Schedules the warmup for the art pack the user picked, unless it is stored already.  Call
+     * when the art pack setting changes.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        ArtPackCache cache = ArtPackCache.getInstance(context);
+        boolean local = Utility.usingLocalGraphics(context);
+        if (local ? !cache.hasPacks() : cache.isWarm(Utility.getArtPackUrlFormat(context))) {
+            scheduler.cancel(JOB_ID);
+            return;
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, ArtPackWarmupService.class))
+                .setRequiredNetworkType(local
+                        ? JobInfo.NETWORK_TYPE_NONE : JobInfo.NETWORK_TYPE_UNMETERED)
+                .setBackoffCriteria(BACKOFF_MILLIS, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mStopped = false;
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean done = warmUp();
+                jobFinished(params, !done && !mStopped);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The network went away, or metered.  Try again once it's back.
+        mStopped = true;
+        return true;
+    }
+
+    /*
+        Returns false if the pack should be downloaded again later.
+     */
+    private boolean warmUp() {
+        ArtPackCache cache = ArtPackCache.getInstance(this);
+        if (Utility.usingLocalGraphics(this)) {
+            cache.evictExcept(null);
+            return true;
+        }
+        String urlFormat = Utility.getArtPackUrlFormat(this);
+        cache.evictExcept(urlFormat);
+        if (cache.isWarm(urlFormat)) {
+            return true;
+        }
+
+        Bitmap[] art = new Bitmap[WeatherConditions.COUNT];
+        try {
+            for (int condition = 0; condition < WeatherConditions.COUNT; condition++) {
+                if (mStopped) {
+                    return false;
+                }
+                String url = String.format(Locale.US, urlFormat,
+                        WeatherConditions.getArtName(condition));
+                byte[] bytes = download(new URL(url));
+                art[condition] = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+                if (art[condition] == null) {
+                    throw new IOException("Unable to decode " + url);
+                }
+            }
+            if (!urlFormat.equals(Utility.getArtPackUrlFormat(this))) {
+                // Picked another pack meanwhile, which has its own job scheduled.
+                return true;
+            }
+            cache.storePack(urlFormat, art);
+            Log.d(LOG_TAG, "Stored art pack " + urlFormat);
+            return true;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to store art pack " + urlFormat, e);
+            return false;
+        } finally {
+            for (Bitmap bitmap : art) {
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+            }
+        }
+    }
+
+    private static byte[] download(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + connection.getResponseCode() + " for " + url);
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -16,39 +16,193 @@
 package com.example.android.sunshine.app;
 
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentStatePagerAdapter;
+import android.support.v4.view.PagerAdapter;
+import android.support.v4.view.ViewPager;
 import android.support.v7.app.ActionBarActivity;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
 
+import com.example.android.sunshine.app.data.WeatherContract;
 
-public class DetailActivity extends AppCompatActivity {
+/**
+ * Shows the day picked in the list, and the other days of the forecast a swipe away.  All the
+ * days come from one {@link ForecastDataSource} query, and the pager keeps the pages next to
+ * the one shown bound, so swiping to another day needs neither a query nor a transition.
+ * <p>
+ * A day that isn't in the forecast any more is shown on its own, queried as before.
+ */
+public class DetailActivity extends AppCompatActivity
+        implements ForecastDataSource.Host, ForecastDataSource.Listener {
+
+    private static final String SINGLE_DAY_TAG = "SDTAG";
+    private static final String STATE_INITIAL_PAGE_SHOWN = "initial_page_shown";
+
+    private ForecastDataSource mDataSource;
+    private ViewPager mPager;
+    private DayPagerAdapter mPagerAdapter;
+    private long mInitialDate = -1;
+    private String mInitialLocation;
+    // Whether the pager has been moved to the day picked in the list, or it is shown alone.
+    private boolean mInitialPageShown;
+
+    /**
+     * One {@link DetailFragment} per day of a snapshot.
+     */
+    private class DayPagerAdapter extends FragmentStatePagerAdapter {
+        private ForecastSnapshot mSnapshot = ForecastSnapshot.EMPTY;
+
+        DayPagerAdapter(FragmentManager fragmentManager) {
+            super(fragmentManager);
+        }
+
+        /**
+         * Shows the days of a new snapshot.  The pages bind the new data themselves, so this
+         * only rebuilds them if the days themselves changed.
+         */
+        void swapSnapshot(ForecastSnapshot snapshot) {
+            ForecastSnapshot previous = mSnapshot;
+            mSnapshot = snapshot;
+            if (sameDays(previous, snapshot)) {
+                return;
+            }
+            long currentDate = previous.getCount() > 0
+                    ? previous.getDate(Math.min(mPager.getCurrentItem(), previous.getCount() - 1))
+                    : -1;
+            notifyDataSetChanged();
+            int position = snapshot.indexOfDate(currentDate);
+            if (position >= 0) {
+                mPager.setCurrentItem(position, false);
+            }
+        }
+
+        private boolean sameDays(ForecastSnapshot a, ForecastSnapshot b) {
+            if (a.getCount() != b.getCount()) {
+                return false;
+            }
+            for (int i = 0; i < a.getCount(); i++) {
+                if (a.getDate(i) != b.getDate(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Fragment getItem(int position) {
+            long date = mSnapshot.getDate(position);
+            return DetailFragment.newPage(date, date == mInitialDate);
+        }
+
+        @Override
+        public int getCount() {
+            return mSnapshot.getCount();
+        }
+
+        @Override
+        public int getItemPosition(Object object) {
+            // Days moved, and FragmentStatePagerAdapter can't move pages, so they are rebuilt.
+            // They are bound from memory, so that is cheap.
+            return PagerAdapter.POSITION_NONE;
+        }
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_detail);
 
+        Uri uri = getIntent().getData();
+        if (uri != null) {
+            mInitialDate = WeatherContract.WeatherEntry.getDateFromUri(uri);
+            mInitialLocation = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        }
+
+        mPager = (ViewPager) findViewById(R.id.detail_pager);
+        mPagerAdapter = new DayPagerAdapter(getSupportFragmentManager());
+        mPager.setAdapter(mPagerAdapter);
+
         if (savedInstanceState == null) {
-            // Create the detail fragment and add it to the activity
-            // using a fragment transaction.
+            // Being here means we are in animation mode
+            supportPostponeEnterTransition();
+        } else {
+            mInitialPageShown = savedInstanceState.getBoolean(STATE_INITIAL_PAGE_SHOWN);
+        }
+        if (getSupportFragmentManager().findFragmentByTag(SINGLE_DAY_TAG) != null) {
+            mPager.setVisibility(View.GONE);
+        }
 
-            Bundle arguments = new Bundle();
-            arguments.putParcelable(DetailFragment.DETAIL_URI, getIntent().getData());
-            arguments.putBoolean(DetailFragment.DETAIL_TRANSITION_ANIMATION, true);
+        mDataSource = new ForecastDataSource(this);
+        mDataSource.addListener(this);
+        mDataSource.start();
+    }
 
-            DetailFragment fragment = new DetailFragment();
-            fragment.setArguments(arguments);
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_INITIAL_PAGE_SHOWN, mInitialPageShown);
+    }
 
-            getSupportFragmentManager().beginTransaction()
-                    .add(R.id.weather_detail_container, fragment)
-                    .commit();
+    @Override
+    protected void onDestroy() {
+        mDataSource.removeListener(this);
+        super.onDestroy();
+    }
 
-            // Being here means we are in animation mode
-            supportPostponeEnterTransition();
+    @Override
+    public ForecastDataSource getForecastDataSource() {
+        return mDataSource;
+    }
+
+    @Override
+    public void onForecastChanged(ForecastSnapshot snapshot) {
+        if (mPager.getVisibility() != View.VISIBLE) {
+            return;
+        }
+        if (mInitialPageShown) {
+            mPagerAdapter.swapSnapshot(snapshot);
+            return;
+        }
+
+        boolean sameLocation = mInitialLocation == null
+                || mInitialLocation.equals(snapshot.getLocationSetting());
+        int position = sameLocation ? snapshot.indexOfDate(mInitialDate) : -1;
+        if (position >= 0) {
+            // Pages are only created now, so the first ones created are around the picked day.
+            mPagerAdapter.swapSnapshot(snapshot);
+            mPager.setCurrentItem(position, false);
+            mInitialPageShown = true;
+        } else if (mDataSource.isLoaded()) {
+            showSingleDay();
+            mInitialPageShown = true;
         }
+        // Otherwise the last sync's forecast doesn't have the day, wait for the query.
+    }
+
+    /*
+        Shows the picked day with a query of its own, the way the detail view used to.
+     */
+    private void showSingleDay() {
+        mPager.setVisibility(View.GONE);
+
+        Bundle arguments = new Bundle();
+        arguments.putParcelable(DetailFragment.DETAIL_URI, getIntent().getData());
+        arguments.putBoolean(DetailFragment.DETAIL_TRANSITION_ANIMATION, true);
+
+        DetailFragment fragment = new DetailFragment();
+        fragment.setArguments(arguments);
+
+        // Called back by the loader, which may be after the state was saved.
+        getSupportFragmentManager().beginTransaction()
+                .add(R.id.weather_detail_container, fragment, SINGLE_DAY_TAG)
+                .commitAllowingStateLoss();
     }
-}
\ No newline at end of file
+}
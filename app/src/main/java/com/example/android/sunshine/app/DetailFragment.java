@@ -17,12 +17,14 @@ package com.example.android.sunshine.app;
 
 import android.content.Intent;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.view.ViewCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.ShareActionProvider;
@@ -43,18 +45,30 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * A placeholder fragment containing a simple view.
+ * <p>
+ * Shows the day of {@link #DETAIL_URI} with a query of its own, or the day of
+ * {@link #DETAIL_DATE} from the activity's {@link ForecastDataSource}: as a page of
+ * {@link DetailActivity}, or as the detail pane of the two-pane {@link MainActivity}.
  */
-public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>,
+        ForecastDataSource.Listener {
 
     private static final String LOG_TAG = DetailFragment.class.getSimpleName();
     static final String DETAIL_URI = "URI";
     static final String DETAIL_TRANSITION_ANIMATION = "DTA";
+    static final String DETAIL_DATE = "DATE";
 
     private static final String FORECAST_SHARE_HASHTAG = " #SunshineApp";
+    private static final String STATE_DATE = "date";
 
     private String mForecast;
     private Uri mUri;
     private boolean mTransitionAnimation;
+    private ForecastDataSource mDataSource;
+    private long mDate;
+    // What is on screen, so a new snapshot only rebinds if this day changed.
+    private ForecastSnapshot mBoundSnapshot;
+    private int mBoundPosition;
 
     private static final int DETAIL_LOADER = 0;
 
@@ -103,6 +117,63 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         setHasOptionsMenu(true);
     }
 
+    /**
+     * @return a fragment showing the day at {@code date} from the activity's data source.
+     */
+    static DetailFragment newDay(long date) {
+        Bundle arguments = new Bundle();
+        arguments.putLong(DETAIL_DATE, date);
+        DetailFragment fragment = new DetailFragment();
+        fragment.setArguments(arguments);
+        return fragment;
+    }
+
+    /**
+     * @return a page showing the day at {@code date}.
+     */
+    static DetailFragment newPage(long date, boolean transitionAnimation) {
+        DetailFragment fragment = newDay(date);
+        fragment.getArguments().putBoolean(DETAIL_TRANSITION_ANIMATION, transitionAnimation);
+        return fragment;
+    }
+
+    /**
+     * @return true if the day comes from the activity's {@link ForecastDataSource}.
+     */
+    boolean usesDataSource() {
+        return getArguments() != null && getArguments().containsKey(DETAIL_DATE);
+    }
+
+    private boolean isPage() {
+        return usesDataSource() && getActivity() instanceof DetailActivity;
+    }
+
+    /**
+     * Shows another day of the data source's snapshot, with no query and no new fragment.
+     */
+    void showDate(long date) {
+        mDate = date;
+        if (mDataSource != null) {
+            onForecastChanged(mDataSource.getSnapshot());
+        }
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        if (usesDataSource()) {
+            mDate = savedInstanceState != null ? savedInstanceState.getLong(STATE_DATE)
+                    : getArguments().getLong(DETAIL_DATE);
+        }
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        // The arguments can't change once added, so they only hold the first day shown.
+        outState.putLong(STATE_DATE, mDate);
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -125,6 +196,10 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         mWindLabelView = (TextView) rootView.findViewById(R.id.detail_wind_label_textview);
         mPressureView = (TextView) rootView.findViewById(R.id.detail_pressure_textview);
         mPressureLabelView = (TextView) rootView.findViewById(R.id.detail_pressure_label_textview);
+        if (isPage() && !mTransitionAnimation) {
+            // Only the page of the day picked in the list takes part in the transition.
+            ViewCompat.setTransitionName(mIconView, null);
+        }
         return rootView;
     }
 
@@ -153,11 +228,56 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
-        getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        if (usesDataSource()) {
+            // The day is already in memory, so it is bound as soon as the view is created.
+            mDataSource = ((ForecastDataSource.Host) getActivity()).getForecastDataSource();
+            mDataSource.addListener(this);
+            onForecastChanged(mDataSource.getSnapshot());
+        } else {
+            getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        }
         super.onActivityCreated(savedInstanceState);
     }
 
+    @Override
+    public void onDestroyView() {
+        if (mDataSource != null) {
+            mDataSource.removeListener(this);
+            mDataSource = null;
+        }
+        mBoundSnapshot = null;
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onForecastChanged(ForecastSnapshot snapshot) {
+        int position = snapshot.indexOfDate(mDate);
+        if (position < 0) {
+            return;
+        }
+        if (mBoundSnapshot != null && snapshot.sameDay(position, mBoundSnapshot, mBoundPosition)) {
+            // Other days changed, or none did, this one is still on screen as it is.
+            mBoundSnapshot = snapshot;
+            mBoundPosition = position;
+            return;
+        }
+        bind(snapshot, position);
+    }
+
+    @Override
+    public void setUserVisibleHint(boolean isVisibleToUser) {
+        super.setUserVisibleHint(isVisibleToUser);
+        // The pages share the activity's action bar, the one being shown puts its toolbar there.
+        if (isVisibleToUser && isPage() && getView() != null) {
+            setUpActionBar();
+        }
+    }
+
     void onLocationChanged( String newLocation ) {
+        if (usesDataSource()) {
+            // The data source queries the new location, and the day is rebound from its result.
+            return;
+        }
         // replace the uri, since the location has changed
         Uri uri = mUri;
         if (null != uri) {
@@ -192,90 +312,118 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         if (data != null && data.moveToFirst()) {
-            ViewParent vp = getView().getParent();
-            if ( vp instanceof CardView ) {
-                ((View)vp).setVisibility(View.VISIBLE);
-            }
+            bindDay(data.getInt(COL_WEATHER_CONDITION_ID),
+                    data.getLong(COL_WEATHER_DATE),
+                    data.getDouble(COL_WEATHER_MAX_TEMP),
+                    data.getDouble(COL_WEATHER_MIN_TEMP),
+                    data.getFloat(COL_WEATHER_HUMIDITY),
+                    data.getFloat(COL_WEATHER_WIND_SPEED),
+                    data.getFloat(COL_WEATHER_DEGREES),
+                    data.getFloat(COL_WEATHER_PRESSURE));
+        }
+        onDayShown();
+    }
+
+    /**
+     * Shows the day at {@code position} of a snapshot that holds the detail columns.
+     */
+    void bind(ForecastSnapshot snapshot, int position) {
+        mBoundSnapshot = snapshot;
+        mBoundPosition = position;
+        bindDay(snapshot.getWeatherId(position),
+                snapshot.getDate(position),
+                snapshot.getHigh(position),
+                snapshot.getLow(position),
+                snapshot.getHumidity(position),
+                snapshot.getWindSpeed(position),
+                snapshot.getDegrees(position),
+                snapshot.getPressure(position));
+        onDayShown();
+    }
 
-            // Read weather condition ID from cursor
-            int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
+    private void bindDay(int weatherId, long date, double high, double low, float humidity,
+                         float windSpeed, float degrees, float pressure) {
+        ViewParent vp = getView().getParent();
+        if ( vp instanceof CardView ) {
+            ((View)vp).setVisibility(View.VISIBLE);
+        }
 
-            if ( Utility.usingLocalGraphics(getActivity()) ) {
-                mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
+        if ( Utility.usingLocalGraphics(getActivity()) ) {
+            mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
+        } else {
+            // Use weather art image, from disk if the art pack has been stored
+            Bitmap art = ArtPackCache.getInstance(getActivity())
+                    .getArtForWeatherCondition(weatherId, ArtPackCache.SIZE_TODAY);
+            if (art != null) {
+                Glide.clear(mIconView);
+                mIconView.setImageBitmap(art);
             } else {
-                // Use weather art image
                 Glide.with(this)
                         .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
                         .error(Utility.getArtResourceForWeatherCondition(weatherId))
                         .crossFade()
                         .into(mIconView);
             }
+        }
 
-            // Read date from cursor and update views for day of week and date
-            long date = data.getLong(COL_WEATHER_DATE);
-            String dateText = Utility.getFullFriendlyDayString(getActivity(),date);
-            mDateView.setText(dateText);
-
-            // Get description from weather condition ID
-            String description = Utility.getStringForWeatherCondition(getActivity(), weatherId);
-            mDescriptionView.setText(description);
-            mDescriptionView.setContentDescription(getString(R.string.a11y_forecast, description));
-
-            // For accessibility, add a content description to the icon field. Because the ImageView
-            // is independently focusable, it's better to have a description of the image. Using
-            // null is appropriate when the image is purely decorative or when the image already
-            // has text describing it in the same UI component.
-            mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
-
-            // Read high temperature from cursor and update view
-            boolean isMetric = Utility.isMetric(getActivity());
-
-            double high = data.getDouble(COL_WEATHER_MAX_TEMP);
-            String highString = Utility.formatTemperature(getActivity(), high);
-            mHighTempView.setText(highString);
-            mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
-
-            // Read low temperature from cursor and update view
-            double low = data.getDouble(COL_WEATHER_MIN_TEMP);
-            String lowString = Utility.formatTemperature(getActivity(), low);
-            mLowTempView.setText(lowString);
-            mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
-
-            // Read humidity from cursor and update view
-            float humidity = data.getFloat(COL_WEATHER_HUMIDITY);
-            mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
-            mHumidityView.setContentDescription(getString(R.string.a11y_humidity, mHumidityView.getText()));
-            mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
-
-            // Read wind speed and direction from cursor and update view
-            float windSpeedStr = data.getFloat(COL_WEATHER_WIND_SPEED);
-            float windDirStr = data.getFloat(COL_WEATHER_DEGREES);
-            mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeedStr, windDirStr));
-            mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
-            mWindLabelView.setContentDescription(mWindView.getContentDescription());
-
-            // Read pressure from cursor and update view
-            float pressure = data.getFloat(COL_WEATHER_PRESSURE);
-            mPressureView.setText(getString(R.string.format_pressure, pressure));
-            mPressureView.setContentDescription(getString(R.string.a11y_pressure, mPressureView.getText()));
-            mPressureLabelView.setContentDescription(mPressureView.getContentDescription());
-
-            // We still need this for the share intent
-            mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
+        // Update views for day of week and date
+        String dateText = Utility.getFullFriendlyDayString(getActivity(),date);
+        mDateView.setText(dateText);
+
+        // Get description from weather condition ID
+        String description = Utility.getStringForWeatherCondition(getActivity(), weatherId);
+        mDescriptionView.setText(description);
+        mDescriptionView.setContentDescription(getString(R.string.a11y_forecast, description));
+
+        // For accessibility, add a content description to the icon field. Because the ImageView
+        // is independently focusable, it's better to have a description of the image. Using
+        // null is appropriate when the image is purely decorative or when the image already
+        // has text describing it in the same UI component.
+        mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
+
+        // Update high temperature view
+        boolean isMetric = Utility.isMetric(getActivity());
+
+        String highString = Utility.formatTemperature(getActivity(), high);
+        mHighTempView.setText(highString);
+        mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
+
+        // Update low temperature view
+        String lowString = Utility.formatTemperature(getActivity(), low);
+        mLowTempView.setText(lowString);
+        mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
+
+        // Update humidity view
+        mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
+        mHumidityView.setContentDescription(getString(R.string.a11y_humidity, mHumidityView.getText()));
+        mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
+
+        // Update wind speed and direction view
+        mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeed, degrees));
+        mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
+        mWindLabelView.setContentDescription(mWindView.getContentDescription());
+
+        // Update pressure view
+        mPressureView.setText(getString(R.string.format_pressure, pressure));
+        mPressureView.setContentDescription(getString(R.string.a11y_pressure, mPressureView.getText()));
+        mPressureLabelView.setContentDescription(mPressureView.getContentDescription());
+
+        // We still need this for the share intent
+        mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
+    }
 
-        }
+    private void onDayShown() {
         AppCompatActivity activity = (AppCompatActivity)getActivity();
         Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
 
         // We need to start the enter transition after the data has loaded
         if ( mTransitionAnimation ) {
             activity.supportStartPostponedEnterTransition();
-
-            if ( null != toolbarView ) {
-                activity.setSupportActionBar(toolbarView);
-
-                activity.getSupportActionBar().setDisplayShowTitleEnabled(false);
-                activity.getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+        if ( mTransitionAnimation || isPage() ) {
+            // Pages off screen leave the action bar to the one being shown.
+            if ( !isPage() || getUserVisibleHint() ) {
+                setUpActionBar();
             }
         } else {
             if ( null != toolbarView ) {
@@ -287,6 +435,17 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         }
     }
 
+    private void setUpActionBar() {
+        AppCompatActivity activity = (AppCompatActivity)getActivity();
+        Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
+        if ( null != toolbarView ) {
+            activity.setSupportActionBar(toolbarView);
+
+            activity.getSupportActionBar().setDisplayShowTitleEnabled(false);
+            activity.getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+    }
+
     @Override
     public void onLoaderReset(Loader<Cursor> loader) { }
 }
\ No newline at end of file
@@ -16,9 +16,10 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
@@ -29,12 +30,15 @@ import android.widget.Checkable;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * from a {@link ForecastSnapshot} to a {@link android.support.v7.widget.RecyclerView}.
+ * <p>
+ * Each new snapshot is compared with the one on screen on a background thread, so a sync only
+ * rebinds the days that actually changed.  Item IDs are the dates, which are stable across loads.
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
@@ -44,11 +48,19 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
-    private Cursor mCursor;
+    // Compares snapshots off the main thread.  One thread, so diffs finish in order.
+    private static final Executor sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private ForecastSnapshot mSnapshot = ForecastSnapshot.EMPTY;
+    // Bumped by every swap, so a diff that finishes after a newer swap is thrown away.
+    private int mGeneration;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
+    final private ForecastArtPreloader mArtPreloader;
 
     /**
      * Cache of the children views for a forecast list item.
@@ -73,9 +85,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            if (adapterPosition == RecyclerView.NO_POSITION) return;
+            mClickHandler.onClick(mSnapshot.getDate(adapterPosition), this);
             mICM.onClick(this);
         }
     }
@@ -90,6 +101,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mEmptyView = emptyView;
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
+        mArtPreloader = new ForecastArtPreloader(context, this);
+        setHasStableIds(true);
     }
 
     /*
@@ -124,8 +137,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        int weatherId = mSnapshot.getWeatherId(position);
         int defaultImage;
         boolean useLongToday;
 
@@ -139,22 +151,20 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
                 useLongToday = false;
         }
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( mArtPreloader.usingLocalGraphics() ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
-            Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
-                    .error(defaultImage)
-                    .crossFade()
-                    .into(forecastAdapterViewHolder.mIconView);
+            mArtPreloader.bind(forecastAdapterViewHolder.mIconView, weatherId, defaultImage,
+                    useLongToday ? ArtPackCache.SIZE_TODAY : ArtPackCache.SIZE_LIST);
         }
 
-        // this enables better animations. even if we lose state due to a device rotation,
-        // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
+        // Read date from the snapshot
+        long dateInMillis = mSnapshot.getDate(position);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        // this enables better animations. even if we lose state due to a device rotation,
+        // the animator can use this to re-find the original view.  Rows aren't rebound when
+        // other rows move, so the name is based on the date rather than the position.
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + dateInMillis);
 
         // Find TextView and set formatted date on it
         forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
@@ -170,14 +180,14 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+        // Read high temperature from the snapshot
+        double high = mSnapshot.getHigh(position);
         String highString = Utility.formatTemperature(mContext, high);
         forecastAdapterViewHolder.mHighTempView.setText(highString);
         forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+        // Read low temperature from the snapshot
+        double low = mSnapshot.getLow(position);
         String lowString = Utility.formatTemperature(mContext, low);
         forecastAdapterViewHolder.mLowTempView.setText(lowString);
         forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
@@ -208,18 +218,91 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mSnapshot.getCount();
     }
 
-    public void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
-        notifyDataSetChanged();
+    @Override
+    public long getItemId(int position) {
+        if (position < 0 || position >= mSnapshot.getCount()) return RecyclerView.NO_ID;
+        return mSnapshot.getDate(position);
+    }
+
+    /**
+     * Shows a new snapshot, rebinding only the days that differ from the one shown.
+     */
+    void swapSnapshot(final ForecastSnapshot snapshot) {
+        final int generation = ++mGeneration;
+        final ForecastSnapshot previous = mSnapshot;
+        if (previous.getCount() == 0 || snapshot.getCount() == 0) {
+            // Nothing to animate, and the caller expects the new item count straight away.
+            mSnapshot = snapshot;
+            notifyDataSetChanged();
+            onSnapshotApplied();
+            return;
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int[] ops = ForecastSnapshot.diff(previous, snapshot);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            applyDiff(snapshot, ops);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void applyDiff(ForecastSnapshot snapshot, int[] ops) {
+        ForecastSnapshot previous = mSnapshot;
+        mSnapshot = snapshot;
+        for (int i = 0; i < ops.length; i += 3) {
+            switch (ops[i]) {
+                case ForecastSnapshot.OP_REMOVE:
+                    notifyItemRangeRemoved(ops[i + 1], ops[i + 2]);
+                    break;
+                case ForecastSnapshot.OP_INSERT:
+                    notifyItemRangeInserted(ops[i + 1], ops[i + 2]);
+                    break;
+                default:
+                    notifyItemRangeChanged(ops[i + 1], ops[i + 2]);
+            }
+        }
+
+        long previousFirst = previous.getDate(0);
+        if (mUseTodayLayout && previousFirst != snapshot.getDate(0)) {
+            // A different day is first now, so it and the old first day change layout.
+            notifyItemChanged(0);
+            int previousFirstPosition = snapshot.indexOfDate(previousFirst);
+            if (previousFirstPosition > 0) {
+                notifyItemChanged(previousFirstPosition);
+            }
+        }
+        onSnapshotApplied();
+    }
+
+    private void onSnapshotApplied() {
+        // Days may have moved, so find the selected ones again by date.
+        mICM.onDataSetChanged();
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
-    public Cursor getCursor() {
-        return mCursor;
+    /**
+     * @return the forecast currently on screen.
+     */
+    public ForecastSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * @return the scroll listener that loads art ahead of the rows being bound.
+     */
+    ForecastArtPreloader getArtPreloader() {
+        return mArtPreloader;
     }
 
     public void selectView(RecyclerView.ViewHolder viewHolder) {
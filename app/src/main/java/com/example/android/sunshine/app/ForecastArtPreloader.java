@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseArray;
+import android.widget.ImageView;
+
+import com.bumptech.glide.DrawableRequestBuilder;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+
+import java.util.Locale;
+
+/**
+ * Loads the art of the forecast rows just past the edge of the screen, in the direction the
+ * list is scrolling, before they are bound.
+ * <p>
+ * There are only a few conditions, so the art of each one is loaded once per row type, at the
+ * size of that type's icon, and held until {@link #clear()}.  Rows load their art through
+ * {@link #bind} with the same URL, size and transformation, so Glide hands them the bitmap it
+ * already decoded, straight from memory and without a cross fade.
+ * <p>
+ * Nothing is preloaded once {@link ArtPackWarmupService} has stored the art pack.
+ */
+class ForecastArtPreloader extends RecyclerView.OnScrollListener {
+
+    // How many rows past the edge of the screen to load art for.
+    private static final int LOOK_AHEAD = 10;
+
+    private final Context mContext;
+    private final ForecastAdapter mAdapter;
+    private final ArtPackCache mArtCache;
+    private final String mArtPackKey;
+    private final String mSunshineArtPack;
+
+    // The art URL of each condition, for mArtUrlFormat.
+    private final String[] mArtUrls = new String[WeatherConditions.COUNT];
+    private String mArtUrlFormat;
+
+    // The icon of each row type, once a row of that type has been laid out.
+    private final SparseArray<IconSize> mIconSizes = new SparseArray<IconSize>();
+    // What is loaded, by row type and condition.
+    private final SparseArray<PreloadTarget> mPreloads = new SparseArray<PreloadTarget>();
+
+    // The rows preloaded for last, so scrolling within a row doesn't look again.
+    private ForecastSnapshot mLastSnapshot;
+    private int mLastFrom = RecyclerView.NO_POSITION;
+    private int mLastTo = RecyclerView.NO_POSITION;
+
+    private static final class IconSize {
+        final int mWidth;
+        final int mHeight;
+        final ImageView.ScaleType mScaleType;
+
+        IconSize(int width, int height, ImageView.ScaleType scaleType) {
+            mWidth = width;
+            mHeight = height;
+            mScaleType = scaleType;
+        }
+
+        boolean matches(ImageView view) {
+            return mWidth == view.getWidth() && mHeight == view.getHeight()
+                    && mScaleType == view.getScaleType();
+        }
+    }
+
+    private static final class PreloadTarget extends SimpleTarget<GlideDrawable> {
+        final String mUrl;
+        final IconSize mSize;
+
+        PreloadTarget(String url, IconSize size) {
+            super(size.mWidth, size.mHeight);
+            mUrl = url;
+            mSize = size;
+        }
+
+        @Override
+        public void onResourceReady(GlideDrawable resource,
+                                    GlideAnimation<? super GlideDrawable> glideAnimation) {
+            // Glide keeps the bitmap in memory until this load is cleared, rows share it.
+        }
+    }
+
+    ForecastArtPreloader(Context context, ForecastAdapter adapter) {
+        mContext = context;
+        mAdapter = adapter;
+        mArtCache = ArtPackCache.getInstance(context);
+        mArtPackKey = context.getString(R.string.pref_art_pack_key);
+        mSunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+    }
+
+    /**
+     * @return true if the art pack is the one built into the app, so nothing is downloaded.
+     */
+    boolean usingLocalGraphics() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String format = prefs.getString(mArtPackKey, mSunshineArtPack);
+        if (!format.equals(mArtUrlFormat)) {
+            mArtUrlFormat = format;
+            for (int i = 0; i < mArtUrls.length; i++) {
+                mArtUrls[i] = null;
+            }
+        }
+        return format.equals(mSunshineArtPack);
+    }
+
+    /**
+     * Same as {@link Utility#getArtUrlForWeatherCondition}, formatted once per condition.  Call
+     * {@link #usingLocalGraphics()} first to pick up the current art pack.
+     */
+    String getArtUrl(int weatherId) {
+        int condition = WeatherConditions.classify(weatherId);
+        if (condition == WeatherConditions.UNKNOWN) {
+            return null;
+        }
+        String url = mArtUrls[condition];
+        if (url == null) {
+            url = String.format(Locale.US, mArtUrlFormat, WeatherConditions.getArtName(condition));
+            mArtUrls[condition] = url;
+        }
+        return url;
+    }
+
+    /**
+     * Loads the art for {@code weatherId} into a row's icon, sharing what was preloaded for it.
+     * Once the art pack is stored, the art comes from {@link ArtPackCache} instead.
+     *
+     * @param size the size the art is stored at for this row's icon.
+     */
+    void bind(ImageView view, int weatherId, int errorImage, @ArtPackCache.Size int size) {
+        Bitmap art = mArtCache.getArt(mArtUrlFormat, weatherId, size);
+        if (art != null) {
+            Glide.clear(view);
+            view.setImageBitmap(art);
+            return;
+        }
+        request(getArtUrl(weatherId), view.getScaleType())
+                .error(errorImage)
+                .crossFade()
+                .into(view);
+    }
+
+    /*
+        Glide picks the transformation of a load into an ImageView from its scale type, and the
+        transformation is part of the memory cache key.  So both the preloads and the rows set
+        it the same way here.
+     */
+    private DrawableRequestBuilder<String> request(String url, ImageView.ScaleType scaleType) {
+        DrawableRequestBuilder<String> request = Glide.with(mContext).load(url);
+        switch (scaleType) {
+            case CENTER_CROP:
+                return request.centerCrop();
+            case FIT_CENTER:
+            case FIT_START:
+            case FIT_END:
+                return request.fitCenter();
+            default:
+                return request.dontTransform();
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        // Also called with no movement after a layout, which covers the first screen and new
+        // forecasts.
+        if (!(recyclerView.getLayoutManager() instanceof LinearLayoutManager)
+                || usingLocalGraphics()) {
+            return;
+        }
+        if (mArtCache.isWarm(mArtUrlFormat)) {
+            // Every row reads its art from disk now.
+            if (mPreloads.size() > 0) {
+                clear();
+            }
+            return;
+        }
+        measureIcons(recyclerView);
+
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        ForecastSnapshot snapshot = mAdapter.getSnapshot();
+        int from;
+        int to;
+        if (dy < 0) {
+            from = Math.max(0, first - LOOK_AHEAD);
+            to = first - 1;
+        } else {
+            from = last + 1;
+            to = Math.min(snapshot.getCount() - 1, last + LOOK_AHEAD);
+        }
+        if (snapshot == mLastSnapshot && from == mLastFrom && to == mLastTo) {
+            return;
+        }
+        mLastSnapshot = snapshot;
+        mLastFrom = from;
+        mLastTo = to;
+
+        for (int position = from; position <= to; position++) {
+            preload(mAdapter.getItemViewType(position), snapshot.getWeatherId(position));
+        }
+    }
+
+    private void measureIcons(RecyclerView recyclerView) {
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            RecyclerView.ViewHolder holder =
+                    recyclerView.getChildViewHolder(recyclerView.getChildAt(i));
+            if (!(holder instanceof ForecastAdapter.ForecastAdapterViewHolder)) {
+                continue;
+            }
+            ImageView icon = ((ForecastAdapter.ForecastAdapterViewHolder) holder).mIconView;
+            if (icon.getWidth() <= 0 || icon.getHeight() <= 0) {
+                continue;
+            }
+            int viewType = holder.getItemViewType();
+            IconSize size = mIconSizes.get(viewType);
+            if (size == null || !size.matches(icon)) {
+                mIconSizes.put(viewType,
+                        new IconSize(icon.getWidth(), icon.getHeight(), icon.getScaleType()));
+            }
+        }
+    }
+
+    private void preload(int viewType, int weatherId) {
+        IconSize size = mIconSizes.get(viewType);
+        String url = getArtUrl(weatherId);
+        if (size == null || url == null) {
+            // Bound before its row type has been laid out, or there is no art for it.
+            return;
+        }
+
+        int key = viewType * WeatherConditions.COUNT + WeatherConditions.classify(weatherId);
+        PreloadTarget preload = mPreloads.get(key);
+        if (preload != null) {
+            if (preload.mUrl.equals(url) && preload.mSize == size) {
+                return;
+            }
+            // The art pack or the icon size changed.
+            Glide.clear(preload);
+        }
+        preload = new PreloadTarget(url, size);
+        mPreloads.put(key, preload);
+        request(url, size.mScaleType).into(preload);
+    }
+
+    /**
+     * Lets go of everything preloaded.
+     */
+    void clear() {
+        for (int i = 0; i < mPreloads.size(); i++) {
+            Glide.clear(mPreloads.valueAt(i));
+        }
+        mPreloads.clear();
+        mLastSnapshot = null;
+        mLastFrom = RecyclerView.NO_POSITION;
+        mLastTo = RecyclerView.NO_POSITION;
+    }
+}
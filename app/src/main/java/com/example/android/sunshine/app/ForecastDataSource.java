@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The forecast of the preferred location from today on, loaded with a single range query and
+ * kept as a {@link ForecastSnapshot} for the fragments of one activity.  The snapshot holds
+ * every column the list and the detail view show, so they can show any day from memory.
+ * <p>
+ * Until the query returns, the snapshot is the one saved by the last sync.  The loader belongs
+ * to the activity, so it survives configuration changes and is re-run when the provider
+ * notifies of new weather.  Listeners are called on the main thread.
+ */
+class ForecastDataSource implements LoaderManager.LoaderCallbacks<Cursor> {
+
+    /**
+     * Implemented by activities with a data source, for their fragments to find it.
+     */
+    interface Host {
+        ForecastDataSource getForecastDataSource();
+    }
+
+    interface Listener {
+        void onForecastChanged(ForecastSnapshot snapshot);
+    }
+
+    private static final int FORECAST_LOADER = 0;
+
+    private final Context mContext;
+    private final LoaderManager mLoaderManager;
+    // Listeners may remove themselves while being called, when a pager drops their page.
+    private final CopyOnWriteArrayList<Listener> mListeners =
+            new CopyOnWriteArrayList<Listener>();
+
+    private ForecastSnapshot mSnapshot = ForecastSnapshot.EMPTY;
+    private boolean mLoaded;
+
+    ForecastDataSource(FragmentActivity activity) {
+        mContext = activity;
+        mLoaderManager = activity.getSupportLoaderManager();
+    }
+
+    /**
+     * Shows the forecast of the last sync straight away, and starts the query.  Call from
+     * onCreate().
+     */
+    void start() {
+        ForecastSnapshot lastSynced = ForecastSnapshotFile.read(mContext,
+                Utility.getPreferredLocation(mContext));
+        if (lastSynced != null) {
+            setSnapshot(lastSynced);
+        }
+        mLoaderManager.initLoader(FORECAST_LOADER, null, this);
+    }
+
+    /**
+     * Queries the new preferred location.
+     */
+    void onLocationChanged() {
+        mLoaded = false;
+        mLoaderManager.restartLoader(FORECAST_LOADER, null, this);
+    }
+
+    ForecastSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * @return whether the snapshot came from the database, rather than the last sync's file.
+     */
+    boolean isLoaded() {
+        return mLoaded;
+    }
+
+    void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void setSnapshot(ForecastSnapshot snapshot) {
+        // Units and art pack changes only notify, the rows read back are the same.  Stamping
+        // the settings on the snapshot makes the views rebind every day for them.
+        snapshot = snapshot.withDisplaySettings(Utility.isMetric(mContext),
+                Utility.getArtPackUrlFormat(mContext));
+        mSnapshot = snapshot;
+        for (Listener listener : mListeners) {
+            listener.onForecastChanged(snapshot);
+        }
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        // To only show current and future dates, filter the query to return weather only for
+        // dates after or including today.
+        String locationSetting = Utility.getPreferredLocation(mContext);
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+
+        return new CursorLoader(mContext,
+                weatherForLocationUri,
+                ForecastFragment.FORECAST_COLUMNS,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        // Copied, so the loader is free to close the cursor.
+        mLoaded = true;
+        setSnapshot(ForecastSnapshot.fromCursor(data));
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        // The snapshot is a copy, nothing refers to the cursor.
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.DateEngine;
+
+import java.util.Arrays;
+
+/**
+ * An immutable copy of the forecast list, one array per column, in ascending date order.  It
+ * holds what the detail view shows too, so any day can be shown without another query.
+ * <p>
+ * The adapter binds from a snapshot instead of the cursor, so the loader is free to close the
+ * cursor while a new snapshot is being compared with the old one on another thread.
+ */
+public final class ForecastSnapshot {
+
+    public static final ForecastSnapshot EMPTY = new ForecastSnapshot(0, null, 0);
+
+    // Operations produced by diff(), as (operation, position, count) triples.
+    static final int OP_REMOVE = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_CHANGE = 2;
+
+    private final int mCount;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final String[] mDescriptions;
+    private final double[] mHighs;
+    private final double[] mLows;
+    private final float[] mHumidities;
+    private final float[] mPressures;
+    private final float[] mWindSpeeds;
+    private final float[] mDegrees;
+
+    private final String mLocationSetting;
+    private final String mCoordLat;
+    private final String mCoordLong;
+
+    // Day labels like "Today" and "Tomorrow" depend on the day the snapshot was taken.
+    private final int mTodayJulianDay;
+
+    // The settings the days are shown with.  Changing them changes every row, not the data.
+    private final boolean mMetric;
+    private final String mArtPack;
+
+    private ForecastSnapshot(int count, Cursor cursor, int todayJulianDay) {
+        mCount = count;
+        mDates = new long[count];
+        mWeatherIds = new int[count];
+        mDescriptions = new String[count];
+        mHighs = new double[count];
+        mLows = new double[count];
+        mHumidities = new float[count];
+        mPressures = new float[count];
+        mWindSpeeds = new float[count];
+        mDegrees = new float[count];
+        mTodayJulianDay = todayJulianDay;
+        mMetric = true;
+        mArtPack = null;
+
+        if (count == 0) {
+            mLocationSetting = null;
+            mCoordLat = null;
+            mCoordLong = null;
+            return;
+        }
+
+        cursor.moveToPosition(-1);
+        for (int i = 0; cursor.moveToNext() && i < count; i++) {
+            mDates[i] = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            mWeatherIds[i] = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            mDescriptions[i] = cursor.getString(ForecastFragment.COL_WEATHER_DESC);
+            mHighs[i] = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+            mLows[i] = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+            mHumidities[i] = cursor.getFloat(ForecastFragment.COL_WEATHER_HUMIDITY);
+            mPressures[i] = cursor.getFloat(ForecastFragment.COL_WEATHER_PRESSURE);
+            mWindSpeeds[i] = cursor.getFloat(ForecastFragment.COL_WEATHER_WIND_SPEED);
+            mDegrees[i] = cursor.getFloat(ForecastFragment.COL_WEATHER_DEGREES);
+        }
+        cursor.moveToFirst();
+        mLocationSetting = cursor.getString(ForecastFragment.COL_LOCATION_SETTING);
+        mCoordLat = cursor.getString(ForecastFragment.COL_COORD_LAT);
+        mCoordLong = cursor.getString(ForecastFragment.COL_COORD_LONG);
+    }
+
+    private ForecastSnapshot(long[] dates, int[] weatherIds, String[] descriptions, double[] highs,
+                             double[] lows, float[] humidities, float[] pressures,
+                             float[] windSpeeds, float[] degrees, String locationSetting,
+                             String coordLat, String coordLong, int todayJulianDay) {
+        mCount = dates.length;
+        mDates = dates;
+        mWeatherIds = weatherIds;
+        mDescriptions = descriptions;
+        mHighs = highs;
+        mLows = lows;
+        mHumidities = humidities;
+        mPressures = pressures;
+        mWindSpeeds = windSpeeds;
+        mDegrees = degrees;
+        mLocationSetting = locationSetting;
+        mCoordLat = coordLat;
+        mCoordLong = coordLong;
+        mTodayJulianDay = todayJulianDay;
+        mMetric = true;
+        mArtPack = null;
+    }
+
+    private ForecastSnapshot(ForecastSnapshot source, boolean metric, String artPack) {
+        mCount = source.mCount;
+        mDates = source.mDates;
+        mWeatherIds = source.mWeatherIds;
+        mDescriptions = source.mDescriptions;
+        mHighs = source.mHighs;
+        mLows = source.mLows;
+        mHumidities = source.mHumidities;
+        mPressures = source.mPressures;
+        mWindSpeeds = source.mWindSpeeds;
+        mDegrees = source.mDegrees;
+        mLocationSetting = source.mLocationSetting;
+        mCoordLat = source.mCoordLat;
+        mCoordLong = source.mCoordLong;
+        mTodayJulianDay = source.mTodayJulianDay;
+        mMetric = metric;
+        mArtPack = artPack;
+    }
+
+    /**
+     * Wraps columns read from elsewhere, such as {@link ForecastSnapshotFile}.  The arrays are
+     * not copied, and must all have one element per day, in ascending date order.
+     */
+    static ForecastSnapshot fromColumns(long[] dates, int[] weatherIds, String[] descriptions,
+                                        double[] highs, double[] lows, float[] humidities,
+                                        float[] pressures, float[] windSpeeds, float[] degrees,
+                                        String locationSetting, String coordLat,
+                                        String coordLong) {
+        if (dates.length == 0) {
+            return EMPTY;
+        }
+        return new ForecastSnapshot(dates, weatherIds, descriptions, highs, lows, humidities,
+                pressures, windSpeeds, degrees, locationSetting, coordLat, coordLong,
+                DateEngine.toJulianDay(System.currentTimeMillis()));
+    }
+
+    /**
+     * Copies a cursor with the {@link ForecastFragment} projection, sorted by date.
+     */
+    public static ForecastSnapshot fromCursor(Cursor cursor) {
+        if (cursor == null || cursor.getCount() == 0) {
+            return EMPTY;
+        }
+        return new ForecastSnapshot(cursor.getCount(), cursor,
+                DateEngine.toJulianDay(System.currentTimeMillis()));
+    }
+
+    /**
+     * @return the same days, to be shown in the given units and art pack.  The columns are
+     * shared, not copied.
+     */
+    ForecastSnapshot withDisplaySettings(boolean metric, String artPack) {
+        return new ForecastSnapshot(this, metric, artPack);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getDate(int position) {
+        return mDates[position];
+    }
+
+    public int getWeatherId(int position) {
+        return mWeatherIds[position];
+    }
+
+    public String getDescription(int position) {
+        return mDescriptions[position];
+    }
+
+    public double getHigh(int position) {
+        return mHighs[position];
+    }
+
+    public double getLow(int position) {
+        return mLows[position];
+    }
+
+    public float getHumidity(int position) {
+        return mHumidities[position];
+    }
+
+    public float getPressure(int position) {
+        return mPressures[position];
+    }
+
+    public float getWindSpeed(int position) {
+        return mWindSpeeds[position];
+    }
+
+    public float getDegrees(int position) {
+        return mDegrees[position];
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public String getCoordLat() {
+        return mCoordLat;
+    }
+
+    public String getCoordLong() {
+        return mCoordLong;
+    }
+
+    /**
+     * @return the position of the day, or -1 if it isn't in the snapshot.
+     */
+    public int indexOfDate(long date) {
+        int position = Arrays.binarySearch(mDates, 0, mCount, date);
+        return position < 0 ? -1 : position;
+    }
+
+    private boolean sameContent(int position, ForecastSnapshot other, int otherPosition) {
+        return mWeatherIds[position] == other.mWeatherIds[otherPosition]
+                && Double.compare(mHighs[position], other.mHighs[otherPosition]) == 0
+                && Double.compare(mLows[position], other.mLows[otherPosition]) == 0
+                && (mDescriptions[position] == null ? other.mDescriptions[otherPosition] == null
+                        : mDescriptions[position].equals(other.mDescriptions[otherPosition]));
+    }
+
+    private boolean sameLocation(ForecastSnapshot other) {
+        return mLocationSetting == null ? other.mLocationSetting == null
+                : mLocationSetting.equals(other.mLocationSetting);
+    }
+
+    private boolean sameDisplaySettings(ForecastSnapshot other) {
+        return mMetric == other.mMetric && (mArtPack == null ? other.mArtPack == null
+                : mArtPack.equals(other.mArtPack));
+    }
+
+    /**
+     * @return whether the day at {@code position} would show exactly as the day at
+     * {@code otherPosition} of {@code other} in the detail view, which also shows the columns
+     * the list leaves out, in the same units and art.
+     */
+    boolean sameDay(int position, ForecastSnapshot other, int otherPosition) {
+        return mDates[position] == other.mDates[otherPosition]
+                && mTodayJulianDay == other.mTodayJulianDay
+                && sameLocation(other)
+                && sameDisplaySettings(other)
+                && sameContent(position, other, otherPosition)
+                && Float.compare(mHumidities[position], other.mHumidities[otherPosition]) == 0
+                && Float.compare(mPressures[position], other.mPressures[otherPosition]) == 0
+                && Float.compare(mWindSpeeds[position], other.mWindSpeeds[otherPosition]) == 0
+                && Float.compare(mDegrees[position], other.mDegrees[otherPosition]) == 0;
+    }
+
+    /**
+     * Works out how to turn one snapshot into another in a single pass over both, which is
+     * possible because both are sorted by date and dates are unique.  Days are matched by date
+     * and compared by content.
+     *
+     * @return (operation, position, count) triples, to be applied in order.  Runs of the same
+     * operation are merged into one range.
+     */
+    static int[] diff(ForecastSnapshot from, ForecastSnapshot to) {
+        // After midnight, a location change, or a change of units or art pack every row may
+        // look different, so every day that is kept has to be rebound.
+        boolean changeAll = from.mTodayJulianDay != to.mTodayJulianDay
+                || !from.sameLocation(to)
+                || !from.sameDisplaySettings(to);
+
+        int[] ops = new int[3 * (from.mCount + to.mCount)];
+        int length = 0;
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (i < from.mCount || j < to.mCount) {
+            int op;
+            int opPosition = position;
+            if (j == to.mCount || (i < from.mCount && from.mDates[i] < to.mDates[j])) {
+                op = OP_REMOVE;
+                i++;
+            } else if (i == from.mCount || from.mDates[i] > to.mDates[j]) {
+                op = OP_INSERT;
+                j++;
+                position++;
+            } else {
+                boolean changed = changeAll || !from.sameContent(i, to, j);
+                i++;
+                j++;
+                position++;
+                if (!changed) continue;
+                op = OP_CHANGE;
+            }
+
+            // Extend the previous range if this continues it.  Removals all happen at the same
+            // position, inserts and changes at the next one.
+            if (length > 0 && ops[length - 3] == op
+                    && ops[length - 2] + (op == OP_REMOVE ? 0 : ops[length - 1]) == opPosition) {
+                ops[length - 1]++;
+            } else {
+                ops[length++] = op;
+                ops[length++] = opPosition;
+                ops[length++] = 1;
+            }
+        }
+        return Arrays.copyOf(ops, length);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.DateEngine;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The forecast list of the preferred location as of the last sync, kept in a small binary file
+ * so a cold start can show it before the database is even opened.  The loader's result replaces
+ * it as soon as it arrives.
+ * <p>
+ * The file is written to a temporary file and renamed over the old one, so a reader sees either
+ * the old snapshot or the new one.  It is read through a memory mapping, and anything
+ * unexpected in it, such as another format version, makes {@link #read} return null.
+ * <p>
+ * Format, big-endian: magic, version, location setting, latitude, longitude, day count, then
+ * per day its date, weather id, high, low, humidity, pressure, wind speed, wind direction and
+ * description.  Strings are a length in bytes, -1
+ * for null, followed by UTF-8.
+ */
+public final class ForecastSnapshotFile {
+
+    private static final String LOG_TAG = ForecastSnapshotFile.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast_snapshot";
+    private static final int MAGIC = 0x53554e53; // "SUNS"
+    private static final int VERSION = 2;
+
+    private ForecastSnapshotFile() {
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Reads the snapshot, leaving out the days before today.
+     *
+     * @return null if there is no usable snapshot of {@code locationSetting}.
+     */
+    static ForecastSnapshot read(Context context, String locationSetting) {
+        File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return parse(buffer, locationSetting);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable forecast snapshot", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Read-only, nothing was lost.
+                }
+            }
+        }
+    }
+
+    private static ForecastSnapshot parse(ByteBuffer buffer, String locationSetting) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        String savedLocationSetting = getString(buffer);
+        if (savedLocationSetting == null || !savedLocationSetting.equals(locationSetting)) {
+            return null;
+        }
+        String coordLat = getString(buffer);
+        String coordLong = getString(buffer);
+
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad day count " + count);
+        }
+        long today = DateEngine.fromJulianDay(DateEngine.toJulianDay(System.currentTimeMillis()));
+        long[] dates = new long[count];
+        int[] weatherIds = new int[count];
+        String[] descriptions = new String[count];
+        double[] highs = new double[count];
+        double[] lows = new double[count];
+        float[] humidities = new float[count];
+        float[] pressures = new float[count];
+        float[] windSpeeds = new float[count];
+        float[] degrees = new float[count];
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            dates[kept] = buffer.getLong();
+            weatherIds[kept] = buffer.getInt();
+            highs[kept] = buffer.getDouble();
+            lows[kept] = buffer.getDouble();
+            humidities[kept] = buffer.getFloat();
+            pressures[kept] = buffer.getFloat();
+            windSpeeds[kept] = buffer.getFloat();
+            degrees[kept] = buffer.getFloat();
+            descriptions[kept] = getString(buffer);
+            if (dates[kept] >= today) {
+                kept++;
+            }
+        }
+        if (kept == 0) {
+            return null;
+        }
+        if (kept < count) {
+            dates = Arrays.copyOf(dates, kept);
+            weatherIds = Arrays.copyOf(weatherIds, kept);
+            descriptions = Arrays.copyOf(descriptions, kept);
+            highs = Arrays.copyOf(highs, kept);
+            lows = Arrays.copyOf(lows, kept);
+            humidities = Arrays.copyOf(humidities, kept);
+            pressures = Arrays.copyOf(pressures, kept);
+            windSpeeds = Arrays.copyOf(windSpeeds, kept);
+            degrees = Arrays.copyOf(degrees, kept);
+        }
+        return ForecastSnapshot.fromColumns(dates, weatherIds, descriptions, highs, lows,
+                humidities, pressures, windSpeeds, degrees, savedLocationSetting, coordLat,
+                coordLong);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Replaces the snapshot.  An empty snapshot deletes it.
+     */
+    static void write(Context context, ForecastSnapshot snapshot) throws IOException {
+        File file = getFile(context);
+        if (snapshot.getCount() == 0) {
+            file.delete();
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        putString(out, snapshot.getLocationSetting());
+        putString(out, snapshot.getCoordLat());
+        putString(out, snapshot.getCoordLong());
+        out.writeInt(snapshot.getCount());
+        for (int i = 0; i < snapshot.getCount(); i++) {
+            out.writeLong(snapshot.getDate(i));
+            out.writeInt(snapshot.getWeatherId(i));
+            out.writeDouble(snapshot.getHigh(i));
+            out.writeDouble(snapshot.getLow(i));
+            out.writeFloat(snapshot.getHumidity(i));
+            out.writeFloat(snapshot.getPressure(i));
+            out.writeFloat(snapshot.getWindSpeed(i));
+            out.writeFloat(snapshot.getDegrees(i));
+            putString(out, snapshot.getDescription(i));
+        }
+        out.flush();
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            bytes.writeTo(stream);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * Reads the preferred location's forecast from the provider, as the forecast list shows it,
+     * and replaces the snapshot with it.  Call after a sync has stored a new forecast.
+     */
+    public static void update(Context context) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                ForecastFragment.FORECAST_COLUMNS,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return;
+        }
+        try {
+            write(context, ForecastSnapshot.fromCursor(cursor));
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to write the forecast snapshot", e);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -15,26 +15,17 @@
  */
 package com.example.android.sunshine.app;
 
-import android.app.PendingIntent;
-import android.content.BroadcastReceiver;
+import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.os.Bundle;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.NotificationManagerCompat;
-import android.util.Log;
+import android.support.v4.content.WakefulBroadcastReceiver;
 
-import com.google.android.gms.gcm.GoogleCloudMessaging;
-
-public class GcmBroadcastReceiver extends BroadcastReceiver {
-    private final String LOG_TAG = BroadcastReceiver.class.getSimpleName();
-
-    private static final String EXTRA_SENDER = "from";
-    private static final String EXTRA_WEATHER = "weather";
-    private static final String EXTRA_LOCATION = "location";
-
-    public static final int NOTIFICATION_ID = 1;
-    private NotificationManagerCompat mNotificationManager;
+/**
+ * Hands GCM messages to {@link GcmMessageService} under a wake lock, so nothing about them,
+ * not even unparcelling the extras, is done on the main thread.
+ */
+public class GcmBroadcastReceiver extends WakefulBroadcastReceiver {
 
     public GcmBroadcastReceiver() {
         super();
@@ -42,54 +33,8 @@ public class GcmBroadcastReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        Bundle extras = intent.getExtras();
-        GoogleCloudMessaging gcm = GoogleCloudMessaging.getInstance(context);
-        String messageType = gcm.getMessageType(intent);
-
-        if (!extras.isEmpty()) {  // has effect of unparcelling Bundle
-            /*
-             * Filter messages based on message type. Since it is likely that GCM
-             * will be extended in the future with new message types, just ignore
-             * any message types you're not interested in, or that you don't
-             * recognize.
-             */
-            if (GoogleCloudMessaging.MESSAGE_TYPE_MESSAGE.equals(messageType)) {
-                // Is this our message?? Better be if you're going to act on it!
-                if (MainActivity.PROJECT_NUMBER.equals(extras.getString(EXTRA_SENDER))) {
-                    // Process message and then post a notification of the received message.
-                    String weather = extras.getString(EXTRA_WEATHER);
-                    String location = extras.getString(EXTRA_LOCATION);
-                    String alert = "Heads up: " + weather + " in " + location + "!";
-
-                    sendNotification(context, alert);
-                }
-
-                Log.i(LOG_TAG, "Received: " + extras.toString());
-            }
-        }
-    }
-
-    // Put the message into a notification and post it.
-    // This is just one simple example of what you might choose to do with a GCM message.
-    private void sendNotification(Context context, String msg) {
-//        mNotificationManager = (NotificationManager)
-//                context.getSystemService(Context.NOTIFICATION_SERVICE);
-
-        mNotificationManager = NotificationManagerCompat.from(context);
-
-        PendingIntent contentIntent =
-                PendingIntent.getActivity(context, 0, new Intent(context, MainActivity.class), 0);
-
-        NotificationCompat.Builder mBuilder =
-                new NotificationCompat.Builder(context)
-                        .setSmallIcon(R.drawable.art_storm)
-                        .setContentTitle("Weather Alert!")
-                        .setStyle(new NotificationCompat.BigTextStyle()
-                                .bigText(msg))
-                        .setContentText(msg)
-                        .setPriority(NotificationCompat.PRIORITY_HIGH);
-
-        mBuilder.setContentIntent(contentIntent);
-        mNotificationManager.notify(NOTIFICATION_ID, mBuilder.build());
+        ComponentName service = new ComponentName(context, GcmMessageService.class);
+        startWakefulService(context, intent.setComponent(service));
+        setResultCode(Activity.RESULT_OK);
     }
 }
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Process;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+import android.support.v4.content.WakefulBroadcastReceiver;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.sync.ForecastDeltaService;
+import com.google.android.gms.gcm.GoogleCloudMessaging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Handles the messages {@link GcmBroadcastReceiver} hands over, on a worker thread and under
+ * the receiver's wake lock.
+ * <ul>
+ * <li>Messages already handled, by their GCM message id, are dropped.  GCM redelivers, and a
+ * storm may make the server send the same alert more than once.
+ * <li>Forecast changes go on to {@link ForecastDeltaService}.
+ * <li>Alerts are collected for a few seconds after the first of a burst, then each location
+ * gets one notification listing all of them.  Each location has its own notification, so an
+ * alert for one doesn't replace another's.
+ * </ul>
+ * The wake locks of collected alerts are held until their notification is posted.
+ */
+public class GcmMessageService extends Service {
+    private static final String LOG_TAG = GcmMessageService.class.getSimpleName();
+
+    private static final String EXTRA_SENDER = "from";
+    private static final String EXTRA_MESSAGE_ID = "google.message_id";
+    private static final String EXTRA_WEATHER = "weather";
+    private static final String EXTRA_LOCATION = "location";
+
+    public static final int NOTIFICATION_ID = 1;
+    private static final String NOTIFICATION_GROUP = "weather_alerts";
+    private static final int MAX_LINES = 5;
+
+    // How long to wait for more alerts after the first of a burst.
+    private static final long COALESCE_MILLIS = 3000;
+
+    // The ids of the last messages handled, kept across restarts of the service.
+    private static final String PREFS_NAME = "gcm_messages";
+    private static final String PREF_SEEN_IDS = "seen_ids";
+    private static final int MAX_SEEN_IDS = 100;
+
+    private static final int MSG_RECEIVE = 0;
+    private static final int MSG_FLUSH = 1;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    // Only touched on the worker thread.
+    private LinkedList<String> mSeenIds;
+    private final LinkedHashMap<String, ArrayList<String>> mPendingAlerts =
+            new LinkedHashMap<String, ArrayList<String>>();
+    private final ArrayList<Intent> mHeldIntents = new ArrayList<Intent>();
+    private int mLastStartId;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mThread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_RECEIVE:
+                        mLastStartId = msg.arg1;
+                        receive((Intent) msg.obj);
+                        break;
+                    case MSG_FLUSH:
+                        flush();
+                        break;
+                }
+                if (mHeldIntents.isEmpty() && !mHandler.hasMessages(MSG_RECEIVE)) {
+                    stopSelf(mLastStartId);
+                }
+            }
+        };
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        mHandler.obtainMessage(MSG_RECEIVE, startId, 0, intent).sendToTarget();
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        // Anything still held would have been flushed first, so this only stops the thread.
+        mThread.quit();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void receive(Intent intent) {
+        boolean held = false;
+        try {
+            Bundle extras = intent.getExtras();
+            String messageType = GoogleCloudMessaging.getInstance(this).getMessageType(intent);
+            if (extras == null
+                    || !GoogleCloudMessaging.MESSAGE_TYPE_MESSAGE.equals(messageType)
+                    || !MainActivity.PROJECT_NUMBER.equals(extras.getString(EXTRA_SENDER))) {
+                // Is this our message?? Better be if you're going to act on it!
+                Log.d(LOG_TAG, "Ignoring message of type " + messageType);
+                return;
+            }
+            String messageId = extras.getString(EXTRA_MESSAGE_ID);
+            if (!markSeen(messageId)) {
+                Log.d(LOG_TAG, "Dropping duplicate message " + messageId);
+                return;
+            }
+
+            if (extras.containsKey(ForecastDeltaService.EXTRA_DELTA)) {
+                // A change to the stored forecast.  The service takes its own wake lock.
+                WakefulBroadcastReceiver.startWakefulService(this,
+                        new Intent(this, ForecastDeltaService.class).putExtras(extras));
+                return;
+            }
+
+            String weather = extras.getString(EXTRA_WEATHER);
+            String location = extras.getString(EXTRA_LOCATION);
+            if (weather == null || location == null) {
+                Log.d(LOG_TAG, "Ignoring message " + messageId + " without an alert");
+                return;
+            }
+            ArrayList<String> alerts = mPendingAlerts.get(location);
+            if (alerts == null) {
+                alerts = new ArrayList<String>();
+                mPendingAlerts.put(location, alerts);
+            }
+            if (!alerts.contains(weather)) {
+                alerts.add(weather);
+            }
+            if (!mHandler.hasMessages(MSG_FLUSH)) {
+                mHandler.sendEmptyMessageDelayed(MSG_FLUSH, COALESCE_MILLIS);
+            }
+            mHeldIntents.add(intent);
+            held = true;
+        } finally {
+            if (!held) {
+                WakefulBroadcastReceiver.completeWakefulIntent(intent);
+            }
+        }
+    }
+
+    /*
+        Posts the alerts collected since the last flush, and releases their wake locks.
+     */
+    private void flush() {
+        try {
+            for (Map.Entry<String, ArrayList<String>> entry : mPendingAlerts.entrySet()) {
+                sendNotification(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            mPendingAlerts.clear();
+            for (Intent intent : mHeldIntents) {
+                WakefulBroadcastReceiver.completeWakefulIntent(intent);
+            }
+            mHeldIntents.clear();
+        }
+    }
+
+    /**
+     * Records a message id as handled.
+     *
+     * @return false if it was handled before.  Messages without an id are never duplicates.
+     */
+    private boolean markSeen(String messageId) {
+        if (messageId == null) {
+            return true;
+        }
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (mSeenIds == null) {
+            mSeenIds = new LinkedList<String>();
+            String saved = prefs.getString(PREF_SEEN_IDS, "");
+            if (!saved.isEmpty()) {
+                mSeenIds.addAll(Arrays.asList(saved.split(",")));
+            }
+        }
+        if (mSeenIds.contains(messageId)) {
+            return false;
+        }
+        mSeenIds.addLast(messageId);
+        while (mSeenIds.size() > MAX_SEEN_IDS) {
+            mSeenIds.removeFirst();
+        }
+        prefs.edit().putString(PREF_SEEN_IDS, TextUtils.join(",", mSeenIds)).apply();
+        return true;
+    }
+
+    // Put the alerts into a notification and post it.
+    // This is just one simple example of what you might choose to do with a GCM message.
+    private void sendNotification(String location, ArrayList<String> alerts) {
+        NotificationManagerCompat notificationManager = NotificationManagerCompat.from(this);
+
+        PendingIntent contentIntent =
+                PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), 0);
+
+        String msg = alerts.size() == 1
+                ? "Heads up: " + alerts.get(0) + " in " + location + "!"
+                : "Heads up: " + alerts.size() + " alerts in " + location + "!";
+
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle()
+                .setBigContentTitle("Weather Alert!")
+                .setSummaryText(location);
+        for (int i = 0; i < alerts.size() && i < MAX_LINES; i++) {
+            style.addLine(alerts.get(i));
+        }
+
+        NotificationCompat.Builder mBuilder =
+                new NotificationCompat.Builder(this)
+                        .setSmallIcon(R.drawable.art_storm)
+                        .setContentTitle("Weather Alert!")
+                        .setStyle(style)
+                        .setContentText(msg)
+                        .setNumber(alerts.size())
+                        .setGroup(NOTIFICATION_GROUP)
+                        .setPriority(NotificationCompat.PRIORITY_HIGH);
+
+        mBuilder.setContentIntent(contentIntent);
+        // Tagged with the location, so each location's alerts replace only its own.
+        notificationManager.notify(location, NOTIFICATION_ID, mBuilder.build());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Arrays;
+
+/**
+ * Maps the stable IDs of an adapter to their positions.  Built once per data change, after which
+ * each lookup is O(1), however long the list is.
+ * <p>
+ * This is an open addressing hash table on primitive arrays, so neither building nor looking up
+ * boxes anything.  The arrays are kept and reused when the next data set fits.
+ */
+class IdPositionIndex {
+
+    // A power of two, like every capacity, so a hash can be masked into a slot.
+    private static final int MIN_CAPACITY = 16;
+
+    private static final int EMPTY = -1;
+
+    private long[] mIds = new long[MIN_CAPACITY];
+    private int[] mPositions = new int[MIN_CAPACITY];
+    private int mMask = MIN_CAPACITY - 1;
+
+    IdPositionIndex() {
+        Arrays.fill(mPositions, EMPTY);
+    }
+
+    /**
+     * Indexes every position of the adapter.  If IDs repeat, the first position wins.
+     */
+    void rebuild(RecyclerView.Adapter adapter) {
+        int count = adapter.getItemCount();
+        // At most half full, so probe sequences stay short.
+        int capacity = MIN_CAPACITY;
+        while (capacity < count * 2) {
+            capacity <<= 1;
+        }
+        if (capacity > mPositions.length) {
+            mIds = new long[capacity];
+            mPositions = new int[capacity];
+        }
+        Arrays.fill(mPositions, EMPTY);
+        mMask = mPositions.length - 1;
+
+        for (int position = 0; position < count; position++) {
+            long id = adapter.getItemId(position);
+            int slot = slotOf(id);
+            while (mPositions[slot] != EMPTY && mIds[slot] != id) {
+                slot = (slot + 1) & mMask;
+            }
+            if (mPositions[slot] == EMPTY) {
+                mIds[slot] = id;
+                mPositions[slot] = position;
+            }
+        }
+    }
+
+    /**
+     * @return the position of the item with this ID, or {@link RecyclerView#NO_POSITION}.
+     */
+    int positionOf(long id) {
+        int slot = slotOf(id);
+        while (mPositions[slot] != EMPTY) {
+            if (mIds[slot] == id) {
+                return mPositions[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
+    private int slotOf(long id) {
+        // Fibonacci hashing spreads dates, which share their low bits, over the whole table.
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mMask;
+    }
+}
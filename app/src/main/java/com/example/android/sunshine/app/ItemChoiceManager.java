@@ -19,7 +19,6 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.support.v4.util.LongSparseArray;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
@@ -27,9 +26,13 @@ import android.util.SparseBooleanArray;
 import android.widget.AbsListView;
 import android.widget.Checkable;
 
+import java.util.Arrays;
+
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  When the
+ * adapter has stable IDs, the selection follows the IDs across data changes: call
+ * {@link #onDataSetChanged()} once after each change and the checked IDs are found again
+ * through an {@link IdPositionIndex}, wherever they moved to.
  */
 public class ItemChoiceManager {
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -37,14 +40,7 @@ public class ItemChoiceManager {
     private int mChoiceMode;
 
     private RecyclerView.Adapter mAdapter;
-    private RecyclerView.AdapterDataObserver mAdapterDataObserver = new RecyclerView.AdapterDataObserver() {
-        @Override
-        public void onChanged() {
-            super.onChanged();
-            if (mAdapter != null && mAdapter.hasStableIds())
-                confirmCheckedPositionsById(mAdapter.getItemCount());
-        }
-    };
+    private final IdPositionIndex mIdPositionIndex = new IdPositionIndex();
 
     private ItemChoiceManager() {
     }
@@ -55,24 +51,18 @@ public class ItemChoiceManager {
         mAdapter = adapter;
     }
 
-    /**
-     * How many positions in either direction we will search to try to
-     * find a checked item with a stable ID that moved position across
-     * a data set change. If the item isn't found it will be unselected.
-     */
-    private static final int CHECK_POSITION_SEARCH_DISTANCE = 20;
-
     /**
      * Running state of which positions are currently checked
      */
     SparseBooleanArray mCheckStates = new SparseBooleanArray();
 
     /**
-     * Running state of which IDs are currently checked.
-     * If there is a value for a given key, the checked state for that ID is true
-     * and the value holds the last known position in the adapter for that id.
+     * Running state of which IDs are currently checked, and the last known position in the
+     * adapter of each.  Parallel arrays, the first mCheckedIdCount entries are in use.
      */
-    LongSparseArray<Integer> mCheckedIdStates = new LongSparseArray<Integer>();
+    long[] mCheckedIds = new long[4];
+    int[] mCheckedIdPositions = new int[4];
+    int mCheckedIdCount;
 
     public void onClick(RecyclerView.ViewHolder vh) {
         if (mChoiceMode == AbsListView.CHOICE_MODE_NONE)
@@ -97,8 +87,8 @@ public class ItemChoiceManager {
                     }
                     mCheckStates.clear();
                     mCheckStates.put(position, true);
-                    mCheckedIdStates.clear();
-                    mCheckedIdStates.put(mAdapter.getItemId(position), position);
+                    mCheckedIdCount = 0;
+                    putCheckedId(mAdapter.getItemId(position), position);
                 }
                 // We directly call onBindViewHolder here because notifying that an item has
                 // changed on an item that has the focus causes it to lose focus, which makes
@@ -109,6 +99,14 @@ public class ItemChoiceManager {
             case AbsListView.CHOICE_MODE_MULTIPLE: {
                 boolean checked = mCheckStates.get(position, false);
                 mCheckStates.put(position, !checked);
+                if (mAdapter.hasStableIds()) {
+                    long id = mAdapter.getItemId(position);
+                    if (checked) {
+                        removeCheckedId(id);
+                    } else {
+                        putCheckedId(id, position);
+                    }
+                }
                 // We directly call onBindViewHolder here because notifying that an item has
                 // changed on an item that has the focus causes it to lose focus, which makes
                 // keyboard navigation a bit annoying
@@ -151,41 +149,63 @@ public class ItemChoiceManager {
 
     void clearSelections() {
         mCheckStates.clear();
-        mCheckedIdStates.clear();
+        mCheckedIdCount = 0;
     }
 
-    void confirmCheckedPositionsById(int oldItemCount) {
+    private void putCheckedId(long id, int position) {
+        for (int i = 0; i < mCheckedIdCount; i++) {
+            if (mCheckedIds[i] == id) {
+                mCheckedIdPositions[i] = position;
+                return;
+            }
+        }
+        if (mCheckedIdCount == mCheckedIds.length) {
+            mCheckedIds = Arrays.copyOf(mCheckedIds, mCheckedIdCount * 2);
+            mCheckedIdPositions = Arrays.copyOf(mCheckedIdPositions, mCheckedIdCount * 2);
+        }
+        mCheckedIds[mCheckedIdCount] = id;
+        mCheckedIdPositions[mCheckedIdCount] = position;
+        mCheckedIdCount++;
+    }
+
+    private void removeCheckedId(long id) {
+        for (int i = 0; i < mCheckedIdCount; i++) {
+            if (mCheckedIds[i] == id) {
+                mCheckedIdCount--;
+                mCheckedIds[i] = mCheckedIds[mCheckedIdCount];
+                mCheckedIdPositions[i] = mCheckedIdPositions[mCheckedIdCount];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Call once after the adapter's data changed, however many notifications the change was
+     * dispatched as.  Checked items are found again by ID; ones that are gone are unchecked.
+     */
+    public void onDataSetChanged() {
+        if (mAdapter.hasStableIds()) {
+            confirmCheckedPositionsById();
+        }
+    }
+
+    void confirmCheckedPositionsById() {
         // Clear out the positional check states, we'll rebuild it below from IDs.
         mCheckStates.clear();
+        mIdPositionIndex.rebuild(mAdapter);
 
-        for (int checkedIndex = 0; checkedIndex < mCheckedIdStates.size(); checkedIndex++) {
-            final long id = mCheckedIdStates.keyAt(checkedIndex);
-            final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
-
-            final long lastPosId = mAdapter.getItemId(lastPos);
-            if (id != lastPosId) {
-                // Look around to see if the ID is nearby. If not, uncheck it.
-                final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
-                final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
-                boolean found = false;
-                for (int searchPos = start; searchPos < end; searchPos++) {
-                    final long searchId = mAdapter.getItemId(searchPos);
-                    if (id == searchId) {
-                        found = true;
-                        mCheckStates.put(searchPos, true);
-                        mCheckedIdStates.setValueAt(checkedIndex, searchPos);
-                        break;
-                    }
-                }
-
-                if (!found) {
-                    mCheckedIdStates.delete(id);
-                    checkedIndex--;
-                }
-            } else {
-                mCheckStates.put(lastPos, true);
+        int kept = 0;
+        for (int i = 0; i < mCheckedIdCount; i++) {
+            final long id = mCheckedIds[i];
+            final int position = mIdPositionIndex.positionOf(id);
+            if (position != RecyclerView.NO_POSITION) {
+                mCheckedIds[kept] = id;
+                mCheckedIdPositions[kept] = position;
+                mCheckStates.put(position, true);
+                kept++;
             }
         }
+        mCheckedIdCount = kept;
     }
 
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
@@ -204,23 +224,24 @@ public class ItemChoiceManager {
             inParcel.setDataPosition(0);
             mCheckStates = inParcel.readSparseBooleanArray();
             final int numStates = inParcel.readInt();
-            mCheckedIdStates.clear();
+            mCheckedIdCount = 0;
             for (int i=0; i<numStates; i++) {
                 final long key = inParcel.readLong();
                 final int value = inParcel.readInt();
-                mCheckedIdStates.put(key, value);
+                putCheckedId(key, value);
             }
+            inParcel.recycle();
         }
     }
 
     public void onSaveInstanceState(Bundle outState) {
         Parcel outParcel = Parcel.obtain();
         outParcel.writeSparseBooleanArray(mCheckStates);
-        final int numStates = mCheckedIdStates.size();
+        final int numStates = mCheckedIdCount;
         outParcel.writeInt(numStates);
         for (int i=0; i<numStates; i++) {
-            outParcel.writeLong(mCheckedIdStates.keyAt(i));
-            outParcel.writeInt(mCheckedIdStates.valueAt(i));
+            outParcel.writeLong(mCheckedIds[i]);
+            outParcel.writeInt(mCheckedIdPositions[i]);
         }
         byte[] states = outParcel.marshall();
         outState.putByteArray(SELECTED_ITEMS_KEY, states);
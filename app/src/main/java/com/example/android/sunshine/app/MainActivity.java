@@ -22,7 +22,6 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.ActivityOptionsCompat;
@@ -42,7 +41,8 @@ import com.google.android.gms.gcm.GoogleCloudMessaging;
 
 import java.io.IOException;
 
-public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback {
+public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback,
+        ForecastDataSource.Host {
 
     private final String LOG_TAG = MainActivity.class.getSimpleName();
     private static final String DETAILFRAGMENT_TAG = "DFTAG";
@@ -59,12 +59,18 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     private boolean mTwoPane;
     private String mLocation;
     private GoogleCloudMessaging mGcm;
+    private StartupScheduler mStartup;
+    // Shared by the list and, in two-pane mode, the detail pane, so both show one query's result.
+    private ForecastDataSource mDataSource;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mStartup = new StartupScheduler();
         mLocation = Utility.getPreferredLocation(this);
         Uri contentUri = getIntent() != null ? getIntent().getData() : null;
+        mDataSource = new ForecastDataSource(this);
+        mDataSource.start();
 
         setContentView(R.layout.activity_main);
         Toolbar toolbar = (Toolbar)findViewById(R.id.toolbar);
@@ -80,12 +86,8 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             // adding or replacing the detail fragment using a
             // fragment transaction.
             if (savedInstanceState == null) {
-                DetailFragment fragment = new DetailFragment();
-                if (contentUri != null) {
-                    Bundle args = new Bundle();
-                    args.putParcelable(DetailFragment.DETAIL_URI, contentUri);
-                    fragment.setArguments(args);
-                }
+                DetailFragment fragment = contentUri != null
+                        ? createDetailFragment(contentUri) : new DetailFragment();
                 getSupportFragmentManager().beginTransaction()
                         .replace(R.id.weather_detail_container, fragment, DETAILFRAGMENT_TAG)
                         .commit();
@@ -103,27 +105,91 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
                     WeatherContract.WeatherEntry.getDateFromUri(contentUri));
         }
 
-        SunshineSyncAdapter.initializeSyncAdapter(this);
+        // Everything above is needed for the first frame, the account and GCM bookkeeping below
+        // isn't, so it waits until the forecast is on screen.
+        final Context appContext = getApplicationContext();
+        mStartup.schedule("initializeSyncAdapter", StartupScheduler.AFTER_FIRST_FRAME, false,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        SunshineSyncAdapter.initializeSyncAdapter(appContext);
+                    }
+                });
+        mStartup.schedule("checkPlayServices", StartupScheduler.AFTER_FIRST_FRAME, true,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        setUpGcm(appContext);
+                    }
+                });
+        // Picks up an art pack stored for another screen density, or a warmup that never ran.
+        mStartup.schedule("scheduleArtPackWarmup", StartupScheduler.IDLE, false,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        ArtPackWarmupService.schedule(appContext);
+                    }
+                });
+        mStartup.start(getWindow().getDecorView());
+    }
 
-        // If Google Play Services is not available, some features, such as GCM-powered weather
-        // alerts, will not be available.
-        if (checkPlayServices()) {
-            mGcm = GoogleCloudMessaging.getInstance(this);
-            String regId = getRegistrationId(this);
-
-            if (PROJECT_NUMBER.equals("Your Project Number")) {
-                new AlertDialog.Builder(this)
-                .setTitle("Needs Project Number")
-                .setMessage("GCM will not function in Sunshine until you set the Project Number to the one from the Google Developers Console.")
-                .setPositiveButton(android.R.string.ok, null)
-                .create().show();
-            } else if (regId.isEmpty()) {
-                registerInBackground(this);
-            }
+    @Override
+    public ForecastDataSource getForecastDataSource() {
+        return mDataSource;
+    }
+
+    /*
+        The days of the preferred location are in the data source already, so they are shown from
+        memory.  Only a link to another location's day needs a query of its own.
+     */
+    private DetailFragment createDetailFragment(Uri contentUri) {
+        String location = WeatherContract.WeatherEntry.getLocationSettingFromUri(contentUri);
+        if (mLocation.equals(location)) {
+            return DetailFragment.newDay(WeatherContract.WeatherEntry.getDateFromUri(contentUri));
+        }
+        Bundle args = new Bundle();
+        args.putParcelable(DetailFragment.DETAIL_URI, contentUri);
+        DetailFragment fragment = new DetailFragment();
+        fragment.setArguments(args);
+        return fragment;
+    }
+
+    @Override
+    protected void onDestroy() {
+        mStartup.cancel();
+        super.onDestroy();
+    }
+
+    /*
+        If Google Play Services is not available, some features, such as GCM-powered weather
+        alerts, will not be available.  The check may show a dialog, so it runs on the main
+        thread, and the registration bookkeeping is left for when the main thread is idle.
+     */
+    private void setUpGcm(final Context appContext) {
+        if (!checkPlayServices()) {
+            mStartup.schedule("clearRegistrationId", StartupScheduler.IDLE, false, new Runnable() {
+                @Override
+                public void run() {
+                    Log.i(LOG_TAG, "No valid Google Play Services APK. Weather alerts will be disabled.");
+                    // Store regID as null
+                    storeRegistrationId(appContext, null);
+                }
+            });
+        } else if (PROJECT_NUMBER.equals("Your Project Number")) {
+            new AlertDialog.Builder(this)
+            .setTitle("Needs Project Number")
+            .setMessage("GCM will not function in Sunshine until you set the Project Number to the one from the Google Developers Console.")
+            .setPositiveButton(android.R.string.ok, null)
+            .create().show();
         } else {
-            Log.i(LOG_TAG, "No valid Google Play Services APK. Weather alerts will be disabled.");
-            // Store regID as null
-            storeRegistrationId(this, null);
+            mStartup.schedule("registerGcm", StartupScheduler.IDLE, false, new Runnable() {
+                @Override
+                public void run() {
+                    if (getRegistrationId(appContext).isEmpty()) {
+                        register(appContext);
+                    }
+                }
+            });
         }
     }
 
@@ -162,10 +228,8 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         String location = Utility.getPreferredLocation(this);
         // update the location in our second pane using the fragment manager
         if (location != null && !location.equals(mLocation)) {
-            ForecastFragment ff = (ForecastFragment)getSupportFragmentManager().findFragmentById(R.id.fragment_forecast);
-            if ( null != ff ) {
-                ff.onLocationChanged();
-            }
+            // Both panes show the data source's new result.
+            mDataSource.onLocationChanged();
             DetailFragment df = (DetailFragment)getSupportFragmentManager().findFragmentByTag(DETAILFRAGMENT_TAG);
             if ( null != df ) {
                 df.onLocationChanged(location);
@@ -177,17 +241,16 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     @Override
     public void onItemSelected(Uri contentUri, ForecastAdapter.ForecastAdapterViewHolder vh) {
         if (mTwoPane) {
-            // In two-pane mode, show the detail view in this activity by
-            // adding or replacing the detail fragment using a
-            // fragment transaction.
-            Bundle args = new Bundle();
-            args.putParcelable(DetailFragment.DETAIL_URI, contentUri);
-
-            DetailFragment fragment = new DetailFragment();
-            fragment.setArguments(args);
-
+            // In two-pane mode, the detail pane switches to the selected day in place, from the
+            // data source's snapshot.  It is only replaced when it doesn't show that snapshot yet.
+            DetailFragment df = (DetailFragment)getSupportFragmentManager().findFragmentByTag(DETAILFRAGMENT_TAG);
+            if ( null != df && df.usesDataSource() ) {
+                df.showDate(WeatherContract.WeatherEntry.getDateFromUri(contentUri));
+                return;
+            }
             getSupportFragmentManager().beginTransaction()
-                    .replace(R.id.weather_detail_container, fragment, DETAILFRAGMENT_TAG)
+                    .replace(R.id.weather_detail_container, createDetailFragment(contentUri),
+                            DETAILFRAGMENT_TAG)
                     .commit();
         } else {
             Intent intent = new Intent(this, DetailActivity.class)
@@ -255,7 +318,7 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         // Sunshine persists the registration ID in shared preferences, but
         // how you store the registration ID in your app is up to you. Just make sure
         // that it is private!
-        return getSharedPreferences(MainActivity.class.getSimpleName(), Context.MODE_PRIVATE);
+        return context.getSharedPreferences(MainActivity.class.getSimpleName(), Context.MODE_PRIVATE);
     }
 
     /**
@@ -273,43 +336,37 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     }
 
     /**
-     * Registers the application with GCM servers asynchronously.
+     * Registers the application with GCM servers.  Blocks, so call it off the main thread.
      * <p>
      * Stores the registration ID and app versionCode in the application's
      * shared preferences.
      */
-    private void registerInBackground(final Context context) {
-        new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... params) {
-                String msg = "";
-                try {
-                    if (mGcm == null) {
-                        mGcm = GoogleCloudMessaging.getInstance(context);
-                    }
-                    String regId = mGcm.register(PROJECT_NUMBER);
-                    msg = "Device registered, registration ID=" + regId;
-
-                    // You should send the registration ID to your server over HTTP,
-                    // so it can use GCM/HTTP or CCS to send messages to your app.
-                    // The request to your server should be authenticated if your app
-                    // is using accounts.
-                    //sendRegistrationIdToBackend();
-                    // For this demo: we don't need to send it because the device
-                    // will send upstream messages to a server that echo back the
-                    // message using the 'from' address in the message.
-
-                    // Persist the registration ID - no need to register again.
-                    storeRegistrationId(context, regId);
-                } catch (IOException ex) {
-                    msg = "Error :" + ex.getMessage();
-                    // TODO: If there is an error, don't just keep trying to register.
-                    // Require the user to click a button again, or perform
-                    // exponential back-off.
-                }
-                return null;
+    private void register(Context context) {
+        String msg = "";
+        try {
+            if (mGcm == null) {
+                mGcm = GoogleCloudMessaging.getInstance(context);
             }
-        }.execute(null, null, null);
+            String regId = mGcm.register(PROJECT_NUMBER);
+            msg = "Device registered, registration ID=" + regId;
+
+            // You should send the registration ID to your server over HTTP,
+            // so it can use GCM/HTTP or CCS to send messages to your app.
+            // The request to your server should be authenticated if your app
+            // is using accounts.
+            //sendRegistrationIdToBackend();
+            // For this demo: we don't need to send it because the device
+            // will send upstream messages to a server that echo back the
+            // message using the 'from' address in the message.
+
+            // Persist the registration ID - no need to register again.
+            storeRegistrationId(context, regId);
+        } catch (IOException ex) {
+            msg = "Error :" + ex.getMessage();
+            // TODO: If there is an error, don't just keep trying to register.
+            // Require the user to click a button again, or perform
+            // exponential back-off.
+        }
     }
 
     /**
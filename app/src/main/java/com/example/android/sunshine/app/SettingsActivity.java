@@ -146,6 +146,8 @@ public class SettingsActivity extends PreferenceActivity
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // and fetch the whole pack ahead of time, so it never has to be downloaded again.
+            ArtPackWarmupService.schedule(this);
         }
     }
 
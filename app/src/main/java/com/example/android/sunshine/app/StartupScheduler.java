@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs an activity's startup work in phases, so only what the first frame needs delays it.
+ * <ul>
+ * <li>{@link #CRITICAL}: run as soon as {@link #start} is called, on the main thread.
+ * <li>{@link #AFTER_FIRST_FRAME}: run once the first frame has been drawn.
+ * <li>{@link #IDLE}: run after that, the first time the main thread has nothing else to do.
+ * </ul>
+ * Each task runs either on the main thread or on a shared background thread.  Tasks scheduled
+ * once their phase has begun, for example by another task, are run right away on their thread.
+ * <p>
+ * How long each task took, and when it finished relative to the scheduler's creation, is
+ * logged under this class's tag, along with the time of the first frame.
+ */
+class StartupScheduler {
+
+    private static final String LOG_TAG = StartupScheduler.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({CRITICAL, AFTER_FIRST_FRAME, IDLE})
+    public @interface Phase {}
+
+    public static final int CRITICAL = 0;
+    public static final int AFTER_FIRST_FRAME = 1;
+    public static final int IDLE = 2;
+
+    private static final String[] PHASE_NAMES = {"critical", "after first frame", "idle"};
+
+    // Shared by every activity, so the work of a recreated one queues behind the previous.
+    private static final Executor sBackgroundExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, LOG_TAG);
+                }
+            });
+
+    private static final class Task {
+        final String mName;
+        final int mPhase;
+        final boolean mMainThread;
+        final Runnable mRunnable;
+
+        Task(String name, int phase, boolean mainThread, Runnable runnable) {
+            mName = name;
+            mPhase = phase;
+            mMainThread = mainThread;
+            mRunnable = runnable;
+        }
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final long mCreatedAt = SystemClock.uptimeMillis();
+
+    // Guarded by this.  The tasks of the phases not begun yet, and the last phase begun.
+    private final List<Task> mPending = new ArrayList<Task>();
+    private int mPhaseBegun = -1;
+
+    private volatile boolean mCancelled;
+    private View mDecorView;
+
+    private final ViewTreeObserver.OnPreDrawListener mFirstFrameListener =
+            new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    mDecorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    // Posted from the traversal, so it runs once the frame has been drawn.
+                    mHandler.post(mAfterFirstFrame);
+                    return true;
+                }
+            };
+
+    private final Runnable mAfterFirstFrame = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(LOG_TAG, "First frame at " + (SystemClock.uptimeMillis() - mCreatedAt) + " ms");
+            begin(AFTER_FIRST_FRAME);
+            Looper.myQueue().addIdleHandler(mIdle);
+        }
+    };
+
+    private final MessageQueue.IdleHandler mIdle = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            begin(IDLE);
+            return false;
+        }
+    };
+
+    /**
+     * Adds a task.  Can be called from any thread.
+     *
+     * @param mainThread whether the task must run on the main thread, for example because it
+     *                   touches views.  Otherwise it runs on a background thread, and should hold
+     *                   the application context rather than the activity.
+     */
+    void schedule(String name, @Phase int phase, boolean mainThread, Runnable runnable) {
+        Task task = new Task(name, phase, mainThread, runnable);
+        synchronized (this) {
+            if (phase > mPhaseBegun) {
+                mPending.add(task);
+                return;
+            }
+        }
+        if (mainThread && Looper.myLooper() == Looper.getMainLooper()) {
+            run(task);
+        } else {
+            dispatch(task);
+        }
+    }
+
+    /**
+     * Runs the critical tasks, and waits for the first frame of the window to run the rest.  Call
+     * at the end of onCreate().
+     */
+    void start(View decorView) {
+        mDecorView = decorView;
+        begin(CRITICAL);
+        decorView.getViewTreeObserver().addOnPreDrawListener(mFirstFrameListener);
+    }
+
+    /**
+     * Drops the tasks that haven't started yet.  Call from onDestroy(); tasks already running on
+     * the background thread still finish.
+     */
+    void cancel() {
+        mCancelled = true;
+        synchronized (this) {
+            mPending.clear();
+        }
+        if (mDecorView != null) {
+            mDecorView.getViewTreeObserver().removeOnPreDrawListener(mFirstFrameListener);
+        }
+        mHandler.removeCallbacksAndMessages(null);
+        Looper.myQueue().removeIdleHandler(mIdle);
+    }
+
+    private void begin(int phase) {
+        List<Task> tasks = new ArrayList<Task>();
+        synchronized (this) {
+            mPhaseBegun = phase;
+            for (int i = 0; i < mPending.size(); ) {
+                if (mPending.get(i).mPhase <= phase) {
+                    tasks.add(mPending.remove(i));
+                } else {
+                    i++;
+                }
+            }
+        }
+        // Background tasks first, so they run alongside the main thread ones.
+        for (Task task : tasks) {
+            if (!task.mMainThread) dispatch(task);
+        }
+        for (Task task : tasks) {
+            if (task.mMainThread) run(task);
+        }
+    }
+
+    private void dispatch(final Task task) {
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                StartupScheduler.this.run(task);
+            }
+        };
+        if (task.mMainThread) {
+            mHandler.post(runnable);
+        } else {
+            sBackgroundExecutor.execute(runnable);
+        }
+    }
+
+    private void run(Task task) {
+        if (mCancelled) return;
+        long start = SystemClock.uptimeMillis();
+        task.mRunnable.run();
+        long end = SystemClock.uptimeMillis();
+        Log.i(LOG_TAG, "Task " + task.mName + " (" + PHASE_NAMES[task.mPhase]
+                + (task.mMainThread ? ", main thread" : ", background")
+                + ") took " + (end - start) + " ms, done at " + (end - mCreatedAt) + " ms");
+    }
+}
@@ -20,16 +20,29 @@ import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.preference.PreferenceManager;
-import android.text.format.Time;
 
+import com.example.android.sunshine.app.data.DateEngine;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncStatusStore;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Locale;
+import java.util.TimeZone;
 
 public class Utility {
+    // The icons and art for each of the WeatherConditions.
+    private static final int[] ICON_RESOURCES = {
+            R.drawable.ic_storm, R.drawable.ic_light_rain, R.drawable.ic_rain, R.drawable.ic_snow,
+            R.drawable.ic_fog, R.drawable.ic_clear, R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy};
+    private static final int[] ART_RESOURCES = {
+            R.drawable.art_storm, R.drawable.art_light_rain, R.drawable.art_rain,
+            R.drawable.art_snow, R.drawable.art_fog, R.drawable.art_clear,
+            R.drawable.art_light_clouds, R.drawable.art_clouds};
+
     public static String getPreferredLocation(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_location_key),
@@ -44,15 +57,8 @@ public class Utility {
     }
 
     public static String formatTemperature(Context context, double temperature) {
-        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
-        // the values here.
-        String suffix = "\u00B0";
-        if (!isMetric(context)) {
-            temperature = (temperature * 1.8) + 32;
-        }
-
-        // For presentation, assume the user doesn't care about tenths of a degree.
-        return String.format(context.getString(R.string.format_temperature), temperature);
+        return WeatherFormat.formatTemperature(context.getString(R.string.format_temperature),
+                temperature, isMetric(context));
     }
 
     static String formatDate(long dateInMilliseconds) {
@@ -64,6 +70,71 @@ public class Utility {
     // back into date objects for comparison/processing.
     public static final String DATE_FORMAT = "yyyyMMdd";
 
+    /**
+     * A date format that remembers what it produced for the last few days.  Binding the same
+     * forecast rows again, e.g. while scrolling, then returns the cached strings.
+     */
+    private static final class DayFormat {
+        // Comfortably more than the days in a forecast.  A power of two so the slot is a mask.
+        private static final int CACHE_SIZE = 32;
+
+        private final SimpleDateFormat mFormat;
+        private final Date mDate = new Date();
+        private final int[] mJulianDays = new int[CACHE_SIZE];
+        private final String[] mValues = new String[CACHE_SIZE];
+
+        DayFormat(String pattern, Locale locale, TimeZone timeZone) {
+            mFormat = new SimpleDateFormat(pattern, locale);
+            mFormat.setTimeZone(timeZone);
+            Arrays.fill(mJulianDays, Integer.MIN_VALUE);
+        }
+
+        String format(long dateInMillis, int julianDay) {
+            int slot = julianDay & (CACHE_SIZE - 1);
+            if (mJulianDays[slot] == julianDay) {
+                return mValues[slot];
+            }
+            mDate.setTime(dateInMillis);
+            String value = mFormat.format(mDate);
+            mJulianDays[slot] = julianDay;
+            mValues[slot] = value;
+            return value;
+        }
+    }
+
+    /**
+     * The date formats used for forecast days.  SimpleDateFormat isn't thread safe, so each
+     * thread gets its own set, rebuilt if the locale or time zone changes.
+     */
+    private static final class DayFormats {
+        final Locale locale;
+        final TimeZone timeZone;
+        final DayFormat dayName;
+        final DayFormat shortDate;
+        final DayFormat monthDay;
+
+        DayFormats(Locale locale, TimeZone timeZone) {
+            this.locale = locale;
+            this.timeZone = timeZone;
+            dayName = new DayFormat("EEEE", locale, timeZone);
+            shortDate = new DayFormat("EEE MMM dd", locale, timeZone);
+            monthDay = new DayFormat("MMMM dd", locale, timeZone);
+        }
+    }
+
+    private static final ThreadLocal<DayFormats> sDayFormats = new ThreadLocal<DayFormats>();
+
+    private static DayFormats getDayFormats() {
+        DayFormats formats = sDayFormats.get();
+        Locale locale = Locale.getDefault();
+        TimeZone timeZone = DateEngine.getTimeZone();
+        if (formats == null || !formats.locale.equals(locale) || formats.timeZone != timeZone) {
+            formats = new DayFormats(locale, timeZone);
+            sDayFormats.set(formats);
+        }
+        return formats;
+    }
+
     /**
      * Helper method to convert the database representation of the date into something to display
      * to users.  As classy and polished a user experience as "20140102" is, we can do better.
@@ -79,11 +150,8 @@ public class Utility {
         // For the next 5 days: "Wednesday" (just the day name)
         // For all days after that: "Mon Jun 8"
 
-        Time time = new Time();
-        time.setToNow();
-        long currentTime = System.currentTimeMillis();
-        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
-        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+        int julianDay = DateEngine.toJulianDay(dateInMillis);
+        int currentJulianDay = DateEngine.toJulianDay(System.currentTimeMillis());
 
         // If the date we're building the String for is today's date, the format
         // is "Today, June 24"
@@ -99,8 +167,7 @@ public class Utility {
             return getDayName(context, dateInMillis);
         } else {
             // Otherwise, use the form "Mon Jun 3"
-            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
-            return shortenedDateFormat.format(dateInMillis);
+            return getDayFormats().shortDate.format(dateInMillis, julianDay);
         }
     }
 
@@ -134,20 +201,15 @@ public class Utility {
         // If the date is today, return the localized version of "Today" instead of the actual
         // day name.
 
-        Time t = new Time();
-        t.setToNow();
-        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
-        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        int julianDay = DateEngine.toJulianDay(dateInMillis);
+        int currentJulianDay = DateEngine.toJulianDay(System.currentTimeMillis());
         if (julianDay == currentJulianDay) {
             return context.getString(R.string.today);
         } else if ( julianDay == currentJulianDay +1 ) {
             return context.getString(R.string.tomorrow);
         } else {
-            Time time = new Time();
-            time.setToNow();
             // Otherwise, the format is just the day of the week (e.g "Wednesday".
-            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
-            return dayFormat.format(dateInMillis);
+            return getDayFormats().dayName.format(dateInMillis, julianDay);
         }
     }
 
@@ -159,45 +221,13 @@ public class Utility {
      * @return The day in the form of a string formatted "December 6"
      */
     public static String getFormattedMonthDay(Context context, long dateInMillis ) {
-        Time time = new Time();
-        time.setToNow();
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(Utility.DATE_FORMAT);
-        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
-        String monthDayString = monthDayFormat.format(dateInMillis);
-        return monthDayString;
+        return getDayFormats().monthDay.format(dateInMillis, DateEngine.toJulianDay(dateInMillis));
     }
 
     public static String getFormattedWind(Context context, float windSpeed, float degrees) {
-        int windFormat;
-        if (Utility.isMetric(context)) {
-            windFormat = R.string.format_wind_kmh;
-        } else {
-            windFormat = R.string.format_wind_mph;
-            windSpeed = .621371192237334f * windSpeed;
-        }
-
-        // From wind direction in degrees, determine compass direction as a string (e.g NW)
-        // You know what's fun, writing really long if/else statements with tons of possible
-        // conditions.  Seriously, try it!
-        String direction = "Unknown";
-        if (degrees >= 337.5 || degrees < 22.5) {
-            direction = "N";
-        } else if (degrees >= 22.5 && degrees < 67.5) {
-            direction = "NE";
-        } else if (degrees >= 67.5 && degrees < 112.5) {
-            direction = "E";
-        } else if (degrees >= 112.5 && degrees < 157.5) {
-            direction = "SE";
-        } else if (degrees >= 157.5 && degrees < 202.5) {
-            direction = "S";
-        } else if (degrees >= 202.5 && degrees < 247.5) {
-            direction = "SW";
-        } else if (degrees >= 247.5 && degrees < 292.5) {
-            direction = "W";
-        } else if (degrees >= 292.5 && degrees < 337.5) {
-            direction = "NW";
-        }
-        return String.format(context.getString(windFormat), windSpeed, direction);
+        boolean metric = Utility.isMetric(context);
+        int windFormat = metric ? R.string.format_wind_kmh : R.string.format_wind_mph;
+        return WeatherFormat.formatWind(context.getString(windFormat), windSpeed, degrees, metric);
     }
 
     /**
@@ -207,32 +237,8 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getIconResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_cloudy;
-        }
-        return -1;
+        int condition = WeatherConditions.classify(weatherId);
+        return condition != WeatherConditions.UNKNOWN ? ICON_RESOURCES[condition] : -1;
     }
 
     /**
@@ -248,6 +254,16 @@ public class Utility {
                 sunshineArtPack).equals(sunshineArtPack);
     }
 
+    /**
+     * @param context Context to use for retrieving the preference
+     * @return the URL format of the art pack the user picked, with a %s for the art name.
+     */
+    public static String getArtPackUrlFormat(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_art_pack_key),
+                context.getString(R.string.pref_art_pack_sunshine));
+    }
+
     /**
      * Helper method to provide the art urls according to the weather condition id returned
      * by the OpenWeatherMap call.
@@ -257,34 +273,11 @@ public class Utility {
      * @return url for the corresponding weather artwork. null if no relation is found.
      */
     public static String getArtUrlForWeatherCondition(Context context, int weatherId) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String formatArtUrl = prefs.getString(context.getString(R.string.pref_art_pack_key),
-                context.getString(R.string.pref_art_pack_sunshine));
+        String formatArtUrl = getArtPackUrlFormat(context);
 
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return String.format(Locale.US, formatArtUrl, "storm");
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return String.format(Locale.US, formatArtUrl, "light_rain");
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return String.format(Locale.US, formatArtUrl, "rain");
-        } else if (weatherId == 511) {
-            return String.format(Locale.US, formatArtUrl, "snow");
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return String.format(Locale.US, formatArtUrl, "rain");
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return String.format(Locale.US, formatArtUrl, "snow");
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return String.format(Locale.US, formatArtUrl, "fog");
-        } else if (weatherId == 761 || weatherId == 781) {
-            return String.format(Locale.US, formatArtUrl, "storm");
-        } else if (weatherId == 800) {
-            return String.format(Locale.US, formatArtUrl, "clear");
-        } else if (weatherId == 801) {
-            return String.format(Locale.US, formatArtUrl, "light_clouds");
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return String.format(Locale.US, formatArtUrl, "clouds");
+        int condition = WeatherConditions.classify(weatherId);
+        if (condition != WeatherConditions.UNKNOWN) {
+            return String.format(Locale.US, formatArtUrl, WeatherConditions.getArtName(condition));
         }
         return null;
     }
@@ -296,32 +289,8 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getArtResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.art_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.art_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.art_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.art_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.art_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.art_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.art_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.art_clouds;
-        }
-        return -1;
+        int condition = WeatherConditions.classify(weatherId);
+        return condition != WeatherConditions.UNKNOWN ? ART_RESOURCES[condition] : -1;
     }
 
     /**
@@ -555,24 +524,19 @@ public class Utility {
 
     /**
      *
-     * @param c Context used to get the SharedPreferences
+     * @param c Context used to get the SyncStatusStore
      * @return the location status integer type
      */
-    @SuppressWarnings("ResourceType")
     static public @SunshineSyncAdapter.LocationStatus
     int getLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        return SyncStatusStore.getInstance(c).getLocationStatus();
     }
 
     /**
      * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
-     * @param c Context used to get the SharedPreferences
+     * @param c Context used to get the SyncStatusStore
      */
     static public void resetLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
-        spe.apply();
+        SyncStatusStore.getInstance(c).setLocationStatus(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
     }
 }
\ No newline at end of file
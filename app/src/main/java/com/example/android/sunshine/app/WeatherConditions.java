@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+/**
+ * Groups OpenWeatherMap condition ids into the conditions Sunshine has icons and art for.  The
+ * groups are looked up in a table built once from the ranges below.
+ * <p>
+ * This class only uses java.* APIs so it can be benchmarked on a plain JVM.
+ */
+public final class WeatherConditions {
+
+    public static final int UNKNOWN = -1;
+    public static final int STORM = 0;
+    public static final int LIGHT_RAIN = 1;
+    public static final int RAIN = 2;
+    public static final int SNOW = 3;
+    public static final int FOG = 4;
+    public static final int CLEAR = 5;
+    public static final int LIGHT_CLOUDS = 6;
+    public static final int CLOUDS = 7;
+    public static final int COUNT = 8;
+
+    // The names the art packs use, indexed by condition.
+    private static final String[] ART_NAMES = {
+            "storm", "light_rain", "rain", "snow", "fog", "clear", "light_clouds", "clouds"};
+
+    private static final int FIRST_ID = 200;
+    private static final int LAST_ID = 804;
+    private static final byte[] sConditions = new byte[LAST_ID - FIRST_ID + 1];
+
+    static {
+        for (int id = FIRST_ID; id <= LAST_ID; id++) {
+            sConditions[id - FIRST_ID] = (byte) classifyRange(id);
+        }
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static int classifyRange(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return STORM;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return LIGHT_RAIN;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return RAIN;
+        } else if (weatherId == 511) {
+            return SNOW;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return RAIN;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return SNOW;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return FOG;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return STORM;
+        } else if (weatherId == 800) {
+            return CLEAR;
+        } else if (weatherId == 801) {
+            return LIGHT_CLOUDS;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return CLOUDS;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return one of the conditions above, {@link #UNKNOWN} if no relation is found.
+     */
+    public static int classify(int weatherId) {
+        if (weatherId < FIRST_ID || weatherId > LAST_ID) {
+            return UNKNOWN;
+        }
+        return sConditions[weatherId - FIRST_ID];
+    }
+
+    /**
+     * @return the name art packs use for {@code condition}, which must not be {@link #UNKNOWN}.
+     */
+    public static String getArtName(int condition) {
+        return ART_NAMES[condition];
+    }
+}
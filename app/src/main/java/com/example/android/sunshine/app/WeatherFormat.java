@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+/**
+ * Formats temperatures and wind for display.  {@link Utility} looks up the format strings and
+ * the unit preference and hands them in.
+ * <p>
+ * This class only uses java.* APIs so it can be benchmarked on a plain JVM.
+ */
+public final class WeatherFormat {
+
+    private static final float MPH_PER_KMH = .621371192237334f;
+
+    private static final String[] DIRECTIONS = {"NE", "E", "SE", "S", "SW", "W", "NW"};
+
+    private WeatherFormat() {
+    }
+
+    /**
+     * @param format the format_temperature string.
+     * @param temperature in Celsius, as stored.
+     * @param metric false to show Fahrenheit.
+     */
+    public static String formatTemperature(String format, double temperature, boolean metric) {
+        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
+        // the values here.
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+
+        // For presentation, assume the user doesn't care about tenths of a degree.
+        return String.format(format, temperature);
+    }
+
+    /**
+     * @param format the format_wind_kmh or format_wind_mph string, to match {@code metric}.
+     * @param windSpeed in km/h, as stored.
+     * @param degrees the direction the wind comes from.
+     * @param metric false to show mph.
+     */
+    public static String formatWind(String format, float windSpeed, float degrees,
+                                    boolean metric) {
+        if (!metric) {
+            windSpeed = MPH_PER_KMH * windSpeed;
+        }
+        return String.format(format, windSpeed, getWindDirection(degrees));
+    }
+
+    /**
+     * @return the compass direction of {@code degrees}, e.g. "NW", or "Unknown" if it isn't a
+     * number.
+     */
+    public static String getWindDirection(float degrees) {
+        if (degrees >= 337.5 || degrees < 22.5) {
+            return "N";
+        } else if (degrees >= 22.5 && degrees < 337.5) {
+            // 45 degrees per direction, starting with NE at 22.5.
+            return DIRECTIONS[(int) ((degrees - 22.5) / 45)];
+        }
+        return "Unknown";
+    }
+}
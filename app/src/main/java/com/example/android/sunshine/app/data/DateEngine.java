@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Date arithmetic on Julian days, epoch days and epoch millis, without allocating.
+ * <p>
+ * The results match {@code android.text.format.Time}, which this replaces: a date is stored as
+ * the millis of local midnight, and the Julian day of an instant is
+ * {@code (millis + gmtoff) / DAY_IN_MILLIS + 2440588}, truncating like Time does.  The only
+ * difference is on days whose midnight is skipped or repeated by a DST change, where this
+ * returns the first instant of the day instead of whatever Time normalizes to.
+ * <p>
+ * Time zone offsets are looked up once per UTC day and cached.  The default time zone is checked
+ * again at most once a minute, and the cache is dropped if it changed.
+ * <p>
+ * This class only uses java.* APIs so it can be benchmarked on a plain JVM.
+ */
+public final class DateEngine {
+
+    public static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    // The Julian day of January 1st, 1970.
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    private static final long ZONE_CHECK_INTERVAL_MILLIS = 60 * 1000;
+
+    // Number of UTC days whose offset is remembered.  A power of two so the slot is a mask.
+    private static final int CACHE_SIZE = 1024;
+    private static final int CACHE_MASK = CACHE_SIZE - 1;
+
+    // Slots hold the UTC day in the high 32 bits and the offset in seconds in the low 32 bits.
+    private static final long EMPTY_SLOT = ((long) Integer.MIN_VALUE) << 32;
+
+    /**
+     * A time zone and the offsets cached for it.  Replaced as a whole when the zone changes.
+     */
+    private static final class Zone {
+        final TimeZone timeZone;
+        final String id;
+        final AtomicLongArray offsets = new AtomicLongArray(CACHE_SIZE);
+
+        Zone(TimeZone timeZone) {
+            this.timeZone = timeZone;
+            this.id = timeZone.getID();
+            for (int i = 0; i < CACHE_SIZE; i++) {
+                offsets.set(i, EMPTY_SLOT);
+            }
+        }
+    }
+
+    private static volatile Zone sZone = new Zone(TimeZone.getDefault());
+    private static volatile long sNextZoneCheck =
+            System.currentTimeMillis() + ZONE_CHECK_INTERVAL_MILLIS;
+
+    private DateEngine() {
+    }
+
+    private static Zone zone() {
+        Zone zone = sZone;
+        long now = System.currentTimeMillis();
+        if (now >= sNextZoneCheck) {
+            sNextZoneCheck = now + ZONE_CHECK_INTERVAL_MILLIS;
+            TimeZone current = TimeZone.getDefault();
+            if (!current.getID().equals(zone.id)) {
+                zone = new Zone(current);
+                sZone = zone;
+            }
+        }
+        return zone;
+    }
+
+    /**
+     * Drops the cached offsets and picks up the current default time zone, e.g. after
+     * ACTION_TIMEZONE_CHANGED or when a test changes the default zone.
+     */
+    public static void resetTimeZone() {
+        sZone = new Zone(TimeZone.getDefault());
+        sNextZoneCheck = System.currentTimeMillis() + ZONE_CHECK_INTERVAL_MILLIS;
+    }
+
+    /**
+     * @return the time zone the engine currently uses.  Do not modify it.
+     */
+    public static TimeZone getTimeZone() {
+        return zone().timeZone;
+    }
+
+    /**
+     * @return the offset from UTC in millis of the default time zone at the given instant.
+     */
+    public static long getOffsetMillis(long millis) {
+        return offsetMillis(zone(), millis);
+    }
+
+    private static long offsetMillis(Zone zone, long millis) {
+        long utcDay = floorDiv(millis, DAY_IN_MILLIS);
+        int slot = (int) utcDay & CACHE_MASK;
+        long entry = zone.offsets.get(slot);
+        if ((int) (entry >> 32) == utcDay) {
+            return (int) entry * 1000L;
+        }
+
+        int offset = zone.timeZone.getOffset(millis);
+        // Only remember days without a transition, so the offset holds for the whole day.
+        long dayStart = utcDay * DAY_IN_MILLIS;
+        if (utcDay > Integer.MIN_VALUE && utcDay < Integer.MAX_VALUE
+                && zone.timeZone.getOffset(dayStart) == offset
+                && zone.timeZone.getOffset(dayStart + DAY_IN_MILLIS - 1) == offset) {
+            zone.offsets.set(slot, (utcDay << 32) | ((offset / 1000) & 0xffffffffL));
+        }
+        return offset;
+    }
+
+    /**
+     * Same as {@code Time.getJulianDay(millis, gmtoff)} with the offset in effect at
+     * {@code millis}.
+     */
+    public static int toJulianDay(long millis) {
+        return (int) ((millis + offsetMillis(zone(), millis)) / DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * Same as {@code new Time().setJulianDay(julianDay)}: local midnight at the start of the day.
+     */
+    public static long fromJulianDay(int julianDay) {
+        return startOfLocalDay(zone(), julianDay - EPOCH_JULIAN_DAY);
+    }
+
+    private static long startOfLocalDay(Zone zone, long epochDay) {
+        long wallMillis = epochDay * DAY_IN_MILLIS;
+        // Offsets are less than a day, and don't change more than once in two days, so midnight
+        // is the wall time less the offset in effect either a day before or a day after it.
+        long earlierOffset = offsetMillis(zone, wallMillis - DAY_IN_MILLIS);
+        long laterOffset = offsetMillis(zone, wallMillis + DAY_IN_MILLIS);
+        long first = wallMillis - earlierOffset;
+        long second = wallMillis - laterOffset;
+        boolean firstExists = offsetMillis(zone, first) == earlierOffset;
+        boolean secondExists = offsetMillis(zone, second) == laterOffset;
+        if (firstExists && secondExists) {
+            // The clocks went back over midnight, so it happened twice.  The day starts at the
+            // first one.
+            return Math.min(first, second);
+        } else if (firstExists) {
+            return first;
+        } else if (secondExists) {
+            return second;
+        }
+        // Midnight doesn't exist on this day.  Use the moment the clocks jumped, which is the
+        // later of the two candidates.
+        return Math.max(first, second);
+    }
+
+    /**
+     * Same as {@code WeatherContract.normalizeDate} used to be with Time: local midnight of the
+     * day containing {@code millis}.
+     */
+    public static long normalizeDate(long millis) {
+        return fromJulianDay(toJulianDay(millis));
+    }
+
+    public static long julianDayToEpochDay(int julianDay) {
+        return julianDay - EPOCH_JULIAN_DAY;
+    }
+
+    public static int epochDayToJulianDay(long epochDay) {
+        return (int) (epochDay + EPOCH_JULIAN_DAY);
+    }
+
+    /**
+     * @return midnight UTC at the start of the epoch day.
+     */
+    public static long epochDayToUtcMillis(long epochDay) {
+        return epochDay * DAY_IN_MILLIS;
+    }
+
+    /**
+     * @return the UTC epoch day containing {@code millis}.
+     */
+    public static long utcMillisToEpochDay(long millis) {
+        return floorDiv(millis, DAY_IN_MILLIS);
+    }
+
+    /**
+     * @return the day of the week, 0 for Monday through 6 for Sunday.
+     */
+    public static int dayOfWeek(int julianDay) {
+        int day = julianDay % 7;
+        return day < 0 ? day + 7 : day;
+    }
+
+    // Proleptic Gregorian calendar, see http://howardhinnant.github.io/date_algorithms.html
+
+    /**
+     * @return the year of the Julian day, e.g. 2015.
+     */
+    public static int year(int julianDay) {
+        long z = julianDay - EPOCH_JULIAN_DAY + 719468L;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        return (int) (yoe + era * 400 + (mp >= 10 ? 1 : 0));
+    }
+
+    /**
+     * @return the month of the Julian day, 1 for January through 12 for December.
+     */
+    public static int month(int julianDay) {
+        long mp = (5 * dayOfMarchYear(julianDay) + 2) / 153;
+        return (int) (mp < 10 ? mp + 3 : mp - 9);
+    }
+
+    /**
+     * @return the day of the month of the Julian day, starting at 1.
+     */
+    public static int dayOfMonth(int julianDay) {
+        long doy = dayOfMarchYear(julianDay);
+        long mp = (5 * doy + 2) / 153;
+        return (int) (doy - (153 * mp + 2) / 5 + 1);
+    }
+
+    // Day of a year that starts on March 1st, so the leap day is the last one.
+    private static long dayOfMarchYear(int julianDay) {
+        long z = julianDay - EPOCH_JULIAN_DAY + 719468L;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        return doe - (365 * yoe + yoe / 4 - yoe / 100);
+    }
+
+    /**
+     * @param month 1 for January through 12 for December.  Out of range values roll over into
+     *              the neighbouring years.
+     * @return the Julian day of the date.
+     */
+    public static int toJulianDay(int year, int month, int dayOfMonth) {
+        int monthIndex = month - 1;
+        year += floorDiv(monthIndex, 12);
+        month = (int) floorMod(monthIndex, 12) + 1;
+
+        long y = year - (month <= 2 ? 1 : 0);
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + dayOfMonth - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return (int) (era * 146097 + doe - 719468 + EPOCH_JULIAN_DAY);
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) q--;
+        return q;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
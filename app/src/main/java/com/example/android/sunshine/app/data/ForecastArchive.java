@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only store for forecast days that have dropped out of the weather table.
+ * <p>
+ * Each location gets its own file.  The file starts with a fixed header (magic, version, block
+ * count, the last archived Julian day and the end of the committed data) followed by
+ * column-oriented blocks:
+ * <pre>
+ *   int   length of the rest of the block
+ *   short row count
+ *   int   first Julian day
+ *   short days between the first and last row
+ *   byte  dictionary size, followed by that many short condition ids
+ *   varint day deltas (row count - 1 of them)
+ *   byte  dictionary index per row
+ *   short max temperature * 10 per row
+ *   short min temperature * 10 per row
+ * </pre>
+ * Rows take about six bytes each, so a year of history for a city fits in a few KB.  Reads
+ * memory-map the file and skip whole blocks that fall outside the requested range.
+ * <p>
+ * A file whose header can't be trusted is moved aside on the next append, and a new archive is
+ * started in its place, so one bad write doesn't stop the location from being archived again.
+ */
+class ForecastArchive {
+    private static final String LOG_TAG = ForecastArchive.class.getSimpleName();
+
+    private static final int MAGIC = 0x53574131; // "SWA1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+
+    // Scale used to store temperatures as shorts, i.e. one decimal place.
+    private static final float TEMP_SCALE = 10f;
+
+    // Every expiry appends a small block.  Once a file has this many, it is rewritten as one.
+    private static final int MAX_BLOCKS_BEFORE_COMPACT = 32;
+
+    private static final int MAX_DICTIONARY_SIZE = 255;
+
+    private static final String FILE_SUFFIX = ".bin";
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+
+    /**
+     * Thrown when a file doesn't start with a header this version can read.
+     */
+    static final class CorruptArchiveException extends IOException {
+        CorruptArchiveException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A day of archived weather, in the units it was stored with.
+     */
+    static final class Day {
+        final int julianDay;
+        final int weatherId;
+        final double high;
+        final double low;
+
+        Day(int julianDay, int weatherId, double high, double low) {
+            this.julianDay = julianDay;
+            this.weatherId = weatherId;
+            this.high = high;
+            this.low = low;
+        }
+    }
+
+    /**
+     * Receives archived days in ascending date order.
+     */
+    interface DayVisitor {
+        void visit(int julianDay, int weatherId, double high, double low);
+    }
+
+    private final File mDirectory;
+
+    ForecastArchive(File directory) {
+        mDirectory = directory;
+    }
+
+    private File fileFor(String locationSetting) {
+        // Location settings are free text, so encode them to get a safe file name.
+        return new File(mDirectory, Uri.encode(locationSetting) + FILE_SUFFIX);
+    }
+
+    /**
+     * @return the last Julian day archived for the location, or -1 if there is none.
+     */
+    synchronized int getLastJulianDay(String locationSetting) throws IOException {
+        File file = fileFor(locationSetting);
+        if (!file.exists() || file.length() < HEADER_SIZE) return -1;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return readHeader(raf)[1];
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Appends days to the location's archive.  Days must be in ascending order; any day that is
+     * not newer than the last archived one is skipped, so expiring the same rows twice is
+     * harmless.
+     *
+     * @return the number of days actually written.
+     */
+    synchronized int append(String locationSetting, Day[] days) throws IOException {
+        if (days.length == 0) return 0;
+
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+
+        File file = fileFor(locationSetting);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            int[] header = null;
+            if (raf.length() >= HEADER_SIZE) {
+                try {
+                    header = readHeader(raf);
+                } catch (CorruptArchiveException e) {
+                    Log.w(LOG_TAG, "Starting a new archive for " + locationSetting, e);
+                    raf.close();
+                    raf = null;
+                    setAside(file);
+                    raf = new RandomAccessFile(file, "rw");
+                }
+            }
+            int blockCount;
+            int lastJulianDay;
+            long end;
+            if (header == null) {
+                blockCount = 0;
+                lastJulianDay = -1;
+                end = HEADER_SIZE;
+            } else {
+                blockCount = header[0];
+                lastJulianDay = header[1];
+                end = header[2];
+            }
+
+            int first = 0;
+            while (first < days.length && days[first].julianDay <= lastJulianDay) {
+                first++;
+            }
+            int count = days.length - first;
+            if (count == 0) return 0;
+
+            // Anything past the committed end is left over from an interrupted append.
+            raf.setLength(end);
+
+            // The dictionary index is a byte, so very long runs are split into several blocks.
+            int start = first;
+            while (start < days.length) {
+                int blockEnd = dictionaryLimit(days, start);
+                ByteBuffer block = encodeBlock(days, start, blockEnd);
+                raf.getChannel().write(block, end);
+                end += block.limit();
+                blockCount++;
+                start = blockEnd;
+            }
+
+            lastJulianDay = days[days.length - 1].julianDay;
+            // Make sure the blocks are on disk before the header that points at them.
+            raf.getFD().sync();
+            writeHeader(raf, blockCount, lastJulianDay, (int) end);
+            raf.getFD().sync();
+
+            if (blockCount > MAX_BLOCKS_BEFORE_COMPACT) {
+                raf.close();
+                raf = null;
+                compact(file);
+            }
+            return count;
+        } finally {
+            if (raf != null) raf.close();
+        }
+    }
+
+    /**
+     * Visits every archived day for the location between the two Julian days, inclusive.
+     */
+    synchronized void read(String locationSetting, int fromJulianDay, int toJulianDay,
+                           DayVisitor visitor) throws IOException {
+        File file = fileFor(locationSetting);
+        if (!file.exists() || file.length() < HEADER_SIZE) return;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            int end = readHeader(raf)[2];
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, end);
+            buffer.position(HEADER_SIZE);
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                int nextBlock = buffer.position() + length;
+
+                int rows = buffer.getShort() & 0xffff;
+                int firstDay = buffer.getInt();
+                int span = buffer.getShort() & 0xffff;
+                if (firstDay > toJulianDay) break;
+                if (firstDay + span < fromJulianDay) {
+                    buffer.position(nextBlock);
+                    continue;
+                }
+                decodeBlock(buffer, rows, firstDay, fromJulianDay, toJulianDay, visitor);
+                buffer.position(nextBlock);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Removes the archive for a location.
+     */
+    synchronized boolean delete(String locationSetting) {
+        return fileFor(locationSetting).delete();
+    }
+
+    private void compact(File file) throws IOException {
+        final Day[] days = new Day[countDays(file)];
+        final int[] index = new int[1];
+        String locationSetting = Uri.decode(
+                file.getName().substring(0, file.getName().length() - FILE_SUFFIX.length()));
+        read(locationSetting, Integer.MIN_VALUE, Integer.MAX_VALUE, new DayVisitor() {
+            @Override
+            public void visit(int julianDay, int weatherId, double high, double low) {
+                days[index[0]++] = new Day(julianDay, weatherId, high, low);
+            }
+        });
+
+        File old = new File(file.getPath() + ".old");
+        old.delete();
+        if (!file.renameTo(old)) {
+            throw new IOException("Unable to compact " + file);
+        }
+        try {
+            append(locationSetting, days);
+        } catch (IOException e) {
+            file.delete();
+            old.renameTo(file);
+            throw e;
+        }
+        old.delete();
+    }
+
+    /*
+        Keeps the last unreadable file of a location, so it can be looked at, but no more.
+     */
+    private static void setAside(File file) throws IOException {
+        File corrupt = new File(file.getPath() + CORRUPT_SUFFIX);
+        corrupt.delete();
+        if (!file.renameTo(corrupt) && !file.delete()) {
+            throw new IOException("Unable to remove " + file);
+        }
+    }
+
+    private int countDays(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            int end = readHeader(raf)[2];
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, end);
+            int count = 0;
+            int position = HEADER_SIZE;
+            while (position + 6 <= end) {
+                count += buffer.getShort(position + 4) & 0xffff;
+                position += 4 + buffer.getInt(position);
+            }
+            return count;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the block count, the last archived Julian day and the end of the committed data.
+     * @throws CorruptArchiveException if the header is damaged, or points past the file.
+     */
+    private static int[] readHeader(RandomAccessFile raf) throws IOException {
+        raf.seek(0);
+        if (raf.readInt() != MAGIC) {
+            throw new CorruptArchiveException("Not a forecast archive");
+        }
+        int version = raf.readInt();
+        if (version != VERSION) {
+            throw new CorruptArchiveException("Unsupported archive version " + version);
+        }
+        int blockCount = raf.readInt();
+        int lastJulianDay = raf.readInt();
+        int end = raf.readInt();
+        if (blockCount < 0 || end < HEADER_SIZE || end > raf.length()) {
+            throw new CorruptArchiveException("Archive header out of range: " + blockCount
+                    + " blocks ending at " + end + " of " + raf.length());
+        }
+        return new int[]{blockCount, lastJulianDay, end};
+    }
+
+    private static void writeHeader(RandomAccessFile raf, int blockCount, int lastJulianDay,
+                                    int end) throws IOException {
+        raf.seek(0);
+        raf.writeInt(MAGIC);
+        raf.writeInt(VERSION);
+        raf.writeInt(blockCount);
+        raf.writeInt(lastJulianDay);
+        raf.writeInt(end);
+    }
+
+    /**
+     * @return the end (exclusive) of the longest run starting at {@code start} whose condition
+     * ids fit into one block dictionary.
+     */
+    private static int dictionaryLimit(Day[] days, int start) {
+        int[] seen = new int[MAX_DICTIONARY_SIZE];
+        int size = 0;
+        int i = start;
+        for (; i < days.length && i - start < 0xffff; i++) {
+            if (indexOf(seen, size, days[i].weatherId) < 0) {
+                if (size == MAX_DICTIONARY_SIZE) break;
+                seen[size++] = days[i].weatherId;
+            }
+            if (i > start && days[i].julianDay - days[start].julianDay > 0xffff) break;
+        }
+        return i;
+    }
+
+    private static int indexOf(int[] values, int size, int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) return i;
+        }
+        return -1;
+    }
+
+    private static ByteBuffer encodeBlock(Day[] days, int start, int end) {
+        int rows = end - start;
+        int[] dictionary = new int[MAX_DICTIONARY_SIZE];
+        int dictionarySize = 0;
+        byte[] indices = new byte[rows];
+        for (int i = 0; i < rows; i++) {
+            int weatherId = days[start + i].weatherId;
+            int index = indexOf(dictionary, dictionarySize, weatherId);
+            if (index < 0) {
+                index = dictionarySize;
+                dictionary[dictionarySize++] = weatherId;
+            }
+            indices[i] = (byte) index;
+        }
+
+        // Worst case for each varint delta is 5 bytes.
+        int capacity = 4 + 2 + 4 + 2 + 1 + dictionarySize * 2 + (rows - 1) * 5 + rows + rows * 4;
+        ByteBuffer buffer = ByteBuffer.allocate(capacity);
+        buffer.putInt(0); // length, filled in below
+        buffer.putShort((short) rows);
+        buffer.putInt(days[start].julianDay);
+        buffer.putShort((short) (days[end - 1].julianDay - days[start].julianDay));
+        buffer.put((byte) dictionarySize);
+        for (int i = 0; i < dictionarySize; i++) {
+            buffer.putShort((short) dictionary[i]);
+        }
+        for (int i = start + 1; i < end; i++) {
+            putVarInt(buffer, days[i].julianDay - days[i - 1].julianDay);
+        }
+        buffer.put(indices);
+        for (int i = start; i < end; i++) {
+            buffer.putShort(quantize(days[i].high));
+        }
+        for (int i = start; i < end; i++) {
+            buffer.putShort(quantize(days[i].low));
+        }
+        buffer.putInt(0, buffer.position() - 4);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void decodeBlock(ByteBuffer buffer, int rows, int firstDay,
+                                    int fromJulianDay, int toJulianDay, DayVisitor visitor) {
+        int dictionarySize = buffer.get() & 0xff;
+        int[] dictionary = new int[dictionarySize];
+        for (int i = 0; i < dictionarySize; i++) {
+            dictionary[i] = buffer.getShort();
+        }
+        int[] julianDays = new int[rows];
+        julianDays[0] = firstDay;
+        for (int i = 1; i < rows; i++) {
+            julianDays[i] = julianDays[i - 1] + getVarInt(buffer);
+        }
+        int indicesStart = buffer.position();
+        int highStart = indicesStart + rows;
+        int lowStart = highStart + rows * 2;
+        for (int i = 0; i < rows; i++) {
+            int julianDay = julianDays[i];
+            if (julianDay < fromJulianDay) continue;
+            if (julianDay > toJulianDay) break;
+            visitor.visit(julianDay,
+                    dictionary[buffer.get(indicesStart + i) & 0xff],
+                    buffer.getShort(highStart + i * 2) / TEMP_SCALE,
+                    buffer.getShort(lowStart + i * 2) / TEMP_SCALE);
+        }
+    }
+
+    private static short quantize(double temperature) {
+        long scaled = Math.round(temperature * TEMP_SCALE);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, scaled));
+    }
+
+    private static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
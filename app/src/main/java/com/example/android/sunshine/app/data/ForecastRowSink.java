@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+/**
+ * Receives weather rows one field at a time, so a parser can hand values over as it reads them
+ * without building a ContentValues per day.
+ * <p>
+ * A sink is used once: for each row call {@link #beginRow()}, the setters in any order, then
+ * {@link #endRow()}.  When all rows are written call {@link #commit()}, and always call
+ * {@link #close()} afterwards.  Rows that were not committed are discarded.
+ */
+public interface ForecastRowSink {
+
+    void beginRow();
+
+    void locationId(long locationId);
+
+    /**
+     * @param date the start of the day, as returned by {@link WeatherContract#normalizeDate}.
+     */
+    void date(long date);
+
+    void weatherId(int weatherId);
+
+    void shortDesc(String shortDesc);
+
+    void min(double low);
+
+    void max(double high);
+
+    void humidity(double humidity);
+
+    void pressure(double pressure);
+
+    void windSpeed(double windSpeed);
+
+    void degrees(double degrees);
+
+    void endRow();
+
+    /**
+     * Stores the rows written so far.
+     *
+     * @return the number of rows stored.
+     */
+    int commit();
+
+    void close();
+}
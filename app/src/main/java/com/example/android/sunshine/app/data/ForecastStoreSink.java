@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+/**
+ * A sink that stores a whole forecast from a sync, so it can also expire the days the forecast
+ * replaces.  A sink that only changes days already stored, like a pushed forecast change, is a
+ * plain {@link ForecastRowSink}.
+ */
+public interface ForecastStoreSink extends ForecastRowSink {
+
+    /**
+     * Also removes the stored days dated on or before {@code date} when the rows are committed,
+     * moving them into the archive.  Either both are stored or neither is.
+     */
+    void expireThrough(long date);
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * A location's forecast from a start date on, read with a single {@link
+ * android.content.ContentProvider#call} instead of a cursor.  The provider packs each column
+ * into a primitive array in a Bundle, so there is no CursorWindow, no per-row column lookup and
+ * nothing to close.
+ * <p>
+ * Every forecast carries the provider's data version, which changes whenever the weather table
+ * is written.  Pass the previous forecast to {@link #load} and, if nothing was written since,
+ * the provider answers with the version alone and the previous forecast is returned as is, so
+ * callers can compare by identity to skip their work.
+ */
+public final class PackedForecast {
+
+    static final String METHOD_GET = "getPackedForecast";
+
+    // Request extras.
+    static final String KEY_START_DATE = "startDate";
+    static final String KEY_KNOWN_VERSION = "knownVersion";
+
+    // Result extras.  A result with the version alone means the known version is current.
+    static final String KEY_VERSION = "version";
+    static final String KEY_IDS = "ids";
+    static final String KEY_DATES = "dates";
+    static final String KEY_WEATHER_IDS = "weatherIds";
+    static final String KEY_DESCRIPTIONS = "descriptions";
+    static final String KEY_HIGHS = "highs";
+    static final String KEY_LOWS = "lows";
+
+    // The columns the provider packs, in this order.
+    static final String[] COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private final String mLocationSetting;
+    private final long mStartDate;
+    private final long mVersion;
+    private final long[] mIds;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final String[] mDescriptions;
+    private final double[] mHighs;
+    private final double[] mLows;
+
+    private PackedForecast(String locationSetting, long startDate, Bundle result) {
+        mLocationSetting = locationSetting;
+        mStartDate = startDate;
+        mVersion = result.getLong(KEY_VERSION);
+        mIds = result.getLongArray(KEY_IDS);
+        mDates = result.getLongArray(KEY_DATES);
+        mWeatherIds = result.getIntArray(KEY_WEATHER_IDS);
+        mDescriptions = result.getStringArray(KEY_DESCRIPTIONS);
+        mHighs = result.getDoubleArray(KEY_HIGHS);
+        mLows = result.getDoubleArray(KEY_LOWS);
+    }
+
+    /**
+     * Reads the forecast for a location from {@code startDate} on, in ascending date order.
+     *
+     * @param previous the forecast this caller read last, or null.
+     * @return {@code previous} itself if it is for the same location and start day and nothing
+     * was written since, otherwise a new forecast.  Null if the provider didn't answer.
+     */
+    public static PackedForecast load(ContentResolver resolver, String locationSetting,
+                                      long startDate, PackedForecast previous) {
+        startDate = WeatherContract.normalizeDate(startDate);
+        boolean comparable = previous != null && previous.mStartDate == startDate
+                && previous.mLocationSetting.equals(locationSetting);
+
+        Bundle extras = new Bundle();
+        extras.putLong(KEY_START_DATE, startDate);
+        if (comparable) {
+            extras.putLong(KEY_KNOWN_VERSION, previous.mVersion);
+        }
+        Bundle result = resolver.call(WeatherEntry.CONTENT_URI, METHOD_GET, locationSetting, extras);
+        if (result == null) {
+            return null;
+        }
+        if (!result.containsKey(KEY_DATES)) {
+            return previous;
+        }
+        return new PackedForecast(locationSetting, startDate, result);
+    }
+
+    /**
+     * Packs a cursor with {@link #COLUMNS} into a result for {@link #load}.
+     */
+    static Bundle pack(long version, Cursor cursor) {
+        int count = cursor.getCount();
+        long[] ids = new long[count];
+        long[] dates = new long[count];
+        int[] weatherIds = new int[count];
+        String[] descriptions = new String[count];
+        double[] highs = new double[count];
+        double[] lows = new double[count];
+        for (int i = 0; i < count && cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+            dates[i] = cursor.getLong(1);
+            weatherIds[i] = cursor.getInt(2);
+            descriptions[i] = cursor.getString(3);
+            highs[i] = cursor.getDouble(4);
+            lows[i] = cursor.getDouble(5);
+        }
+
+        Bundle result = new Bundle();
+        result.putLong(KEY_VERSION, version);
+        result.putLongArray(KEY_IDS, ids);
+        result.putLongArray(KEY_DATES, dates);
+        result.putIntArray(KEY_WEATHER_IDS, weatherIds);
+        result.putStringArray(KEY_DESCRIPTIONS, descriptions);
+        result.putDoubleArray(KEY_HIGHS, highs);
+        result.putDoubleArray(KEY_LOWS, lows);
+        return result;
+    }
+
+    /**
+     * @return a result for {@link #load} saying the caller's forecast is still current.
+     */
+    static Bundle unchanged(long version) {
+        Bundle result = new Bundle();
+        result.putLong(KEY_VERSION, version);
+        return result;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public int getCount() {
+        return mDates.length;
+    }
+
+    /**
+     * @return the weather table's row ID of the day.
+     */
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    public long getDate(int position) {
+        return mDates[position];
+    }
+
+    public int getWeatherId(int position) {
+        return mWeatherIds[position];
+    }
+
+    public String getDescription(int position) {
+        return mDescriptions[position];
+    }
+
+    public double getHigh(int position) {
+        return mHighs[position];
+    }
+
+    public double getLow(int position) {
+        return mLows[position];
+    }
+
+    /**
+     * @return whether there is a forecast for the start date itself, at position 0.
+     */
+    public boolean hasStartDay() {
+        return mDates.length > 0 && mDates[0] == mStartDate;
+    }
+}
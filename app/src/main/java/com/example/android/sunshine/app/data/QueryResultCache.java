@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.util.LruCache;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the results of recent weather queries in memory, so the forecast list, detail view and
+ * widgets asking for the same location within seconds of each other share one JOIN.
+ * <p>
+ * A result is copied out of its cursor once, and each hit gets a new cursor over the same
+ * immutable copy.  Entries are dropped by {@link #invalidate} when a committed write touches
+ * their location and date, or all at once by {@link #clear}.  A query that started before an
+ * invalidation may have read the old rows, so {@link #put} only stores a result if nothing was
+ * invalidated since the caller read {@link #getGeneration()}.
+ */
+class QueryResultCache {
+
+    // Counted in cells rather than rows, so a wide projection takes more room.
+    private static final int MAX_CELLS = 8 * 1024;
+
+    private final LruCache<String, Result> mResults = new LruCache<String, Result>(MAX_CELLS) {
+        @Override
+        protected int sizeOf(String key, Result result) {
+            return Math.max(1, result.mValues.length);
+        }
+    };
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    // Guarded by this.
+    private long mGeneration;
+
+    /**
+     * @param date the exact date of a single-day query, or the start date of a range, 0 for all.
+     */
+    static String buildKey(int match, String locationSetting, long date, String[] projection,
+                           String sortOrder) {
+        StringBuilder key = new StringBuilder()
+                .append(match).append('|')
+                .append(locationSetting).append('|')
+                .append(date).append('|');
+        if (projection == null) {
+            key.append('*');
+        } else {
+            for (String column : projection) {
+                key.append(column).append(',');
+            }
+        }
+        return key.append('|').append(sortOrder).toString();
+    }
+
+    /**
+     * @return a new cursor over the cached result, or null if there is none.
+     */
+    Cursor get(String key) {
+        Result result = mResults.get(key);
+        if (result == null) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+        mHits.incrementAndGet();
+        return new ResultCursor(result);
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies the cursor, and stores the copy unless something was invalidated since
+     * {@code generation} was read.  The cursor is left open.
+     *
+     * @param exactDate whether {@code date} is the only day the query asked for, rather than the
+     *                  first of a range.
+     * @return a cursor over the copy, positioned before the first row.
+     */
+    Cursor put(String key, long generation, String locationSetting, long date, boolean exactDate,
+               Cursor cursor) {
+        Result result = new Result(locationSetting, date, exactDate, cursor);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mResults.put(key, result);
+            }
+        }
+        return new ResultCursor(result);
+    }
+
+    /**
+     * Drops every result that may contain the given day of the location.
+     */
+    synchronized void invalidate(String locationSetting, long date) {
+        mGeneration++;
+        for (Map.Entry<String, Result> entry : mResults.snapshot().entrySet()) {
+            Result result = entry.getValue();
+            if (result.mLocationSetting.equals(locationSetting)
+                    && (result.mExactDate ? result.mDate == date : result.mDate <= date)) {
+                mResults.remove(entry.getKey());
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mGeneration++;
+        mResults.evictAll();
+    }
+
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    long getMissCount() {
+        return mMisses.get();
+    }
+
+    /*
+        An immutable copy of a query result, row by row.
+     */
+    private static final class Result {
+        final String mLocationSetting;
+        final long mDate;
+        final boolean mExactDate;
+
+        final String[] mColumns;
+        final int mCount;
+        final Object[] mValues;
+
+        Result(String locationSetting, long date, boolean exactDate, Cursor cursor) {
+            mLocationSetting = locationSetting;
+            mDate = date;
+            mExactDate = exactDate;
+            mColumns = cursor.getColumnNames();
+            mCount = cursor.getCount();
+            mValues = new Object[mCount * mColumns.length];
+
+            int i = 0;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < mColumns.length; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            mValues[i++] = cursor.getLong(column);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            mValues[i++] = cursor.getDouble(column);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            mValues[i++] = cursor.getString(column);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            mValues[i++] = cursor.getBlob(column);
+                            break;
+                        default:
+                            mValues[i++] = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+        Reads a Result.  Any number of these can share one, as none of them modify it.
+     */
+    private static final class ResultCursor extends AbstractCursor {
+        private final Result mResult;
+
+        ResultCursor(Result result) {
+            mResult = result;
+        }
+
+        private Object value(int column) {
+            return mResult.mValues[getPosition() * mResult.mColumns.length + column];
+        }
+
+        @Override
+        public int getCount() {
+            return mResult.mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mResult.mColumns;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = value(column);
+            if (value == null) return FIELD_TYPE_NULL;
+            if (value instanceof Long) return FIELD_TYPE_INTEGER;
+            if (value instanceof Double) return FIELD_TYPE_FLOAT;
+            if (value instanceof byte[]) return FIELD_TYPE_BLOB;
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = value(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = value(column);
+            if (value == null) return 0;
+            if (value instanceof Number) return ((Number) value).longValue();
+            return Long.parseLong(value.toString());
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = value(column);
+            if (value == null) return 0;
+            if (value instanceof Number) return ((Number) value).doubleValue();
+            return Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = value(column);
+            return value instanceof byte[] ? (byte[]) value : null;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return value(column) == null;
+        }
+    }
+}
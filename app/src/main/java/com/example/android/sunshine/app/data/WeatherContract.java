@@ -19,7 +19,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +42,13 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_ARCHIVE = "archive";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return DateEngine.normalizeDate(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -126,6 +123,13 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter asking a delete to move the rows into the archive first.
+        public static final String PARAM_ARCHIVE = "archive";
+
+        // Deleting through this Uri archives the deleted rows.  See ArchiveEntry.
+        public static final Uri ARCHIVE_ON_DELETE_URI =
+                CONTENT_URI.buildUpon().appendQueryParameter(PARAM_ARCHIVE, "true").build();
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -164,5 +168,175 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static boolean isArchiveRequested(Uri uri) {
+            return Boolean.parseBoolean(uri.getQueryParameter(PARAM_ARCHIVE));
+        }
+    }
+
+    /*
+        Inner class that defines the weekly and monthly aggregates of the weather table.  They are
+        read through weather/<location>/stats and weather/<location>/stats/conditions.  Rows that
+        expire into the archive stay counted, so the rollups cover the whole history of a
+        location, not just the current forecast.
+     */
+    public static final class StatsEntry implements BaseColumns {
+
+        public static final String PATH_STATS = "stats";
+        public static final String PATH_CONDITIONS = "conditions";
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_WEATHER + "/" + PATH_STATS;
+        public static final String CONDITIONS_CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_WEATHER + "/" + PATH_STATS + "/" + PATH_CONDITIONS;
+
+        public static final String TABLE_NAME = "rollup";
+        public static final String CONDITION_TABLE_NAME = "rollup_condition";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // One of the BUCKET_TYPE_* values
+        public static final String COLUMN_BUCKET_TYPE = "bucket";
+        // First date of the bucket, stored as long in milliseconds since the epoch
+        public static final String COLUMN_BUCKET_START = "bucket_start";
+
+        // Aggregates returned by the stats Uri
+        public static final String COLUMN_DAY_COUNT = "day_count";
+        public static final String COLUMN_AVG_HIGH = "avg_high";
+        public static final String COLUMN_AVG_LOW = "avg_low";
+        public static final String COLUMN_MAX_HIGH = "max_high";
+        public static final String COLUMN_MIN_LOW = "min_low";
+        // Returned by the conditions Uri, together with COLUMN_DAY_COUNT
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        // Storage columns.  The "settled" values come from rows that have expired out of the
+        // weather table, the "live" values are recomputed from the rows still in it.
+        public static final String COLUMN_SETTLED_COUNT = "settled_count";
+        public static final String COLUMN_SETTLED_HIGH_SUM = "settled_high_sum";
+        public static final String COLUMN_SETTLED_LOW_SUM = "settled_low_sum";
+        public static final String COLUMN_SETTLED_MAX_HIGH = "settled_max_high";
+        public static final String COLUMN_SETTLED_MIN_LOW = "settled_min_low";
+        public static final String COLUMN_LIVE_COUNT = "live_count";
+        public static final String COLUMN_LIVE_HIGH_SUM = "live_high_sum";
+        public static final String COLUMN_LIVE_LOW_SUM = "live_low_sum";
+        public static final String COLUMN_LIVE_MAX_HIGH = "live_max_high";
+        public static final String COLUMN_LIVE_MIN_LOW = "live_min_low";
+
+        public static final int BUCKET_TYPE_WEEK = 0;
+        public static final int BUCKET_TYPE_MONTH = 1;
+
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+        public static final String PARAM_BUCKET = "bucket";
+        public static final String BUCKET_WEEK = "week";
+        public static final String BUCKET_MONTH = "month";
+
+        public static Uri buildStatsUri(String locationSetting, long fromDate, long toDate,
+                                        String bucket) {
+            return WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_STATS)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(normalizeDate(fromDate)))
+                    .appendQueryParameter(PARAM_TO, Long.toString(normalizeDate(toDate)))
+                    .appendQueryParameter(PARAM_BUCKET, bucket)
+                    .build();
+        }
+
+        public static Uri buildConditionStatsUri(String locationSetting, long fromDate,
+                                                 long toDate, String bucket) {
+            return WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_STATS).appendPath(PATH_CONDITIONS)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(normalizeDate(fromDate)))
+                    .appendQueryParameter(PARAM_TO, Long.toString(normalizeDate(toDate)))
+                    .appendQueryParameter(PARAM_BUCKET, bucket)
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getFromDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_FROM);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+
+        public static long getToDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_TO);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+
+        /**
+         * @return the bucket type requested by the Uri.  Defaults to months.
+         */
+        public static int getBucketTypeFromUri(Uri uri) {
+            return BUCKET_WEEK.equals(uri.getQueryParameter(PARAM_BUCKET)) ?
+                    BUCKET_TYPE_WEEK : BUCKET_TYPE_MONTH;
+        }
+    }
+
+    /*
+        Inner class that defines the archived forecast history.  The archive is not a table: rows
+        expired from the weather table are kept in compact per-location files and are read only,
+        one location at a time, optionally limited to a date range.
+     */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        // Date, stored as long in milliseconds since the epoch.  Also used as the _id.
+        public static final String COLUMN_DATE = "date";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Min and max temperatures for the day, rounded to one decimal place
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        // Inclusive bounds of a range query, as normalized dates
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+
+        public static Uri buildArchiveLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildArchiveLocationWithRange(
+                String locationSetting, long fromDate, long toDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(normalizeDate(fromDate)))
+                    .appendQueryParameter(PARAM_TO, Long.toString(normalizeDate(toDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getFromDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_FROM);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MIN_VALUE;
+        }
+
+        public static long getToDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_TO);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
     }
 }
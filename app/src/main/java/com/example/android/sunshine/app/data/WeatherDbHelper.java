@@ -20,6 +20,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
@@ -28,12 +29,15 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 3;
 
     static final String DATABASE_NAME = "weather.db";
 
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With write-ahead logging, queries on other threads run on a pool of read connections
+        // against the last commit, instead of waiting for a sync's transaction to finish.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -79,8 +83,54 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // One row per location, bucket type and bucket.  Maintained by WeatherRollups in the
+        // same transaction as the writes to the weather table.
+        final String SQL_CREATE_ROLLUP_TABLE = "CREATE TABLE " + StatsEntry.TABLE_NAME + " (" +
+                StatsEntry._ID + " INTEGER PRIMARY KEY," +
+                StatsEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                StatsEntry.COLUMN_BUCKET_TYPE + " INTEGER NOT NULL, " +
+                StatsEntry.COLUMN_BUCKET_START + " INTEGER NOT NULL, " +
+
+                StatsEntry.COLUMN_SETTLED_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                StatsEntry.COLUMN_SETTLED_HIGH_SUM + " REAL NOT NULL DEFAULT 0, " +
+                StatsEntry.COLUMN_SETTLED_LOW_SUM + " REAL NOT NULL DEFAULT 0, " +
+                StatsEntry.COLUMN_SETTLED_MAX_HIGH + " REAL, " +
+                StatsEntry.COLUMN_SETTLED_MIN_LOW + " REAL, " +
+
+                StatsEntry.COLUMN_LIVE_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                StatsEntry.COLUMN_LIVE_HIGH_SUM + " REAL NOT NULL DEFAULT 0, " +
+                StatsEntry.COLUMN_LIVE_LOW_SUM + " REAL NOT NULL DEFAULT 0, " +
+                StatsEntry.COLUMN_LIVE_MAX_HIGH + " REAL, " +
+                StatsEntry.COLUMN_LIVE_MIN_LOW + " REAL, " +
+
+                " FOREIGN KEY (" + StatsEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                " UNIQUE (" + StatsEntry.COLUMN_LOC_KEY + ", " +
+                StatsEntry.COLUMN_BUCKET_TYPE + ", " +
+                StatsEntry.COLUMN_BUCKET_START + ") ON CONFLICT IGNORE);";
+
+        // Number of days per condition in each bucket, split the same way as the rollup table.
+        final String SQL_CREATE_ROLLUP_CONDITION_TABLE = "CREATE TABLE " +
+                StatsEntry.CONDITION_TABLE_NAME + " (" +
+                StatsEntry._ID + " INTEGER PRIMARY KEY," +
+                StatsEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                StatsEntry.COLUMN_BUCKET_TYPE + " INTEGER NOT NULL, " +
+                StatsEntry.COLUMN_BUCKET_START + " INTEGER NOT NULL, " +
+                StatsEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                StatsEntry.COLUMN_SETTLED_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                StatsEntry.COLUMN_LIVE_COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+
+                " FOREIGN KEY (" + StatsEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                " UNIQUE (" + StatsEntry.COLUMN_LOC_KEY + ", " +
+                StatsEntry.COLUMN_BUCKET_TYPE + ", " +
+                StatsEntry.COLUMN_BUCKET_START + ", " +
+                StatsEntry.COLUMN_WEATHER_ID + ") ON CONFLICT IGNORE);";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ROLLUP_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ROLLUP_CONDITION_TABLE);
     }
 
     @Override
@@ -93,6 +143,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + StatsEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + StatsEntry.CONDITION_TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
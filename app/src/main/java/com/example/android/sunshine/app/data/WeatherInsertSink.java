@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * Collects each field of the rows into primitive arrays, and binds them into a compiled INSERT
+ * on the weather table on {@link #commit()}.  The arrays double when they fill up, so a backfill
+ * of any length is kept whole.
+ * <p>
+ * Nothing is written until the caller has read the whole download and commits, so no
+ * transaction is held open while the network is slow or stalled.  The rows are written in a
+ * provider batch, so the expiry commits with them.  The rollups are refreshed and observers
+ * notified once.
+ */
+class WeatherInsertSink implements ForecastStoreSink {
+
+    // A forecast is at most 16 days, so the arrays only grow for a backfill.
+    static final int INITIAL_ROWS = 16;
+
+    private static final String SQL_INSERT = "INSERT INTO " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Bind indices, these must match SQL_INSERT.  A field's bit in mFieldsSet is 1 << index.
+    private static final int BIND_LOC_KEY = 1;
+    private static final int BIND_DATE = 2;
+    private static final int BIND_WEATHER_ID = 3;
+    private static final int BIND_SHORT_DESC = 4;
+    private static final int BIND_MIN_TEMP = 5;
+    private static final int BIND_MAX_TEMP = 6;
+    private static final int BIND_HUMIDITY = 7;
+    private static final int BIND_PRESSURE = 8;
+    private static final int BIND_WIND_SPEED = 9;
+    private static final int BIND_DEGREES = 10;
+
+    private static final long NO_EXPIRY = Long.MIN_VALUE;
+
+    private final WeatherProvider mProvider;
+    private final SQLiteDatabase mDb;
+
+    private long[] mLocationIds = new long[INITIAL_ROWS];
+    private long[] mDates = new long[INITIAL_ROWS];
+    private int[] mWeatherIds = new int[INITIAL_ROWS];
+    private String[] mShortDescs = new String[INITIAL_ROWS];
+    private double[] mMinTemps = new double[INITIAL_ROWS];
+    private double[] mMaxTemps = new double[INITIAL_ROWS];
+    private double[] mHumidities = new double[INITIAL_ROWS];
+    private double[] mPressures = new double[INITIAL_ROWS];
+    private double[] mWindSpeeds = new double[INITIAL_ROWS];
+    private double[] mDegrees = new double[INITIAL_ROWS];
+    private int[] mFieldsSet = new int[INITIAL_ROWS];
+
+    // The row being written, and how many rows are complete.
+    private int mRow = -1;
+    private int mRowCount;
+    private long mExpireThrough = NO_EXPIRY;
+    private boolean mClosed;
+
+    WeatherInsertSink(WeatherProvider provider, SQLiteDatabase db) {
+        mProvider = provider;
+        mDb = db;
+    }
+
+    @Override
+    public void beginRow() {
+        if (mClosed) {
+            throw new IllegalStateException("Sink already closed");
+        }
+        if (mRowCount == mFieldsSet.length) {
+            grow(mRowCount * 2);
+        }
+        mRow = mRowCount;
+        mFieldsSet[mRow] = 0;
+    }
+
+    private void grow(int capacity) {
+        mLocationIds = Arrays.copyOf(mLocationIds, capacity);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mShortDescs = Arrays.copyOf(mShortDescs, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+        mFieldsSet = Arrays.copyOf(mFieldsSet, capacity);
+    }
+
+    @Override
+    public void locationId(long locationId) {
+        mLocationIds[mRow] = locationId;
+        mFieldsSet[mRow] |= 1 << BIND_LOC_KEY;
+    }
+
+    @Override
+    public void date(long date) {
+        mDates[mRow] = WeatherContract.normalizeDate(date);
+        mFieldsSet[mRow] |= 1 << BIND_DATE;
+    }
+
+    @Override
+    public void weatherId(int weatherId) {
+        mWeatherIds[mRow] = weatherId;
+        mFieldsSet[mRow] |= 1 << BIND_WEATHER_ID;
+    }
+
+    @Override
+    public void shortDesc(String shortDesc) {
+        mShortDescs[mRow] = shortDesc;
+        mFieldsSet[mRow] |= 1 << BIND_SHORT_DESC;
+    }
+
+    @Override
+    public void min(double low) {
+        mMinTemps[mRow] = low;
+        mFieldsSet[mRow] |= 1 << BIND_MIN_TEMP;
+    }
+
+    @Override
+    public void max(double high) {
+        mMaxTemps[mRow] = high;
+        mFieldsSet[mRow] |= 1 << BIND_MAX_TEMP;
+    }
+
+    @Override
+    public void humidity(double humidity) {
+        mHumidities[mRow] = humidity;
+        mFieldsSet[mRow] |= 1 << BIND_HUMIDITY;
+    }
+
+    @Override
+    public void pressure(double pressure) {
+        mPressures[mRow] = pressure;
+        mFieldsSet[mRow] |= 1 << BIND_PRESSURE;
+    }
+
+    @Override
+    public void windSpeed(double windSpeed) {
+        mWindSpeeds[mRow] = windSpeed;
+        mFieldsSet[mRow] |= 1 << BIND_WIND_SPEED;
+    }
+
+    @Override
+    public void degrees(double degrees) {
+        mDegrees[mRow] = degrees;
+        mFieldsSet[mRow] |= 1 << BIND_DEGREES;
+    }
+
+    @Override
+    public void endRow() {
+        mRowCount = mRow + 1;
+        mRow = -1;
+    }
+
+    @Override
+    public void expireThrough(long date) {
+        mExpireThrough = date;
+    }
+
+    /**
+     * Writes the buffered rows in one transaction.
+     *
+     * @throws android.database.sqlite.SQLiteConstraintException if a row is missing a field,
+     * in which case nothing is stored.
+     */
+    @Override
+    public int commit() {
+        if (mClosed) {
+            throw new IllegalStateException("Sink already closed");
+        }
+        mClosed = true;
+        if (mRowCount == 0) return 0;
+
+        WeatherNotificationRouter router = mProvider.beginBatch(mDb);
+        boolean successful = false;
+        SQLiteStatement insert = null;
+        WeatherRollups rollups = null;
+        try {
+            insert = mDb.compileStatement(SQL_INSERT);
+            rollups = new WeatherRollups(mDb, router);
+            for (int i = 0; i < mRowCount; i++) {
+                bindRow(insert, i);
+                // Unset fields are bound as NULL, which the NOT NULL constraints reject by
+                // throwing, rolling the whole forecast back.
+                insert.executeInsert();
+                rollups.markDirty(mLocationIds[i], mDates[i]);
+            }
+            if (mExpireThrough != NO_EXPIRY) {
+                mProvider.delete(WeatherEntry.ARCHIVE_ON_DELETE_URI,
+                        WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(mExpireThrough)});
+            }
+            rollups.refresh();
+            successful = true;
+        } finally {
+            try {
+                mProvider.endBatch(mDb, successful);
+            } finally {
+                if (insert != null) insert.close();
+                if (rollups != null) rollups.close();
+            }
+        }
+        return mRowCount;
+    }
+
+    private void bindRow(SQLiteStatement insert, int row) {
+        insert.clearBindings();
+        int set = mFieldsSet[row];
+        if ((set & 1 << BIND_LOC_KEY) != 0) insert.bindLong(BIND_LOC_KEY, mLocationIds[row]);
+        if ((set & 1 << BIND_DATE) != 0) insert.bindLong(BIND_DATE, mDates[row]);
+        if ((set & 1 << BIND_WEATHER_ID) != 0) insert.bindLong(BIND_WEATHER_ID, mWeatherIds[row]);
+        if ((set & 1 << BIND_SHORT_DESC) != 0) insert.bindString(BIND_SHORT_DESC, mShortDescs[row]);
+        if ((set & 1 << BIND_MIN_TEMP) != 0) insert.bindDouble(BIND_MIN_TEMP, mMinTemps[row]);
+        if ((set & 1 << BIND_MAX_TEMP) != 0) insert.bindDouble(BIND_MAX_TEMP, mMaxTemps[row]);
+        if ((set & 1 << BIND_HUMIDITY) != 0) insert.bindDouble(BIND_HUMIDITY, mHumidities[row]);
+        if ((set & 1 << BIND_PRESSURE) != 0) insert.bindDouble(BIND_PRESSURE, mPressures[row]);
+        if ((set & 1 << BIND_WIND_SPEED) != 0) insert.bindDouble(BIND_WIND_SPEED, mWindSpeeds[row]);
+        if ((set & 1 << BIND_DEGREES) != 0) insert.bindDouble(BIND_DEGREES, mDegrees[row]);
+    }
+
+    @Override
+    public void close() {
+        // Nothing is open until commit(), so rows that weren't committed are just dropped.
+        mClosed = true;
+    }
+}
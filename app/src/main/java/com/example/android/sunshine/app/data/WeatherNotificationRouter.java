@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+/**
+ * Works out which URIs a write to the weather table affects, so only their observers are woken.
+ * <p>
+ * Notifying {@link WeatherEntry#CONTENT_URI} wakes every observer of every location, because
+ * they all observe descendants of it.  Instead, rows are collected while the write runs, and
+ * once it's committed each location is notified on its own:
+ * <ul>
+ * <li>one day written: {@code weather/<location>/<date>} and {@code weather/<location>/stats}.
+ * <li>several days written: {@code weather/<location>} once, which covers its days and stats.
+ * Notifying each day would reload the forecast list, which observes the location, once per
+ * day.
+ * </ul>
+ * Rows whose location can't be found fall back to notifying the whole table.
+ * <p>
+ * Other URIs, such as those of the location table, can be queued with {@link #addUri} so a
+ * batch of writes sends each notification once.
+ * <p>
+ * The provider's query cache is invalidated for the same rows, just before their observers are
+ * notified, so the queries they make are answered with the new rows.
+ */
+class WeatherNotificationRouter {
+
+    private final SQLiteDatabase mDb;
+    private final QueryResultCache mQueryCache;
+
+    // The rows written, as (location id, date) pairs.
+    private long[] mLocationIds = new long[16];
+    private long[] mDates = new long[16];
+    private int mCount;
+
+    private final LinkedHashSet<Uri> mUris = new LinkedHashSet<Uri>();
+    private boolean mClearQueryCache;
+
+    WeatherNotificationRouter(SQLiteDatabase db, QueryResultCache queryCache) {
+        mDb = db;
+        mQueryCache = queryCache;
+    }
+
+    void addRow(long locationId, long date) {
+        if (mCount == mDates.length) {
+            mLocationIds = Arrays.copyOf(mLocationIds, mCount * 2);
+            mDates = Arrays.copyOf(mDates, mCount * 2);
+        }
+        mLocationIds[mCount] = locationId;
+        mDates[mCount] = date;
+        mCount++;
+    }
+
+    void addUri(Uri uri) {
+        mUris.add(uri);
+    }
+
+    /**
+     * Clears the whole query cache on dispatch, for writes that can't be tied to rows, such as
+     * a location's setting changing.
+     */
+    void clearQueryCache() {
+        mClearQueryCache = true;
+    }
+
+    /**
+     * Sends the notifications for the rows collected so far.  Call after the transaction that
+     * wrote them was committed, so observers don't query before the rows are visible.
+     */
+    void dispatch(ContentResolver resolver) {
+        if (mClearQueryCache) {
+            mQueryCache.clear();
+            mClearQueryCache = false;
+        }
+        for (Uri uri : mUris) {
+            resolver.notifyChange(uri, null);
+        }
+        mUris.clear();
+        if (mCount == 0) return;
+
+        // Distinct locations, with the single date written for each or a flag for several.
+        long[] locationIds = new long[mCount];
+        long[] dates = new long[mCount];
+        boolean[] severalDates = new boolean[mCount];
+        int[] rowLocations = new int[mCount];
+        int locationCount = 0;
+        for (int i = 0; i < mCount; i++) {
+            int l = 0;
+            while (l < locationCount && locationIds[l] != mLocationIds[i]) {
+                l++;
+            }
+            rowLocations[i] = l;
+            if (l == locationCount) {
+                locationIds[l] = mLocationIds[i];
+                dates[l] = mDates[i];
+                locationCount++;
+            } else if (dates[l] != mDates[i]) {
+                severalDates[l] = true;
+            }
+        }
+        int rowCount = mCount;
+        mCount = 0;
+
+        String[] settings = querySettings(locationIds, locationCount);
+        for (int i = 0; i < rowCount; i++) {
+            String locationSetting = settings[rowLocations[i]];
+            if (locationSetting == null) {
+                mQueryCache.clear();
+                break;
+            }
+            mQueryCache.invalidate(locationSetting, mDates[i]);
+        }
+
+        boolean unknownLocation = false;
+        for (int l = 0; l < locationCount; l++) {
+            String locationSetting = settings[l];
+            if (locationSetting == null) {
+                unknownLocation = true;
+            } else if (severalDates[l]) {
+                resolver.notifyChange(WeatherEntry.buildWeatherLocation(locationSetting), null);
+            } else {
+                resolver.notifyChange(
+                        WeatherEntry.buildWeatherLocationWithDate(locationSetting, dates[l]), null);
+                resolver.notifyChange(buildStatsLocation(locationSetting), null);
+            }
+        }
+        if (unknownLocation) {
+            resolver.notifyChange(WeatherEntry.CONTENT_URI, null);
+        }
+    }
+
+    private static Uri buildStatsLocation(String locationSetting) {
+        return WeatherEntry.buildWeatherLocation(locationSetting).buildUpon()
+                .appendPath(StatsEntry.PATH_STATS).build();
+    }
+
+    /**
+     * @return the location setting of each id, or null where there's no such location.
+     */
+    private String[] querySettings(long[] locationIds, int count) {
+        StringBuilder selection = new StringBuilder(LocationEntry._ID).append(" IN (");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) selection.append(", ");
+            selection.append(locationIds[i]);
+        }
+        selection.append(")");
+
+        String[] settings = new String[count];
+        Cursor cursor = mDb.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING},
+                selection.toString(), null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(0);
+                for (int i = 0; i < count; i++) {
+                    if (locationIds[i] == locationId) {
+                        settings[i] = cursor.getString(1);
+                        break;
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return settings;
+    }
+}
@@ -17,23 +17,82 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private ForecastArchive mArchive;
+
+    // Changes with every committed write to the weather table, see PackedForecast.
+    private final AtomicLong mDataVersion = new AtomicLong();
+
+    // Results of the location queries, invalidated by the writes below.
+    private final QueryResultCache mQueryCache = new QueryResultCache();
+
+    // Set while a batch is open on the thread, see beginBatch().
+    private final ThreadLocal<WeatherNotificationRouter> mBatchRouter =
+            new ThreadLocal<WeatherNotificationRouter>();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_STATS = 103;
+    static final int WEATHER_STATS_CONDITIONS = 104;
     static final int LOCATION = 300;
+    static final int ARCHIVE_WITH_LOCATION = 400;
+
+    // Directory under getFilesDir() holding the per-location archive files.
+    static final String ARCHIVE_DIRECTORY = "archive";
+
+    private static final String[] ARCHIVE_COLUMNS = {
+            WeatherContract.ArchiveEntry._ID,
+            WeatherContract.ArchiveEntry.COLUMN_DATE,
+            WeatherContract.ArchiveEntry.COLUMN_WEATHER_ID,
+            WeatherContract.ArchiveEntry.COLUMN_MAX_TEMP,
+            WeatherContract.ArchiveEntry.COLUMN_MIN_TEMP
+    };
+
+    // The weather columns copied into the archive when rows expire, grouped by location.
+    private static final String[] ARCHIVE_SOURCE_COLUMNS = {
+            WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private static final String sArchiveSourceSortOrder =
+            WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " ASC, " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -51,6 +110,104 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    private static final SQLiteQueryBuilder sStatsQueryBuilder;
+    private static final SQLiteQueryBuilder sConditionStatsQueryBuilder;
+
+    static {
+        final String total = WeatherContract.StatsEntry.COLUMN_SETTLED_COUNT + " + " +
+                WeatherContract.StatsEntry.COLUMN_LIVE_COUNT;
+
+        // The settled and live halves of a bucket are merged on the way out.  A half with no
+        // rows has NULL extremes, so pick the other half instead of letting MAX/MIN see a NULL.
+        HashMap<String, String> statsProjection = new HashMap<String, String>();
+        statsProjection.put(WeatherContract.StatsEntry._ID,
+                WeatherContract.StatsEntry.TABLE_NAME + "." + WeatherContract.StatsEntry._ID);
+        statsProjection.put(WeatherContract.StatsEntry.COLUMN_BUCKET_START,
+                WeatherContract.StatsEntry.COLUMN_BUCKET_START);
+        statsProjection.put(WeatherContract.StatsEntry.COLUMN_DAY_COUNT,
+                "(" + total + ") AS " + WeatherContract.StatsEntry.COLUMN_DAY_COUNT);
+        statsProjection.put(WeatherContract.StatsEntry.COLUMN_AVG_HIGH,
+                "(" + WeatherContract.StatsEntry.COLUMN_SETTLED_HIGH_SUM + " + " +
+                        WeatherContract.StatsEntry.COLUMN_LIVE_HIGH_SUM + ") / (" + total +
+                        ") AS " + WeatherContract.StatsEntry.COLUMN_AVG_HIGH);
+        statsProjection.put(WeatherContract.StatsEntry.COLUMN_AVG_LOW,
+                "(" + WeatherContract.StatsEntry.COLUMN_SETTLED_LOW_SUM + " + " +
+                        WeatherContract.StatsEntry.COLUMN_LIVE_LOW_SUM + ") / (" + total +
+                        ") AS " + WeatherContract.StatsEntry.COLUMN_AVG_LOW);
+        statsProjection.put(WeatherContract.StatsEntry.COLUMN_MAX_HIGH,
+                mergeExtreme("MAX", WeatherContract.StatsEntry.COLUMN_SETTLED_MAX_HIGH,
+                        WeatherContract.StatsEntry.COLUMN_LIVE_MAX_HIGH) +
+                        " AS " + WeatherContract.StatsEntry.COLUMN_MAX_HIGH);
+        statsProjection.put(WeatherContract.StatsEntry.COLUMN_MIN_LOW,
+                mergeExtreme("MIN", WeatherContract.StatsEntry.COLUMN_SETTLED_MIN_LOW,
+                        WeatherContract.StatsEntry.COLUMN_LIVE_MIN_LOW) +
+                        " AS " + WeatherContract.StatsEntry.COLUMN_MIN_LOW);
+
+        sStatsQueryBuilder = new SQLiteQueryBuilder();
+        sStatsQueryBuilder.setTables(
+                WeatherContract.StatsEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.StatsEntry.TABLE_NAME +
+                        "." + WeatherContract.StatsEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+        sStatsQueryBuilder.setProjectionMap(statsProjection);
+
+        HashMap<String, String> conditionProjection = new HashMap<String, String>();
+        conditionProjection.put(WeatherContract.StatsEntry._ID,
+                WeatherContract.StatsEntry.CONDITION_TABLE_NAME + "." +
+                        WeatherContract.StatsEntry._ID);
+        conditionProjection.put(WeatherContract.StatsEntry.COLUMN_BUCKET_START,
+                WeatherContract.StatsEntry.COLUMN_BUCKET_START);
+        conditionProjection.put(WeatherContract.StatsEntry.COLUMN_WEATHER_ID,
+                WeatherContract.StatsEntry.COLUMN_WEATHER_ID);
+        conditionProjection.put(WeatherContract.StatsEntry.COLUMN_DAY_COUNT,
+                "(" + total + ") AS " + WeatherContract.StatsEntry.COLUMN_DAY_COUNT);
+
+        sConditionStatsQueryBuilder = new SQLiteQueryBuilder();
+        sConditionStatsQueryBuilder.setTables(
+                WeatherContract.StatsEntry.CONDITION_TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.StatsEntry.CONDITION_TABLE_NAME +
+                        "." + WeatherContract.StatsEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+        sConditionStatsQueryBuilder.setProjectionMap(conditionProjection);
+    }
+
+    private static String mergeExtreme(String function, String settled, String live) {
+        return "(CASE WHEN " + WeatherContract.StatsEntry.COLUMN_SETTLED_COUNT + " = 0 THEN " +
+                live + " WHEN " + WeatherContract.StatsEntry.COLUMN_LIVE_COUNT + " = 0 THEN " +
+                settled + " ELSE " + function + "(" + settled + ", " + live + ") END)";
+    }
+
+    private static final String[] STATS_COLUMNS = {
+            WeatherContract.StatsEntry._ID,
+            WeatherContract.StatsEntry.COLUMN_BUCKET_START,
+            WeatherContract.StatsEntry.COLUMN_DAY_COUNT,
+            WeatherContract.StatsEntry.COLUMN_AVG_HIGH,
+            WeatherContract.StatsEntry.COLUMN_AVG_LOW,
+            WeatherContract.StatsEntry.COLUMN_MAX_HIGH,
+            WeatherContract.StatsEntry.COLUMN_MIN_LOW
+    };
+
+    private static final String[] CONDITION_STATS_COLUMNS = {
+            WeatherContract.StatsEntry._ID,
+            WeatherContract.StatsEntry.COLUMN_BUCKET_START,
+            WeatherContract.StatsEntry.COLUMN_WEATHER_ID,
+            WeatherContract.StatsEntry.COLUMN_DAY_COUNT
+    };
+
+    //location.location_setting = ? AND bucket = ? AND bucket_start >= ? AND bucket_start <= ?
+    private static final String sStatsSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.StatsEntry.COLUMN_BUCKET_TYPE + " = ? AND " +
+                    WeatherContract.StatsEntry.COLUMN_BUCKET_START + " >= ? AND " +
+                    WeatherContract.StatsEntry.COLUMN_BUCKET_START + " <= ? AND " +
+                    WeatherContract.StatsEntry.COLUMN_SETTLED_COUNT + " + " +
+                    WeatherContract.StatsEntry.COLUMN_LIVE_COUNT + " > 0";
+
     //location.location_setting = ?
     private static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
@@ -108,6 +265,162 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    /*
+        The location queries, answered from the cache when the same one was made since the rows
+        were last written.
+     */
+    private Cursor getWeatherCached(int match, Uri uri, String[] projection, String sortOrder) {
+        boolean exactDate = match == WEATHER_WITH_LOCATION_AND_DATE;
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long date = exactDate
+                ? WeatherContract.WeatherEntry.getDateFromUri(uri)
+                : WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        String key = QueryResultCache.buildKey(match, locationSetting, date, projection, sortOrder);
+
+        Cursor cached = mQueryCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = mQueryCache.getGeneration();
+        Cursor cursor = exactDate
+                ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                : getWeatherByLocationSetting(uri, projection, sortOrder);
+        // A batch open on this thread would be caching rows it may yet roll back.
+        if (mBatchRouter.get() != null) {
+            return cursor;
+        }
+        try {
+            return mQueryCache.put(key, generation, locationSetting, date, exactDate, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Reads whole buckets from the rollup tables.  The from date is moved back to the start of
+        its bucket, so the first bucket is always complete.
+     */
+    private Cursor getStatsByLocationSetting(Uri uri, String[] projection, String sortOrder,
+                                             boolean conditions) {
+        String locationSetting = WeatherContract.StatsEntry.getLocationSettingFromUri(uri);
+        int bucketType = WeatherContract.StatsEntry.getBucketTypeFromUri(uri);
+        long fromDate = WeatherContract.StatsEntry.getFromDateFromUri(uri);
+        long toDate = WeatherContract.StatsEntry.getToDateFromUri(uri);
+        long bucketStart = fromDate == 0 ? 0 : DateEngine.fromJulianDay(
+                WeatherRollups.bucketStart(bucketType, DateEngine.toJulianDay(fromDate)));
+
+        if (null == sortOrder) {
+            sortOrder = WeatherContract.StatsEntry.COLUMN_BUCKET_START + " ASC";
+        }
+        SQLiteQueryBuilder builder = conditions ? sConditionStatsQueryBuilder : sStatsQueryBuilder;
+        return builder.query(mOpenHelper.getReadableDatabase(),
+                projection != null ? projection :
+                        (conditions ? CONDITION_STATS_COLUMNS : STATS_COLUMNS),
+                sStatsSelection,
+                new String[]{locationSetting, Integer.toString(bucketType),
+                        Long.toString(bucketStart), Long.toString(toDate)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    /*
+        The archive is read straight from its memory-mapped files, so the result is a
+        MatrixCursor in ascending date order.  Sort order is ignored.
+     */
+    private Cursor getArchiveByLocationSetting(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri);
+        long fromDate = WeatherContract.ArchiveEntry.getFromDateFromUri(uri);
+        long toDate = WeatherContract.ArchiveEntry.getToDateFromUri(uri);
+        int fromJulianDay = fromDate == Long.MIN_VALUE ?
+                Integer.MIN_VALUE : DateEngine.toJulianDay(fromDate);
+        int toJulianDay = toDate == Long.MAX_VALUE ?
+                Integer.MAX_VALUE : DateEngine.toJulianDay(toDate);
+
+        final String[] columns = projection != null ? projection : ARCHIVE_COLUMNS;
+        final MatrixCursor cursor = new MatrixCursor(columns);
+        try {
+            mArchive.read(locationSetting, fromJulianDay, toJulianDay,
+                    new ForecastArchive.DayVisitor() {
+                        @Override
+                        public void visit(int julianDay, int weatherId, double high, double low) {
+                            long date = DateEngine.fromJulianDay(julianDay);
+                            MatrixCursor.RowBuilder row = cursor.newRow();
+                            for (String column : columns) {
+                                if (WeatherContract.ArchiveEntry._ID.equals(column)
+                                        || WeatherContract.ArchiveEntry.COLUMN_DATE.equals(column)) {
+                                    row.add(date);
+                                } else if (WeatherContract.ArchiveEntry.COLUMN_WEATHER_ID.equals(column)) {
+                                    row.add(weatherId);
+                                } else if (WeatherContract.ArchiveEntry.COLUMN_MAX_TEMP.equals(column)) {
+                                    row.add(high);
+                                } else if (WeatherContract.ArchiveEntry.COLUMN_MIN_TEMP.equals(column)) {
+                                    row.add(low);
+                                } else {
+                                    throw new IllegalArgumentException(
+                                            "Unknown archive column: " + column);
+                                }
+                            }
+                        }
+                    });
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to read archive for " + locationSetting, e);
+        }
+        return cursor;
+    }
+
+    /**
+     * Copies the weather rows matching the selection into the archive.
+     *
+     * @return false if the archive could not be written, in which case the rows should be kept
+     * so the next expiry can try again.
+     */
+    private boolean archiveWeather(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = sWeatherByLocationSettingQueryBuilder.query(db,
+                ARCHIVE_SOURCE_COLUMNS,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sArchiveSourceSortOrder
+        );
+        try {
+            String currentLocation = null;
+            ArrayList<ForecastArchive.Day> days = new ArrayList<ForecastArchive.Day>();
+            while (cursor.moveToNext()) {
+                String locationSetting = cursor.getString(0);
+                if (!locationSetting.equals(currentLocation)) {
+                    appendToArchive(currentLocation, days);
+                    currentLocation = locationSetting;
+                }
+                days.add(new ForecastArchive.Day(
+                        DateEngine.toJulianDay(cursor.getLong(1)),
+                        cursor.getInt(2),
+                        cursor.getDouble(3),
+                        cursor.getDouble(4)));
+            }
+            appendToArchive(currentLocation, days);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to archive expired weather", e);
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void appendToArchive(String locationSetting, ArrayList<ForecastArchive.Day> days)
+            throws IOException {
+        if (days.isEmpty()) return;
+        int written = mArchive.append(locationSetting,
+                days.toArray(new ForecastArchive.Day[days.size()]));
+        days.clear();
+        if (written > 0) {
+            notifyChange(WeatherContract.ArchiveEntry.buildArchiveLocation(locationSetting));
+        }
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -128,8 +441,15 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.StatsEntry.PATH_STATS, WEATHER_STATS);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.StatsEntry.PATH_STATS + "/" +
+                WeatherContract.StatsEntry.PATH_CONDITIONS, WEATHER_STATS_CONDITIONS);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
         return matcher;
     }
 
@@ -140,6 +460,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mArchive = new ForecastArchive(new File(getContext().getFilesDir(), ARCHIVE_DIRECTORY));
         return true;
     }
 
@@ -162,8 +483,14 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_STATS:
+                return WeatherContract.StatsEntry.CONTENT_TYPE;
+            case WEATHER_STATS_CONDITIONS:
+                return WeatherContract.StatsEntry.CONDITIONS_CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -179,12 +506,23 @@ public class WeatherProvider extends ContentProvider {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                retCursor = getWeatherCached(WEATHER_WITH_LOCATION_AND_DATE, uri, projection,
+                        sortOrder);
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getWeatherCached(WEATHER_WITH_LOCATION, uri, projection, sortOrder);
+                break;
+            }
+            // "weather/*/stats"
+            case WEATHER_STATS: {
+                retCursor = getStatsByLocationSetting(uri, projection, sortOrder, false);
+                break;
+            }
+            // "weather/*/stats/conditions"
+            case WEATHER_STATS_CONDITIONS: {
+                retCursor = getStatsByLocationSetting(uri, projection, sortOrder, true);
                 break;
             }
             // "weather"
@@ -213,6 +551,11 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "archive/*"
+            case ARCHIVE_WITH_LOCATION: {
+                retCursor = getArchiveByLocationSetting(uri, projection);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -233,11 +576,26 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id;
+                WeatherNotificationRouter router = openRouter(db);
+                db.beginTransactionNonExclusive();
+                WeatherRollups rollups = new WeatherRollups(db, router);
+                try {
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    if ( _id > 0 ) {
+                        markInserted(rollups, values);
+                        rollups.refresh();
+                        db.setTransactionSuccessful();
+                    }
+                } finally {
+                    db.endTransaction();
+                    rollups.close();
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                dispatch(router);
                 break;
             }
             case LOCATION: {
@@ -246,12 +604,12 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                notifyChange(uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
 
@@ -263,24 +621,52 @@ public class WeatherProvider extends ContentProvider {
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+            case WEATHER: {
+                boolean archive = WeatherContract.WeatherEntry.isArchiveRequested(uri);
+                if (archive && !archiveWeather(db, selection, selectionArgs)) {
+                    rowsDeleted = 0;
+                    break;
+                }
+                WeatherNotificationRouter router = openRouter(db);
+                db.beginTransactionNonExclusive();
+                WeatherRollups rollups = new WeatherRollups(db, router);
+                try {
+                    // Archived rows are history, so they stay counted in the rollups.
+                    rollups.markRows(selection, selectionArgs, archive);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    rollups.refresh();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    rollups.close();
+                }
+                dispatch(router);
                 break;
+            }
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                // Because a null deletes all rows
+                if (rowsDeleted != 0) {
+                    clearQueryCache();
+                    notifyChange(uri);
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        // Because a null deletes all rows
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
         return rowsDeleted;
     }
 
+    private void markInserted(WeatherRollups rollups, ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId != null && date != null) {
+            rollups.markDirty(locationId, date);
+        }
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -289,6 +675,31 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    /*
+        After an update that changes the date or location, the rows may not match the original
+        selection any more.  This finds them again by their new date and/or location.
+     */
+    private static String buildUpdatedRowsSelection(Long date, Long locationId, long[] oldLocationIds) {
+        StringBuilder selection = new StringBuilder();
+        if (date != null) {
+            selection.append(WeatherContract.WeatherEntry.COLUMN_DATE).append(" = ").append(date);
+        }
+        if (locationId != null) {
+            if (selection.length() > 0) selection.append(" AND ");
+            selection.append(WeatherContract.WeatherEntry.COLUMN_LOC_KEY).append(" = ")
+                    .append(locationId);
+        } else {
+            selection.append(" AND ").append(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                    .append(" IN (");
+            for (int i = 0; i < oldLocationIds.length; i++) {
+                if (i > 0) selection.append(", ");
+                selection.append(oldLocationIds[i]);
+            }
+            selection.append(")");
+        }
+        return selection.toString();
+    }
+
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
@@ -297,21 +708,42 @@ public class WeatherProvider extends ContentProvider {
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                WeatherNotificationRouter router = openRouter(db);
+                db.beginTransactionNonExclusive();
+                WeatherRollups rollups = new WeatherRollups(db, router);
+                try {
+                    long[] locationIds = rollups.markRows(selection, selectionArgs, false);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    // Rows may have moved to another day or location.
+                    Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                    Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                    if (date != null || locationId != null) {
+                        rollups.markRows(
+                                buildUpdatedRowsSelection(date, locationId, locationIds), null, false);
+                    }
+                    rollups.refresh();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    rollups.close();
+                }
+                dispatch(router);
                 break;
+            }
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                if (rowsUpdated != 0) {
+                    clearQueryCache();
+                    notifyChange(uri);
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
         return rowsUpdated;
     }
 
@@ -321,27 +753,162 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
+                WeatherNotificationRouter router = openRouter(db);
+                db.beginTransactionNonExclusive();
+                WeatherRollups rollups = new WeatherRollups(db, router);
                 int returnCount = 0;
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
+                            markInserted(rollups, value);
                             returnCount++;
                         }
                     }
+                    rollups.refresh();
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
+                    rollups.close();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                dispatch(router);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Opens a sink that writes weather rows without going through ContentValues.  This is the
+     * same as a bulkInsert on {@link WeatherContract.WeatherEntry#CONTENT_URI}, but it can only
+     * be used in-process, through {@link android.content.ContentProviderClient#getLocalContentProvider()}.
+     * The sink must be used from a single thread.  Nothing is written until the rows are
+     * committed, so a slow download doesn't hold up other writers.
+     */
+    public ForecastStoreSink openWeatherSink() {
+        return new WeatherInsertSink(this, mOpenHelper.getWritableDatabase());
+    }
+
+    /**
+     * Answers {@link PackedForecast#load}: the forecast of the location in {@code arg}, packed
+     * into arrays, or just the data version if the caller already has the current one.  The
+     * extras are optional, without them every day is sent.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (!PackedForecast.METHOD_GET.equals(method)) {
+            throw new UnsupportedOperationException("Unknown method: " + method);
+        }
+        // Read before querying, so a write that races the query changes the version afterwards.
+        long version = mDataVersion.get();
+        if (extras != null && extras.containsKey(PackedForecast.KEY_KNOWN_VERSION)
+                && extras.getLong(PackedForecast.KEY_KNOWN_VERSION) == version) {
+            return PackedForecast.unchanged(version);
+        }
+        long startDate = extras != null ? extras.getLong(PackedForecast.KEY_START_DATE) : 0;
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(arg, startDate);
+        Cursor cursor = getWeatherByLocationSetting(uri, PackedForecast.COLUMNS,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return PackedForecast.pack(version, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Applies all operations in one transaction.  If any of them fails, none of them is kept.
+     * Change notifications are held back until the batch is committed, and each affected URI is
+     * notified once, however many operations touched it.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        beginBatch(db);
+        boolean successful = false;
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            successful = true;
+            return results;
+        } finally {
+            endBatch(db, successful);
+        }
+    }
+
+    /**
+     * Opens a transaction that every write made by this provider on the calling thread joins,
+     * until {@link #endBatch}.  Their notifications are collected by the returned router.
+     */
+    WeatherNotificationRouter beginBatch(SQLiteDatabase db) {
+        if (mBatchRouter.get() != null) {
+            throw new IllegalStateException("A batch is already open on this thread");
+        }
+        WeatherNotificationRouter router = new WeatherNotificationRouter(db, mQueryCache);
+        db.beginTransactionNonExclusive();
+        mBatchRouter.set(router);
+        return router;
+    }
+
+    /**
+     * Commits or rolls back the batch opened by {@link #beginBatch}, and sends its notifications
+     * if it was committed.
+     */
+    void endBatch(SQLiteDatabase db, boolean successful) {
+        WeatherNotificationRouter router = mBatchRouter.get();
+        mBatchRouter.remove();
+        if (successful) {
+            db.setTransactionSuccessful();
+        }
+        db.endTransaction();
+        if (successful) {
+            mDataVersion.incrementAndGet();
+            router.dispatch(getContext().getContentResolver());
+        }
+    }
+
+    /*
+        Writes inside a batch share its router, so nothing is notified before the batch commits.
+     */
+    private WeatherNotificationRouter openRouter(SQLiteDatabase db) {
+        WeatherNotificationRouter batchRouter = mBatchRouter.get();
+        return batchRouter != null ? batchRouter : new WeatherNotificationRouter(db, mQueryCache);
+    }
+
+    private void dispatch(WeatherNotificationRouter router) {
+        if (router != mBatchRouter.get()) {
+            mDataVersion.incrementAndGet();
+            router.dispatch(getContext().getContentResolver());
+        }
+    }
+
+    /*
+        For location writes, which can change what any cached query returns.  In a batch the
+        cache is cleared when it commits, so a query in between can't cache the old rows again.
+     */
+    private void clearQueryCache() {
+        WeatherNotificationRouter batchRouter = mBatchRouter.get();
+        if (batchRouter != null) {
+            batchRouter.clearQueryCache();
+        } else {
+            mQueryCache.clear();
+        }
+    }
+
+    QueryResultCache getQueryCache() {
+        return mQueryCache;
+    }
+
+    private void notifyChange(Uri uri) {
+        WeatherNotificationRouter batchRouter = mBatchRouter.get();
+        if (batchRouter != null) {
+            batchRouter.addUri(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
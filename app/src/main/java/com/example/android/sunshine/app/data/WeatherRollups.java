@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.LinkedHashSet;
+
+/**
+ * Keeps the weekly and monthly rollup tables in step with the weather table.
+ * <p>
+ * Create one per write, inside the transaction that modifies the weather table.  Mark every
+ * (location, date) the write touches with {@link #markDirty}, call {@link #settle} for rows that
+ * expire into the archive, and call {@link #refresh()} before the transaction is committed.  Only
+ * the buckets that were touched are recomputed, and each one from at most a month of live rows.
+ */
+class WeatherRollups {
+
+    private static final int DAYS_PER_WEEK = 7;
+
+    private static final int[] BUCKET_TYPES = {
+            StatsEntry.BUCKET_TYPE_WEEK, StatsEntry.BUCKET_TYPE_MONTH
+    };
+
+    private static final String sBucketSelection =
+            StatsEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    StatsEntry.COLUMN_BUCKET_TYPE + " = ? AND " +
+                    StatsEntry.COLUMN_BUCKET_START + " = ?";
+
+    private final SQLiteDatabase mDb;
+    private final WeatherNotificationRouter mRouter;
+
+    // Buckets to recompute, as "location:type:startJulianDay".
+    private final LinkedHashSet<String> mDirtyBuckets = new LinkedHashSet<String>();
+
+    private SQLiteStatement mInsertBucket;
+    private SQLiteStatement mSettleBucket;
+    private SQLiteStatement mInsertCondition;
+    private SQLiteStatement mSettleCondition;
+
+    /**
+     * @param router told about every row marked dirty, so observers of it can be notified once
+     *               the transaction is committed.  May be null.
+     */
+    WeatherRollups(SQLiteDatabase db, WeatherNotificationRouter router) {
+        mDb = db;
+        mRouter = router;
+    }
+
+    /**
+     * @return the Julian day the bucket containing {@code julianDay} starts on.
+     */
+    static int bucketStart(int bucketType, int julianDay) {
+        if (bucketType == StatsEntry.BUCKET_TYPE_WEEK) {
+            // Weeks start on Mondays.
+            return julianDay - DateEngine.dayOfWeek(julianDay);
+        }
+        return DateEngine.toJulianDay(DateEngine.year(julianDay), DateEngine.month(julianDay), 1);
+    }
+
+    /**
+     * @return the Julian day the bucket after the one starting on {@code startJulianDay} starts on.
+     */
+    static int nextBucketStart(int bucketType, int startJulianDay) {
+        if (bucketType == StatsEntry.BUCKET_TYPE_WEEK) {
+            return startJulianDay + DAYS_PER_WEEK;
+        }
+        // Month 13 rolls over into January of the next year.
+        return DateEngine.toJulianDay(DateEngine.year(startJulianDay),
+                DateEngine.month(startJulianDay) + 1, 1);
+    }
+
+    /**
+     * Marks the buckets containing the given day as needing their live part recomputed.
+     */
+    void markDirty(long locationId, long date) {
+        if (mRouter != null) {
+            mRouter.addRow(locationId, date);
+        }
+        int julianDay = DateEngine.toJulianDay(date);
+        for (int bucketType : BUCKET_TYPES) {
+            mDirtyBuckets.add(locationId + ":" + bucketType + ":" + bucketStart(bucketType, julianDay));
+        }
+    }
+
+    /**
+     * Marks every weather row matching the selection as dirty, and settles them if they are
+     * about to expire.  Must be called before the rows are deleted or updated.
+     *
+     * @return the distinct location ids of the matching rows.
+     */
+    long[] markRows(String selection, String[] selectionArgs, boolean settle) {
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME,
+                new String[]{
+                        WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherEntry.COLUMN_DATE,
+                        WeatherEntry.COLUMN_WEATHER_ID,
+                        WeatherEntry.COLUMN_MAX_TEMP,
+                        WeatherEntry.COLUMN_MIN_TEMP
+                },
+                selection, selectionArgs, null, null, null);
+        LinkedHashSet<Long> locationIds = new LinkedHashSet<Long>();
+        try {
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(0);
+                long date = cursor.getLong(1);
+                locationIds.add(locationId);
+                markDirty(locationId, date);
+                if (settle) {
+                    settle(locationId, date, cursor.getInt(2), cursor.getDouble(3),
+                            cursor.getDouble(4));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        long[] result = new long[locationIds.size()];
+        int i = 0;
+        for (Long locationId : locationIds) {
+            result[i++] = locationId;
+        }
+        return result;
+    }
+
+    /**
+     * Folds a row that is leaving the weather table into the settled part of its buckets.
+     */
+    void settle(long locationId, long date, int weatherId, double high, double low) {
+        if (mSettleBucket == null) {
+            mSettleBucket = mDb.compileStatement("UPDATE " + StatsEntry.TABLE_NAME + " SET " +
+                    StatsEntry.COLUMN_SETTLED_MAX_HIGH + " = CASE WHEN " +
+                    StatsEntry.COLUMN_SETTLED_COUNT + " = 0 THEN ?1 ELSE MAX(" +
+                    StatsEntry.COLUMN_SETTLED_MAX_HIGH + ", ?1) END, " +
+                    StatsEntry.COLUMN_SETTLED_MIN_LOW + " = CASE WHEN " +
+                    StatsEntry.COLUMN_SETTLED_COUNT + " = 0 THEN ?2 ELSE MIN(" +
+                    StatsEntry.COLUMN_SETTLED_MIN_LOW + ", ?2) END, " +
+                    StatsEntry.COLUMN_SETTLED_HIGH_SUM + " = " +
+                    StatsEntry.COLUMN_SETTLED_HIGH_SUM + " + ?1, " +
+                    StatsEntry.COLUMN_SETTLED_LOW_SUM + " = " +
+                    StatsEntry.COLUMN_SETTLED_LOW_SUM + " + ?2, " +
+                    StatsEntry.COLUMN_SETTLED_COUNT + " = " +
+                    StatsEntry.COLUMN_SETTLED_COUNT + " + 1" +
+                    " WHERE " + StatsEntry.COLUMN_LOC_KEY + " = ?3 AND " +
+                    StatsEntry.COLUMN_BUCKET_TYPE + " = ?4 AND " +
+                    StatsEntry.COLUMN_BUCKET_START + " = ?5");
+            mSettleCondition = mDb.compileStatement("UPDATE " + StatsEntry.CONDITION_TABLE_NAME +
+                    " SET " + StatsEntry.COLUMN_SETTLED_COUNT + " = " +
+                    StatsEntry.COLUMN_SETTLED_COUNT + " + 1" +
+                    " WHERE " + StatsEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    StatsEntry.COLUMN_BUCKET_TYPE + " = ? AND " +
+                    StatsEntry.COLUMN_BUCKET_START + " = ? AND " +
+                    StatsEntry.COLUMN_WEATHER_ID + " = ?");
+        }
+
+        int julianDay = DateEngine.toJulianDay(date);
+        for (int bucketType : BUCKET_TYPES) {
+            long bucketStart = DateEngine.fromJulianDay(bucketStart(bucketType, julianDay));
+            ensureBucket(locationId, bucketType, bucketStart);
+            mSettleBucket.bindDouble(1, high);
+            mSettleBucket.bindDouble(2, low);
+            mSettleBucket.bindLong(3, locationId);
+            mSettleBucket.bindLong(4, bucketType);
+            mSettleBucket.bindLong(5, bucketStart);
+            mSettleBucket.executeUpdateDelete();
+
+            ensureCondition(locationId, bucketType, bucketStart, weatherId);
+            mSettleCondition.bindLong(1, locationId);
+            mSettleCondition.bindLong(2, bucketType);
+            mSettleCondition.bindLong(3, bucketStart);
+            mSettleCondition.bindLong(4, weatherId);
+            mSettleCondition.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Recomputes the live part of every dirty bucket from the weather table.
+     */
+    void refresh() {
+        for (String key : mDirtyBuckets) {
+            String[] parts = key.split(":");
+            long locationId = Long.parseLong(parts[0]);
+            int bucketType = Integer.parseInt(parts[1]);
+            int startJulianDay = Integer.parseInt(parts[2]);
+            refreshBucket(locationId, bucketType, startJulianDay);
+        }
+        mDirtyBuckets.clear();
+    }
+
+    private void refreshBucket(long locationId, int bucketType, int startJulianDay) {
+        long bucketStart = DateEngine.fromJulianDay(startJulianDay);
+        long nextBucketStart = DateEngine.fromJulianDay(
+                nextBucketStart(bucketType, startJulianDay));
+        String[] rangeArgs = new String[]{
+                Long.toString(locationId), Long.toString(bucketStart), Long.toString(nextBucketStart)
+        };
+        String rangeSelection = WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                WeatherEntry.COLUMN_DATE + " < ?";
+        String[] bucketArgs = new String[]{
+                Long.toString(locationId), Integer.toString(bucketType), Long.toString(bucketStart)
+        };
+
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME,
+                new String[]{
+                        "COUNT(*)",
+                        "SUM(" + WeatherEntry.COLUMN_MAX_TEMP + ")",
+                        "SUM(" + WeatherEntry.COLUMN_MIN_TEMP + ")",
+                        "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + ")",
+                        "MIN(" + WeatherEntry.COLUMN_MIN_TEMP + ")"
+                },
+                rangeSelection, rangeArgs, null, null, null);
+        try {
+            cursor.moveToFirst();
+            int count = cursor.getInt(0);
+            ensureBucket(locationId, bucketType, bucketStart);
+            ContentValues values = new ContentValues();
+            values.put(StatsEntry.COLUMN_LIVE_COUNT, count);
+            if (count > 0) {
+                values.put(StatsEntry.COLUMN_LIVE_HIGH_SUM, cursor.getDouble(1));
+                values.put(StatsEntry.COLUMN_LIVE_LOW_SUM, cursor.getDouble(2));
+                values.put(StatsEntry.COLUMN_LIVE_MAX_HIGH, cursor.getDouble(3));
+                values.put(StatsEntry.COLUMN_LIVE_MIN_LOW, cursor.getDouble(4));
+            } else {
+                values.put(StatsEntry.COLUMN_LIVE_HIGH_SUM, 0);
+                values.put(StatsEntry.COLUMN_LIVE_LOW_SUM, 0);
+                values.putNull(StatsEntry.COLUMN_LIVE_MAX_HIGH);
+                values.putNull(StatsEntry.COLUMN_LIVE_MIN_LOW);
+            }
+            mDb.update(StatsEntry.TABLE_NAME, values, sBucketSelection, bucketArgs);
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues reset = new ContentValues();
+        reset.put(StatsEntry.COLUMN_LIVE_COUNT, 0);
+        mDb.update(StatsEntry.CONDITION_TABLE_NAME, reset, sBucketSelection, bucketArgs);
+
+        cursor = mDb.query(WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_WEATHER_ID, "COUNT(*)"},
+                rangeSelection, rangeArgs, WeatherEntry.COLUMN_WEATHER_ID, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                int weatherId = cursor.getInt(0);
+                ensureCondition(locationId, bucketType, bucketStart, weatherId);
+                ContentValues values = new ContentValues();
+                values.put(StatsEntry.COLUMN_LIVE_COUNT, cursor.getInt(1));
+                mDb.update(StatsEntry.CONDITION_TABLE_NAME, values,
+                        sBucketSelection + " AND " + StatsEntry.COLUMN_WEATHER_ID + " = ?",
+                        new String[]{bucketArgs[0], bucketArgs[1], bucketArgs[2],
+                                Integer.toString(weatherId)});
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Buckets whose rows were all deleted outright don't need to be kept.
+        String emptySelection = sBucketSelection + " AND " +
+                StatsEntry.COLUMN_SETTLED_COUNT + " = 0 AND " +
+                StatsEntry.COLUMN_LIVE_COUNT + " = 0";
+        mDb.delete(StatsEntry.TABLE_NAME, emptySelection, bucketArgs);
+        mDb.delete(StatsEntry.CONDITION_TABLE_NAME, emptySelection, bucketArgs);
+    }
+
+    private void ensureBucket(long locationId, int bucketType, long bucketStart) {
+        if (mInsertBucket == null) {
+            // The unique constraint is ON CONFLICT IGNORE, so this is a no-op for existing rows.
+            mInsertBucket = mDb.compileStatement("INSERT INTO " + StatsEntry.TABLE_NAME + " (" +
+                    StatsEntry.COLUMN_LOC_KEY + ", " +
+                    StatsEntry.COLUMN_BUCKET_TYPE + ", " +
+                    StatsEntry.COLUMN_BUCKET_START + ") VALUES (?, ?, ?)");
+        }
+        mInsertBucket.bindLong(1, locationId);
+        mInsertBucket.bindLong(2, bucketType);
+        mInsertBucket.bindLong(3, bucketStart);
+        mInsertBucket.executeInsert();
+    }
+
+    private void ensureCondition(long locationId, int bucketType, long bucketStart, int weatherId) {
+        if (mInsertCondition == null) {
+            mInsertCondition = mDb.compileStatement("INSERT INTO " +
+                    StatsEntry.CONDITION_TABLE_NAME + " (" +
+                    StatsEntry.COLUMN_LOC_KEY + ", " +
+                    StatsEntry.COLUMN_BUCKET_TYPE + ", " +
+                    StatsEntry.COLUMN_BUCKET_START + ", " +
+                    StatsEntry.COLUMN_WEATHER_ID + ") VALUES (?, ?, ?, ?)");
+        }
+        mInsertCondition.bindLong(1, locationId);
+        mInsertCondition.bindLong(2, bucketType);
+        mInsertCondition.bindLong(3, bucketStart);
+        mInsertCondition.bindLong(4, weatherId);
+        mInsertCondition.executeInsert();
+    }
+
+    /**
+     * Releases the compiled statements.  The instance can't be used afterwards.
+     */
+    void close() {
+        if (mInsertBucket != null) mInsertBucket.close();
+        if (mSettleBucket != null) mSettleBucket.close();
+        if (mInsertCondition != null) mInsertCondition.close();
+        if (mSettleCondition != null) mSettleCondition.close();
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.SQLException;
+import android.os.RemoteException;
+
+import com.example.android.sunshine.app.data.ForecastStoreSink;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+
+/**
+ * Collects rows as ContentValues and stores them, along with the expiry, in a single batch.  Only
+ * used when the weather provider is not running in this process, so {@link
+ * com.example.android.sunshine.app.data.WeatherProvider#openWeatherSink()} can't be called.
+ */
+class ContentValuesRowSink implements ForecastStoreSink {
+
+    private final Context mContext;
+    private final ArrayList<ContentValues> mRows = new ArrayList<ContentValues>();
+    private ContentValues mRow;
+    private ContentProviderOperation mExpiry;
+
+    ContentValuesRowSink(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public void beginRow() {
+        mRow = new ContentValues();
+    }
+
+    @Override
+    public void locationId(long locationId) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+    }
+
+    @Override
+    public void date(long date) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+    }
+
+    @Override
+    public void weatherId(int weatherId) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+    }
+
+    @Override
+    public void shortDesc(String shortDesc) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, shortDesc);
+    }
+
+    @Override
+    public void min(double low) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+    }
+
+    @Override
+    public void max(double high) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+    }
+
+    @Override
+    public void humidity(double humidity) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+    }
+
+    @Override
+    public void pressure(double pressure) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+    }
+
+    @Override
+    public void windSpeed(double windSpeed) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+    }
+
+    @Override
+    public void degrees(double degrees) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, degrees);
+    }
+
+    @Override
+    public void endRow() {
+        mRows.add(mRow);
+        mRow = null;
+    }
+
+    @Override
+    public void expireThrough(long date) {
+        mExpiry = ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.ARCHIVE_ON_DELETE_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(date)})
+                .build();
+    }
+
+    @Override
+    public int commit() {
+        if (mRows.isEmpty()) return 0;
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(mRows.size() + 1);
+        for (ContentValues row : mRows) {
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(row)
+                    .build());
+        }
+        if (mExpiry != null) {
+            operations.add(mExpiry);
+        }
+        mRows.clear();
+
+        ContentProviderResult[] results;
+        try {
+            results = mContext.getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            throw new SQLException("Unable to apply the forecast batch", e);
+        }
+        int inserted = 0;
+        for (ContentProviderResult result : results) {
+            if (result.uri != null) inserted++;
+        }
+        return inserted;
+    }
+
+    @Override
+    public void close() {
+        mRows.clear();
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.android.sunshine.app.sync;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.support.v4.content.WakefulBroadcastReceiver;
+import android.util.Log;
+
+import com.example.android.sunshine.app.ForecastSnapshotFile;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.DateEngine;
+import com.example.android.sunshine.app.data.PackedForecast;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Applies a forecast change pushed through GCM to the stored forecast, so the server can update
+ * devices without each of them fetching the whole forecast again.  The push carries the location
+ * setting and the changed days, see {@link ForecastJsonParser#parseDelta}.
+ * <p>
+ * Changes to locations that aren't stored are ignored.  If the preferred location changed, the
+ * widgets, Muzei, the wearable and the forecast snapshot are refreshed, as after a sync.
+ */
+public class ForecastDeltaService extends IntentService {
+    private static final String LOG_TAG = ForecastDeltaService.class.getSimpleName();
+
+    public static final String EXTRA_LOCATION = "location";
+    public static final String EXTRA_DELTA = "forecast_delta";
+
+    private WearableUpdater mWearableUpdater;
+
+    public ForecastDeltaService() {
+        super(LOG_TAG);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mWearableUpdater = new WearableUpdater(this);
+    }
+
+    @Override
+    public void onDestroy() {
+        mWearableUpdater.disconnect();
+        super.onDestroy();
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        try {
+            applyDelta(intent);
+        } finally {
+            // Pushes are handed over under a wake lock, see GcmMessageService.
+            WakefulBroadcastReceiver.completeWakefulIntent(intent);
+        }
+    }
+
+    private void applyDelta(Intent intent) {
+        String locationSetting = intent.getStringExtra(EXTRA_LOCATION);
+        String delta = intent.getStringExtra(EXTRA_DELTA);
+        if (locationSetting == null || delta == null) {
+            Log.w(LOG_TAG, "Forecast change without a location or days");
+            return;
+        }
+        long locationId = findLocation(locationSetting);
+        if (locationId < 0) {
+            Log.d(LOG_TAG, "Ignoring a forecast change for " + locationSetting);
+            return;
+        }
+
+        int updated;
+        ForecastDeltaSink sink = new ForecastDeltaSink(this,
+                DateEngine.toJulianDay(System.currentTimeMillis()));
+        try {
+            ForecastJsonParser.parseDelta(
+                    new ByteArrayInputStream(delta.getBytes(StandardCharsets.UTF_8)),
+                    locationId, sink);
+            updated = sink.commit();
+        } catch (IOException | JSONException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Rejected a forecast change for " + locationSetting, e);
+            return;
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Unable to store a forecast change", e);
+            return;
+        } finally {
+            sink.close();
+        }
+        Log.d(LOG_TAG, "Forecast change applied to " + updated + " days of " + locationSetting);
+
+        if (updated > 0 && locationSetting.equals(Utility.getPreferredLocation(this))) {
+            PackedForecast forecast = PackedForecast.load(getContentResolver(),
+                    locationSetting, System.currentTimeMillis(), null);
+            if (forecast != null && forecast.hasStartDay()) {
+                mWearableUpdater.update(forecast);
+            }
+            SunshineSyncAdapter.updateWidgets(this);
+            SunshineSyncAdapter.updateMuzei(this);
+            ForecastSnapshotFile.update(this);
+        }
+    }
+
+    /**
+     * @return the location's row ID, or -1 if it isn't stored.
+     */
+    private long findLocation(String locationSetting) {
+        Cursor cursor = getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
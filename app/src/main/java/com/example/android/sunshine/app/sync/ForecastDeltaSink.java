@@ -0,0 +1,155 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.SQLException;
+import android.os.RemoteException;
+
+import com.example.android.sunshine.app.data.DateEngine;
+import com.example.android.sunshine.app.data.ForecastRowSink;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+
+/**
+ * Collects the days of a pushed forecast change, see {@link ForecastJsonParser#parseDelta}, and
+ * updates the stored days with them in a single batch.  Only the values a day carries are
+ * written, and days that aren't stored are left alone rather than inserted half empty.
+ * <p>
+ * Values no forecast could have throw an IllegalArgumentException as they are set, so a bad
+ * push is rejected as a whole.  Days outside the stored forecast, for example ones that passed
+ * while the push was in flight, are dropped.
+ */
+class ForecastDeltaSink implements ForecastRowSink {
+
+    // How many days a sync stores, from today on.
+    private static final int FORECAST_DAYS = 14;
+
+    private final Context mContext;
+    private final long mFirstDate;
+    private final long mLastDate;
+    private final ArrayList<ContentProviderOperation> mUpdates =
+            new ArrayList<ContentProviderOperation>();
+    private ContentValues mRow;
+    private long mLocationId;
+    private long mDate;
+
+    ForecastDeltaSink(Context context, int julianStartDay) {
+        mContext = context;
+        mFirstDate = DateEngine.fromJulianDay(julianStartDay);
+        mLastDate = DateEngine.fromJulianDay(julianStartDay + FORECAST_DAYS - 1);
+    }
+
+    private static double check(String name, double value, double min, double max) {
+        if (!(value >= min && value <= max)) {
+            throw new IllegalArgumentException(name + " out of range: " + value);
+        }
+        return value;
+    }
+
+    @Override
+    public void beginRow() {
+        mRow = new ContentValues();
+    }
+
+    @Override
+    public void locationId(long locationId) {
+        mLocationId = locationId;
+    }
+
+    @Override
+    public void date(long date) {
+        mDate = date;
+    }
+
+    @Override
+    public void weatherId(int weatherId) {
+        check("Weather id", weatherId, 200, 999);
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+    }
+
+    @Override
+    public void shortDesc(String shortDesc) {
+        if (shortDesc == null || shortDesc.isEmpty()) {
+            throw new IllegalArgumentException("Empty description");
+        }
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, shortDesc);
+    }
+
+    @Override
+    public void min(double low) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, check("Low", low, -100, 70));
+    }
+
+    @Override
+    public void max(double high) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, check("High", high, -100, 70));
+    }
+
+    @Override
+    public void humidity(double humidity) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                check("Humidity", humidity, 0, 100));
+    }
+
+    @Override
+    public void pressure(double pressure) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                check("Pressure", pressure, 0, 1200));
+    }
+
+    @Override
+    public void windSpeed(double windSpeed) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                check("Wind speed", windSpeed, 0, 150));
+    }
+
+    @Override
+    public void degrees(double degrees) {
+        mRow.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, check("Degrees", degrees, 0, 360));
+    }
+
+    @Override
+    public void endRow() {
+        if (mDate >= mFirstDate && mDate <= mLastDate) {
+            mUpdates.add(ContentProviderOperation
+                    .newUpdate(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                                    + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                            new String[]{Long.toString(mLocationId), Long.toString(mDate)})
+                    .withValues(mRow)
+                    .build());
+        }
+        mRow = null;
+    }
+
+    /**
+     * @return the number of stored days that were updated.
+     */
+    @Override
+    public int commit() {
+        if (mUpdates.isEmpty()) return 0;
+        ContentProviderResult[] results;
+        try {
+            results = mContext.getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, mUpdates);
+        } catch (RemoteException | OperationApplicationException e) {
+            throw new SQLException("Unable to apply the forecast change", e);
+        } finally {
+            mUpdates.clear();
+        }
+        int updated = 0;
+        for (ContentProviderResult result : results) {
+            if (result.count != null) updated += result.count;
+        }
+        return updated;
+    }
+
+    @Override
+    public void close() {
+        mUpdates.clear();
+    }
+}
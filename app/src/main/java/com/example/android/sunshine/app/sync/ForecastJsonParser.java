@@ -0,0 +1,340 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.DateEngine;
+import com.example.android.sunshine.app.data.ForecastRowSink;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Reads an OpenWeatherMap daily forecast straight off a stream and hands each day to a
+ * {@link ForecastRowSink} as the values are read.  Nothing is buffered beyond the reader's own
+ * char buffer, so a forecast goes from the socket to the sink without building a JSONObject,
+ * ContentValues or any other per-day object.
+ * <p>
+ * OWM sends "cod" and "city" before "list", which the parser relies on: the location has to be
+ * known before the first row is written.
+ */
+public final class ForecastJsonParser {
+
+    /**
+     * Called while parsing, before any rows are written.
+     */
+    public interface Callbacks {
+        /**
+         * @param code OWM's "cod", which mirrors the HTTP status.
+         * @return false to stop parsing, e.g. because the location wasn't found.
+         */
+        boolean onResponseCode(int code);
+
+        /**
+         * @return the row ID of the location the forecast rows belong to.
+         */
+        long onCity(String cityName, double lat, double lon);
+    }
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Only read from pushed changes, see parseDelta().
+    private static final String OWM_DATE = "dt";
+
+    // Fields seen in a day, so a missing one is reported like JSONObject.getXxx() would.
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WINDSPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int FIELDS_REQUIRED = (1 << 8) - 1;
+    private static final int FIELD_DATE = 1 << 8;
+
+    private static final int NO_LOCATION = -1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Parses the forecast and writes one row per day to the sink.  The rows are not committed.
+     *
+     * @param julianStartDay the Julian day of the first day in the list.  OWM returns daily
+     *                       forecasts in order starting with the current day in the city's own
+     *                       time, so the dates are taken from the local day instead.
+     * @return the number of rows written, or -1 if {@link Callbacks#onResponseCode} stopped the
+     * parse.
+     * @throws JSONException if the forecast isn't in the expected format.
+     * @throws IOException if the stream couldn't be read.
+     */
+    public static int parse(InputStream in, int julianStartDay, Callbacks callbacks,
+                            ForecastRowSink sink) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readForecast(reader, julianStartDay, callbacks, sink);
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException e) {
+            // JsonReader throws this when a value has an unexpected type.
+            throw new JSONException(e.getMessage());
+        } catch (NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    /**
+     * Parses a pushed change to a stored forecast: an array of days in the same format as the
+     * forecast's "list", each with its "dt" and only the values that changed.  Each day is
+     * written to the sink as a row holding just those values, so the sink has to update rows
+     * rather than insert them.  The rows are not committed.
+     *
+     * @return the number of rows written.
+     * @throws JSONException if a day has no date, nothing else, or a weather id without a
+     * description or the other way round.
+     * @throws IOException if the stream couldn't be read.
+     */
+    public static int parseDelta(InputStream in, long locationId, ForecastRowSink sink)
+            throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            int rowCount = 0;
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readDay(reader, locationId, NO_DATE, sink);
+                rowCount++;
+            }
+            reader.endArray();
+            return rowCount;
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new JSONException(e.getMessage());
+        } catch (NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    private static int readForecast(JsonReader reader, int julianStartDay, Callbacks callbacks,
+                                    ForecastRowSink sink) throws IOException, JSONException {
+        long locationId = NO_LOCATION;
+        int rowCount = 0;
+        boolean hasList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                if (!callbacks.onResponseCode(reader.nextInt())) {
+                    return -1;
+                }
+            } else if (OWM_CITY.equals(name)) {
+                locationId = readCity(reader, callbacks);
+            } else if (OWM_LIST.equals(name)) {
+                if (locationId == NO_LOCATION) {
+                    throw new JSONException("Forecast list found before the city");
+                }
+                rowCount = readList(reader, julianStartDay, locationId, sink);
+                hasList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (locationId == NO_LOCATION) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        if (!hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        return rowCount;
+    }
+
+    private static long readCity(JsonReader reader, Callbacks callbacks)
+            throws IOException, JSONException {
+        String cityName = null;
+        double cityLatitude = 0;
+        double cityLongitude = 0;
+        boolean hasCoord = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                int seen = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        cityLatitude = reader.nextDouble();
+                        seen |= 1;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        cityLongitude = reader.nextDouble();
+                        seen |= 2;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                hasCoord = seen == 3;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || !hasCoord) {
+            throw new JSONException("Incomplete value for " + OWM_CITY);
+        }
+        return callbacks.onCity(cityName, cityLatitude, cityLongitude);
+    }
+
+    private static int readList(JsonReader reader, int julianStartDay, long locationId,
+                                ForecastRowSink sink) throws IOException, JSONException {
+        int day = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readDay(reader, locationId, DateEngine.fromJulianDay(julianStartDay + day), sink);
+            day++;
+        }
+        reader.endArray();
+        return day;
+    }
+
+    /*
+        With NO_DATE the day is a pushed change: the date is read from the day itself, and any
+        of the other values may be missing.
+     */
+    private static void readDay(JsonReader reader, long locationId, long date,
+                                ForecastRowSink sink) throws IOException, JSONException {
+        boolean partial = date == NO_DATE;
+        int seen = 0;
+
+        sink.beginRow();
+        sink.locationId(locationId);
+        if (!partial) {
+            sink.date(date);
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (partial && OWM_DATE.equals(name)) {
+                date = DateEngine.normalizeDate(reader.nextLong() * 1000);
+                sink.date(date);
+                seen |= FIELD_DATE;
+            } else if (OWM_PRESSURE.equals(name)) {
+                sink.pressure(reader.nextDouble());
+                seen |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                sink.humidity(reader.nextDouble());
+                seen |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                sink.windSpeed(reader.nextDouble());
+                seen |= FIELD_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                sink.degrees(reader.nextDouble());
+                seen |= FIELD_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        sink.max(reader.nextDouble());
+                        seen |= FIELD_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        sink.min(reader.nextDouble());
+                        seen |= FIELD_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    seen |= readCondition(reader, sink);
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (partial) {
+            if ((seen & FIELD_DATE) == 0 || seen == FIELD_DATE) {
+                throw new JSONException("Forecast change without a date or values");
+            }
+            if (((seen & FIELD_WEATHER_ID) == 0) != ((seen & FIELD_DESCRIPTION) == 0)) {
+                throw new JSONException("Weather id and description changed apart for " + date);
+            }
+        } else if (seen != FIELDS_REQUIRED) {
+            throw new JSONException("Incomplete forecast for " + date);
+        }
+        sink.endRow();
+    }
+
+    private static int readCondition(JsonReader reader, ForecastRowSink sink)
+            throws IOException {
+        int seen = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name)) {
+                sink.shortDesc(reader.nextString());
+                seen |= FIELD_DESCRIPTION;
+            } else if (OWM_WEATHER_ID.equals(name)) {
+                sink.weatherId(reader.nextInt());
+                seen |= FIELD_WEATHER_ID;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return seen;
+    }
+}
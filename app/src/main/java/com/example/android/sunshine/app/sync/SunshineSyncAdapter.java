@@ -5,6 +5,7 @@ import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
+import android.content.ContentProvider;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
 import android.content.ContentUris;
@@ -16,6 +17,7 @@ import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
@@ -26,49 +28,37 @@ import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.NotificationManagerCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.ArtPackCache;
+import com.example.android.sunshine.app.ForecastSnapshotFile;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.DateEngine;
+import com.example.android.sunshine.app.data.ForecastRowSink;
+import com.example.android.sunshine.app.data.ForecastStoreSink;
+import com.example.android.sunshine.app.data.PackedForecast;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.DataItemBuffer;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
-
-import org.json.JSONArray;
+
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Vector;
+import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
 
-    private static final String SUNSHINE_HIGH_TEMP = "weather-high";
-    private static final String SUNSHINE_LOW_TEMP = "weather-low";
-    private static final String SUNSHINE_ICON = "weather-icon";
-    private static final String SUNSHINE_DATA_PATH = "/sunshine-weather-data";
-
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
     // Interval at which to sync with the weather, in seconds.
@@ -78,28 +68,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    // Construct the URL for the OpenWeatherMap query
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    private static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    private static volatile String sForecastBaseUrl = FORECAST_BASE_URL;
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    private static final BitmapFactory.Options mBitmapFactoryOptions = new BitmapFactory.Options();
-
-    {
-        mBitmapFactoryOptions.outHeight = 20;
-        mBitmapFactoryOptions.outWidth = 20;
-    }
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    private final WearableUpdater mWearableUpdater;
 
-    private final GoogleApiClient mGoogleApiClient;
+    // How long each stage of the last sync took, indexed by SyncStatusStore.SyncStage.
+    private final long[] mStageNanos = new long[SyncStatusStore.STAGE_COUNT];
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -114,59 +93,32 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
 
-        mGoogleApiClient = new GoogleApiClient.Builder(context)
-                .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-                    @Override
-                    public void onConnected(Bundle bundle) {
-                        Log.i(LOG_TAG, "GoogleApiClient.onConnected() called");
-                    }
-                    @Override
-                    public void onConnectionSuspended(int i) {
-                        Log.i(LOG_TAG, "GoogleApiClient.onConnectionSuspended() called");
-                    }})
-                .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
-                    @Override
-                    public void onConnectionFailed(ConnectionResult connectionResult) {
-                        Log.e(LOG_TAG, "GoogleApiClient.onConnectionFailed() called");
-                    }
-                })
-                .addApi(Wearable.API)
-                .build();
-
-        Log.d(LOG_TAG, "Calling mGoogleApiClient.connect()");
-        mGoogleApiClient.connect();
-
+        mWearableUpdater = new WearableUpdater(context);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.i(LOG_TAG, "Starting sync");
+        Arrays.fill(mStageNanos, 0);
         String locationQuery = Utility.getPreferredLocation(getContext());
+        SyncRequestBroker broker = SyncRequestBroker.getInstance(getContext());
+        broker.onSyncStarted(locationQuery);
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        WeatherHttpClient.Download download = null;
 
         String format = "json";
         String units = "metric";
         int numDays = 14;
 
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
             final String QUERY_PARAM = "q";
             final String FORMAT_PARAM = "mode";
             final String UNITS_PARAM = "units";
             final String DAYS_PARAM = "cnt";
 
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+            Uri builtUri = Uri.parse(sForecastBaseUrl).buildUpon()
                     .appendQueryParameter(QUERY_PARAM, locationQuery)
                     .appendQueryParameter(FORMAT_PARAM, format)
                     .appendQueryParameter(UNITS_PARAM, units)
@@ -176,296 +128,188 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             URL url = new URL(builtUri.toString());
 
             // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            long start = System.nanoTime();
+            download = WeatherHttpClient.getInstance().get(url);
+            mStageNanos[SyncStatusStore.STAGE_DOWNLOAD] = System.nanoTime() - start;
+
+            // The forecast is decompressed and parsed as it arrives.  The checksum of the
+            // decompressed bytes is kept as the payload hash.
+            CheckedInputStream forecastStream = new CheckedInputStream(
+                    download.getBody(), new CRC32());
+            getWeatherDataFromJson(forecastStream, locationQuery, provider);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            SyncStatusStore store = SyncStatusStore.getInstance(getContext());
+            store.recordStageError(SyncStatusStore.STAGE_DOWNLOAD, e.toString());
+            store.setLocationStatus(LOCATION_STATUS_SERVER_DOWN);
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            SyncStatusStore store = SyncStatusStore.getInstance(getContext());
+            store.recordStageError(SyncStatusStore.STAGE_PARSE, e.toString());
+            store.setLocationStatus(LOCATION_STATUS_SERVER_INVALID);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+            if (download != null) {
+                // Closing reads what the parser left, so count after it.
+                download.close();
+                Log.d(LOG_TAG, "Downloaded " + download.getCompressedBytes() + " bytes, "
+                        + download.getUncompressedBytes() + " decompressed");
+                SyncStatusStore.getInstance(getContext()).recordTransfer(
+                        download.getCompressedBytes(), download.getUncompressedBytes());
             }
+            broker.onSyncFinished();
         }
         return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Parse the forecast as it is read from the stream, then store it.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Each day is handed to a {@link ForecastRowSink} as soon as it has been read.  The sink
+     * only buffers the rows, and writes them in one transaction on commit, once the whole body
+     * has been parsed, so a slow download holds no transaction open.  In-process the rows are
+     * kept in primitive arrays and bound into the provider's insert statement, so no JSONObject
+     * or ContentValues is built along the way.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        Log.i(LOG_TAG, "getWeatherDataFromJson() called. forecastJsonStr=" + forecastJsonStr +
-            " locationSetting=" + locationSetting);
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+    private void getWeatherDataFromJson(CheckedInputStream forecastStream,
+                                        final String locationSetting,
+                                        ContentProviderClient provider)
+            throws IOException, JSONException {
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+        Log.i(LOG_TAG, "getWeatherDataFromJson() called. locationSetting=" + locationSetting);
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        final SyncStatusStore store = SyncStatusStore.getInstance(getContext());
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
 
-        final String OWM_MESSAGE_CODE = "cod";
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = DateEngine.toJulianDay(System.currentTimeMillis());
 
+        int inserted;
+        long start = System.nanoTime();
+        ForecastStoreSink sink = openWeatherSink(provider);
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+            inserted = ForecastJsonParser.parse(forecastStream, julianStartDay,
+                    new ForecastJsonParser.Callbacks() {
+                        @Override
+                        public boolean onResponseCode(int errorCode) {
+                            switch (errorCode) {
+                                case HttpURLConnection.HTTP_OK:
+                                    return true;
+                                case HttpURLConnection.HTTP_NOT_FOUND:
+                                    store.setLocationStatus(LOCATION_STATUS_INVALID);
+                                    return false;
+                                default:
+                                    store.setLocationStatus(LOCATION_STATUS_SERVER_DOWN);
+                                    return false;
+                            }
+                        }
+
+                        @Override
+                        public long onCity(String cityName, double lat, double lon) {
+                            return addLocation(locationSetting, cityName, lat, lon);
+                        }
+                    }, sink);
+            mStageNanos[SyncStatusStore.STAGE_PARSE] = System.nanoTime() - start;
+            start = System.nanoTime();
+            if (inserted < 0) {
+                // The response code already set the location status.
+                return;
             }
-
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-
-                if (i == 0) {
-
-                    PutDataMapRequest putDataMapRequest =
-                            PutDataMapRequest.create(SUNSHINE_DATA_PATH);
-
-                    putDataMapRequest.getDataMap().putString(SUNSHINE_HIGH_TEMP,
-                            Utility.formatTemperature(getContext(), high));
-
-                    putDataMapRequest.getDataMap().putString(SUNSHINE_LOW_TEMP,
-                            Utility.formatTemperature(getContext(), low));
-
-                    int weatherIconResource = Utility.getArtResourceForWeatherCondition(weatherId);
-                    Bitmap bitmap = BitmapFactory.decodeResource(
-                            getContext().getResources(),weatherIconResource, mBitmapFactoryOptions);
-
-                    ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-                    bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-                    Asset asset = Asset.createFromBytes(byteStream.toByteArray());
-
-                    if (asset != null)
-                    putDataMapRequest.getDataMap().putAsset(SUNSHINE_ICON,asset);
-
-                    PutDataRequest request = putDataMapRequest.asPutDataRequest();
-
-                    Wearable.DataApi.putDataItem(mGoogleApiClient, request)
-                            .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-
-                                @Override
-                                public void onResult(DataApi.DataItemResult dataItemResult) {
-
-                                    if (dataItemResult.getStatus().isSuccess()) {
-                                        Log.i(LOG_TAG, "Weather Data sent to wearable");
-                                    } else {
-                                        Log.e(LOG_TAG, "Failed to send weather data to wearable");
-                                    }
-                                }
-
-                            });
-
-                }
+            if (inserted > 0) {
+                // move old data into the archive so the live table stays small
+                sink.expireThrough(DateEngine.fromJulianDay(julianStartDay - 1));
             }
+            inserted = sink.commit();
+            mStageNanos[SyncStatusStore.STAGE_STORE] = System.nanoTime() - start;
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Unable to store the forecast", e);
+            store.recordStageError(SyncStatusStore.STAGE_STORE, e.toString());
+            // Mostly a day missing a field, which the table's constraints reject.
+            store.setLocationStatus(LOCATION_STATUS_SERVER_INVALID);
+            return;
+        } finally {
+            sink.close();
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+        start = System.nanoTime();
+        if ( inserted > 0 ) {
+            PackedForecast forecast = PackedForecast.load(getContext().getContentResolver(),
+                    locationSetting, System.currentTimeMillis(), null);
+            if (forecast != null && forecast.hasStartDay()) {
+                mWearableUpdater.update(forecast);
+                notifyWeather(forecast);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            updateWidgets(getContext());
+            updateMuzei(getContext());
+            ForecastSnapshotFile.update(getContext());
+        }
+        mStageNanos[SyncStatusStore.STAGE_NOTIFY] = System.nanoTime() - start;
+        Log.d(LOG_TAG, "Sync Complete. " + inserted + " Inserted");
+        store.recordSyncSuccess(System.currentTimeMillis(), forecastStream.getChecksum().getValue());
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * Points syncs at another server than OpenWeatherMap, for example a local stand-in in tests.
+     *
+     * @param baseUrl the URL the query parameters are appended to, or null for OpenWeatherMap.
+     */
+    static void setForecastBaseUrl(String baseUrl) {
+        sForecastBaseUrl = baseUrl != null ? baseUrl : FORECAST_BASE_URL;
+    }
+
+    /**
+     * @return how long each stage of the last sync took in nanoseconds, indexed by
+     * {@link SyncStatusStore.SyncStage}.  The body is parsed as it downloads, so the download
+     * stage only covers the request up to the response headers, and the parse stage includes
+     * reading the body and handing the rows to the sink.  Stages the sync didn't get to are 0.
+     */
+    long[] getLastStageNanos() {
+        return mStageNanos.clone();
+    }
+
+    /**
+     * @return a sink writing directly into the weather provider when it runs in this process,
+     * otherwise one that goes through applyBatch.  Either way the sync is stored as one
+     * transaction.
+     */
+    private ForecastStoreSink openWeatherSink(ContentProviderClient provider) {
+        ContentProvider localProvider = provider.getLocalContentProvider();
+        if (localProvider instanceof WeatherProvider) {
+            return ((WeatherProvider) localProvider).openWeatherSink();
         }
-}
+        return new ContentValuesRowSink(getContext());
+    }
 
-    private void updateWidgets() {
-        Context context = getContext();
+    static void updateWidgets(Context context) {
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
                 .setPackage(context.getPackageName());
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    static void updateMuzei(Context context) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
             context.startService(new Intent(ACTION_DATA_UPDATED)
                     .setClass(context, WeatherMuzeiSource.class));
         }
     }
 
-    private void notifyWeather() {
+    /**
+     * Shows today's forecast, the first day of {@code forecast}, if notifications are enabled
+     * and none was shown in the last day.
+     */
+    private void notifyWeather(PackedForecast forecast) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -475,42 +319,36 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
         if ( displayNotifications ) {
 
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
+            SyncStatusStore store = SyncStatusStore.getInstance(context);
+            long lastSync = store.getStatus().getLastNotificationTime();
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
+                int weatherId = forecast.getWeatherId(0);
+                double high = forecast.getHigh(0);
+                double low = forecast.getLow(0);
+                String desc = forecast.getDescription(0);
+
+                int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+                Resources resources = context.getResources();
+                int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+                String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+                // On Honeycomb and higher devices, we can retrieve the size of the large icon
+                // Prior to that, we use a fixed size
+                @SuppressLint("InlinedApi")
+                int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+                @SuppressLint("InlinedApi")
+                int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+                // Retrieve the large icon, from disk if the art pack has been stored
+                Bitmap largeIcon = ArtPackCache.getInstance(context)
+                        .getArtForWeatherCondition(weatherId, ArtPackCache.SIZE_NOTIFICATION);
+                if (largeIcon == null) {
                     try {
                         largeIcon = Glide.with(context)
                                 .load(artUrl)
@@ -522,56 +360,53 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                         Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
                         largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                     }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-//                    NotificationManager mNotificationManager =
-//                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-
-                    NotificationManagerCompat mNotificationManager =
-                            NotificationManagerCompat.from(context);
-
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
                 }
-                cursor.close();
+                String title = context.getString(R.string.app_name);
+
+                // Define the text of the forecast.
+                String contentText = String.format(context.getString(R.string.format_notification),
+                        desc,
+                        Utility.formatTemperature(context, high),
+                        Utility.formatTemperature(context, low));
+
+                // NotificationCompatBuilder is a very convenient way to build backward-compatible
+                // notifications.  Just throw in some data.
+                NotificationCompat.Builder mBuilder =
+                        new NotificationCompat.Builder(getContext())
+                                .setColor(resources.getColor(R.color.primary_light))
+                                .setSmallIcon(iconId)
+                                .setLargeIcon(largeIcon)
+                                .setContentTitle(title)
+                                .setContentText(contentText);
+
+                // Make something interesting happen when the user clicks on the notification.
+                // In this case, opening the app is sufficient.
+                Intent resultIntent = new Intent(context, MainActivity.class);
+
+                // The stack builder object will contain an artificial back stack for the
+                // started Activity.
+                // This ensures that navigating backward from the Activity leads out of
+                // your application to the Home screen.
+                TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+                stackBuilder.addNextIntent(resultIntent);
+                PendingIntent resultPendingIntent =
+                        stackBuilder.getPendingIntent(
+                                0,
+                                PendingIntent.FLAG_UPDATE_CURRENT
+                        );
+                mBuilder.setContentIntent(resultPendingIntent);
+
+//                NotificationManager mNotificationManager =
+//                        (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
+
+                NotificationManagerCompat mNotificationManager =
+                        NotificationManagerCompat.from(context);
+
+                // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+                mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+
+                //refreshing last sync
+                store.setLastNotificationTime(System.currentTimeMillis());
             }
         }
     }
@@ -630,7 +465,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * Helper method to schedule the sync adapter periodic execution
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
-        Account account = getSyncAccount(context);
+        configurePeriodicSync(context, getSyncAccount(context), syncInterval, flexTime);
+    }
+
+    private static void configurePeriodicSync(Context context, Account account,
+                                              int syncInterval, int flexTime) {
         String authority = context.getString(R.string.content_authority);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             // we can enable inexact timers in our periodic sync
@@ -646,26 +485,31 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync soon.  Goes through {@link SyncRequestBroker},
+     * so a sync that is running, pending or just done isn't repeated.
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
-        Bundle bundle = new Bundle();
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+        SyncRequestBroker.getInstance(context).requestSync();
     }
 
     /**
-     * Helper method to get the fake account to be used with SyncAdapter, or make a new one
-     * if the fake account doesn't exist yet.  If we make a new account, we call the
-     * onAccountCreated method so we can initialize things.
+     * Helper method to get the fake account to be used with SyncAdapter.  The account is
+     * looked up once per process by {@link SyncRequestBroker}.
      *
      * @param context The context used to access the account service
      * @return a fake account.
      */
     public static Account getSyncAccount(Context context) {
+        return SyncRequestBroker.getInstance(context).getAccount();
+    }
+
+    /**
+     * Gets the fake account from the account manager, or makes a new one if the fake account
+     * doesn't exist yet.  If we make a new account, we call the onAccountCreated method so we
+     * can initialize things.
+     */
+    static Account lookUpSyncAccount(Context context) {
         // Get an instance of the Android account manager
         AccountManager accountManager =
                 (AccountManager) context.getSystemService(Context.ACCOUNT_SERVICE);
@@ -700,7 +544,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        SunshineSyncAdapter.configurePeriodicSync(context, newAccount,
+                SYNC_INTERVAL, SYNC_FLEXTIME);
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -716,17 +561,4 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
     }
-
-    /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     * @param c Context to get the PreferenceManager from.
-     * @param locationStatus The IntDef value to set
-     */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
-    }
 }
\ No newline at end of file
@@ -0,0 +1,272 @@
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The one way to ask for a sync outside the periodic schedule.  Requests are cheap to make:
+ * <ul>
+ * <li>The sync account is looked up in the {@link AccountManager} once, and kept for as long
+ * as it exists.  If it was removed, or the system refused a request for it, it is looked up
+ * again, which creates it anew.</li>
+ * <li>Requests arriving within {@link #COALESCE_WINDOW_MS} of each other are merged into one,
+ * which is handled off the main thread.</li>
+ * <li>If a sync of the preferred location is running, or one is pending, the request joins it
+ * instead of queuing another.</li>
+ * <li>If a sync of the preferred location succeeded less than {@link #FRESH_MS} ago, nothing is
+ * downloaded again.  A location change resets the location status, so it always syncs.</li>
+ * </ul>
+ * Callers learn of the outcome from {@link SyncStatusStore}, whichever sync it came from.
+ */
+public class SyncRequestBroker {
+    private static final String LOG_TAG = SyncRequestBroker.class.getSimpleName();
+
+    static final long COALESCE_WINDOW_MS = 1000;
+    static final long FRESH_MS = 15 * 60 * 1000;
+
+    /**
+     * What the broker asks of the system, so tests can stand in for it.
+     */
+    interface SyncDispatcher {
+        /**
+         * @return the sync account, created if need be, or null if it couldn't be.  Blocks.
+         */
+        Account findAccount();
+
+        /**
+         * @return whether {@code account} still exists.  Blocks, but is cheaper than
+         * {@link #findAccount()}.
+         */
+        boolean hasAccount(Account account);
+
+        boolean isSyncPending(Account account);
+
+        void requestSync(Account account);
+    }
+
+    private static volatile SyncRequestBroker sInstance;
+
+    private final Context mContext;
+    private final SyncDispatcher mDispatcher;
+    private final long mCoalesceWindowMs;
+
+    private volatile Account mAccount;
+
+    // The location of the sync running now, and of the last one to finish.
+    private volatile String mInFlightLocation;
+    private volatile String mSyncedLocation;
+
+    private final AtomicBoolean mDispatchScheduled = new AtomicBoolean(false);
+    private final AtomicInteger mPendingRequests = new AtomicInteger();
+    private final ScheduledExecutorService mDispatchExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private final AtomicLong mRequested = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+    private final AtomicLong mExecuted = new AtomicLong();
+
+    public static SyncRequestBroker getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (SyncRequestBroker.class) {
+                if (sInstance == null) {
+                    Context appContext = context.getApplicationContext();
+                    sInstance = new SyncRequestBroker(appContext,
+                            new ContentResolverDispatcher(appContext), COALESCE_WINDOW_MS);
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    SyncRequestBroker(Context context, SyncDispatcher dispatcher, long coalesceWindowMs) {
+        mContext = context;
+        mDispatcher = dispatcher;
+        mCoalesceWindowMs = coalesceWindowMs;
+    }
+
+    /**
+     * @return the sync account, or null if it couldn't be created.  Only the first call after
+     * the account was forgotten looks it up, so don't make that one on the main thread if it
+     * can be helped.
+     */
+    public Account getAccount() {
+        Account account = mAccount;
+        if (account == null) {
+            synchronized (this) {
+                account = mAccount;
+                if (account == null) {
+                    account = mDispatcher.findAccount();
+                    mAccount = account;
+                }
+            }
+        }
+        return account;
+    }
+
+    /*
+        Drops the cached account, unless another thread already replaced it.
+     */
+    private synchronized void forgetAccount(Account account) {
+        if (mAccount == account) {
+            mAccount = null;
+        }
+    }
+
+    /**
+     * Asks for the forecast of the preferred location to be brought up to date.  Returns
+     * straight away, the sync, if one is needed, is requested a moment later.
+     */
+    public void requestSync() {
+        mRequested.incrementAndGet();
+        mPendingRequests.incrementAndGet();
+        if (!mDispatchScheduled.compareAndSet(false, true)) {
+            // A dispatch is already scheduled, this request goes with it.
+            return;
+        }
+        mDispatchExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, mCoalesceWindowMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatch() {
+        mDispatchScheduled.set(false);
+        int requests = mPendingRequests.getAndSet(0);
+        if (requests == 0) {
+            return;
+        }
+        Account account = getAccount();
+        if (account != null && !mDispatcher.hasAccount(account)) {
+            // Removed since it was looked up, from the system settings for instance.
+            Log.w(LOG_TAG, "The sync account was removed, looking it up again");
+            forgetAccount(account);
+            account = getAccount();
+        }
+        if (account == null) {
+            Log.e(LOG_TAG, "No sync account, dropped " + requests + " sync requests");
+            return;
+        }
+
+        String location = Utility.getPreferredLocation(mContext);
+        String inFlightLocation = mInFlightLocation;
+        try {
+            if (location.equals(inFlightLocation)) {
+                Log.d(LOG_TAG, "Joined the running sync of " + location);
+            } else if (inFlightLocation == null && mDispatcher.isSyncPending(account)) {
+                // A pending sync reads the location when it starts.
+                Log.d(LOG_TAG, "Joined the pending sync");
+            } else if (inFlightLocation == null && isFresh(location)) {
+                Log.d(LOG_TAG, "The forecast of " + location + " is fresh, not syncing");
+            } else {
+                mDispatcher.requestSync(account);
+                mExecuted.incrementAndGet();
+                requests--;
+            }
+        } catch (RuntimeException e) {
+            // The system rejects requests for an account it doesn't know any more.
+            Log.e(LOG_TAG, "Unable to request a sync, dropped " + requests + " sync requests", e);
+            forgetAccount(account);
+            return;
+        }
+        mCoalesced.addAndGet(requests);
+    }
+
+    private boolean isFresh(String location) {
+        SyncStatusStore.Status status = SyncStatusStore.getInstance(mContext).getStatus();
+        long age = System.currentTimeMillis() - status.getLastSyncTime();
+        return location.equals(mSyncedLocation)
+                && status.getLocationStatus() == SunshineSyncAdapter.LOCATION_STATUS_OK
+                && age >= 0 && age < FRESH_MS;
+    }
+
+    /**
+     * Called by the sync adapter as it starts a sync of {@code location}, whoever asked for it.
+     */
+    void onSyncStarted(String location) {
+        mInFlightLocation = location;
+    }
+
+    /**
+     * Called by the sync adapter once the sync has recorded its outcome in
+     * {@link SyncStatusStore}.
+     */
+    void onSyncFinished() {
+        mSyncedLocation = mInFlightLocation;
+        mInFlightLocation = null;
+    }
+
+    /**
+     * @return how many syncs were asked for through {@link #requestSync()}.
+     */
+    public long getRequestedCount() {
+        return mRequested.get();
+    }
+
+    /**
+     * @return how many requests didn't need a sync of their own: merged with another request,
+     * joined to a running or pending sync, or made while the forecast was fresh.
+     */
+    public long getCoalescedCount() {
+        return mCoalesced.get();
+    }
+
+    /**
+     * @return how many syncs the broker requested from the system.
+     */
+    public long getExecutedCount() {
+        return mExecuted.get();
+    }
+
+    /**
+     * Requests expedited, manual syncs through the {@link ContentResolver}.
+     */
+    private static final class ContentResolverDispatcher implements SyncDispatcher {
+        private final Context mContext;
+        private final String mAuthority;
+
+        ContentResolverDispatcher(Context context) {
+            mContext = context;
+            mAuthority = context.getString(R.string.content_authority);
+        }
+
+        @Override
+        public Account findAccount() {
+            return SunshineSyncAdapter.lookUpSyncAccount(mContext);
+        }
+
+        @Override
+        public boolean hasAccount(Account account) {
+            // As in SunshineSyncAdapter.lookUpSyncAccount, an account without a password is gone.
+            return AccountManager.get(mContext).getPassword(account) != null;
+        }
+
+        @Override
+        public boolean isSyncPending(Account account) {
+            return ContentResolver.isSyncPending(account, mAuthority);
+        }
+
+        @Override
+        public void requestSync(Account account) {
+            Bundle bundle = new Bundle();
+            bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+            bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+            ContentResolver.requestSync(account, mAuthority, bundle);
+        }
+    }
+}
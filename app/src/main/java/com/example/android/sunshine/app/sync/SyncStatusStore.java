@@ -0,0 +1,305 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.support.annotation.IntDef;
+
+import com.example.android.sunshine.app.R;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the outcome of the most recent sync in memory.  Reads never block: they just return
+ * the current immutable {@link Status}.  Writes swap in a new Status, notify listeners on the
+ * main thread and schedule a batched, asynchronous write to the default SharedPreferences so
+ * that the sync thread never waits on disk.
+ */
+public class SyncStatusStore {
+    // Writes arriving within this window are persisted together.
+    private static final long PERSIST_DELAY_MS = 500;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STAGE_DOWNLOAD, STAGE_PARSE, STAGE_STORE, STAGE_NOTIFY})
+    public @interface SyncStage {}
+
+    public static final int STAGE_DOWNLOAD = 0;
+    public static final int STAGE_PARSE = 1;
+    public static final int STAGE_STORE = 2;
+    public static final int STAGE_NOTIFY = 3;
+    static final int STAGE_COUNT = 4;
+
+    /**
+     * Callback for components that want to react to status changes, e.g. the empty view of the
+     * forecast list.  Always invoked on the main thread.
+     */
+    public interface OnStatusChangedListener {
+        void onStatusChanged(Status status);
+    }
+
+    /**
+     * Immutable view of the sync status.
+     */
+    public static final class Status {
+        private final int mLocationStatus;
+        private final long mLastSyncTime;
+        private final long mLastPayloadHash;
+        private final long mLastNotificationTime;
+        private final String[] mStageErrors;
+        private final long mLastCompressedBytes;
+        private final long mLastUncompressedBytes;
+
+        private Status(int locationStatus, long lastSyncTime, long lastPayloadHash,
+                       long lastNotificationTime, String[] stageErrors,
+                       long lastCompressedBytes, long lastUncompressedBytes) {
+            mLocationStatus = locationStatus;
+            mLastSyncTime = lastSyncTime;
+            mLastPayloadHash = lastPayloadHash;
+            mLastNotificationTime = lastNotificationTime;
+            mStageErrors = stageErrors;
+            mLastCompressedBytes = lastCompressedBytes;
+            mLastUncompressedBytes = lastUncompressedBytes;
+        }
+
+        @SuppressWarnings("ResourceType")
+        public @SunshineSyncAdapter.LocationStatus int getLocationStatus() {
+            return mLocationStatus;
+        }
+
+        public long getLastSyncTime() {
+            return mLastSyncTime;
+        }
+
+        public long getLastPayloadHash() {
+            return mLastPayloadHash;
+        }
+
+        public long getLastNotificationTime() {
+            return mLastNotificationTime;
+        }
+
+        /**
+         * @return the error recorded for the given stage during the last sync, or null.
+         */
+        public String getStageError(@SyncStage int stage) {
+            return mStageErrors[stage];
+        }
+
+        /**
+         * @return the number of bytes the last download took on the wire, or 0 if nothing was
+         * downloaded since the app started.
+         */
+        public long getLastCompressedBytes() {
+            return mLastCompressedBytes;
+        }
+
+        /**
+         * @return the size of the last download once decompressed.
+         */
+        public long getLastUncompressedBytes() {
+            return mLastUncompressedBytes;
+        }
+
+        Status withLocationStatus(int locationStatus) {
+            return new Status(locationStatus, mLastSyncTime, mLastPayloadHash,
+                    mLastNotificationTime, mStageErrors, mLastCompressedBytes,
+                    mLastUncompressedBytes);
+        }
+
+        Status withSyncSuccess(long syncTime, long payloadHash) {
+            return new Status(SunshineSyncAdapter.LOCATION_STATUS_OK, syncTime, payloadHash,
+                    mLastNotificationTime, new String[STAGE_COUNT], mLastCompressedBytes,
+                    mLastUncompressedBytes);
+        }
+
+        Status withLastNotificationTime(long notificationTime) {
+            return new Status(mLocationStatus, mLastSyncTime, mLastPayloadHash,
+                    notificationTime, mStageErrors, mLastCompressedBytes, mLastUncompressedBytes);
+        }
+
+        Status withStageError(int stage, String error) {
+            String[] stageErrors = mStageErrors.clone();
+            stageErrors[stage] = error;
+            return new Status(mLocationStatus, mLastSyncTime, mLastPayloadHash,
+                    mLastNotificationTime, stageErrors, mLastCompressedBytes,
+                    mLastUncompressedBytes);
+        }
+
+        Status withTransfer(long compressedBytes, long uncompressedBytes) {
+            return new Status(mLocationStatus, mLastSyncTime, mLastPayloadHash,
+                    mLastNotificationTime, mStageErrors, compressedBytes, uncompressedBytes);
+        }
+    }
+
+    private interface Mutation {
+        Status apply(Status current);
+    }
+
+    private static volatile SyncStatusStore sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final String mLocationStatusKey;
+    private final String mLastNotificationKey;
+    private final String mLastSyncKey;
+    private final String mLastPayloadHashKey;
+
+    private final AtomicReference<Status> mStatus;
+    private final AtomicBoolean mPersistScheduled = new AtomicBoolean(false);
+    private final ScheduledExecutorService mPersistExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<OnStatusChangedListener> mListeners =
+            new CopyOnWriteArrayList<OnStatusChangedListener>();
+
+    public static SyncStatusStore getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (SyncStatusStore.class) {
+                if (sInstance == null) {
+                    sInstance = new SyncStatusStore(context.getApplicationContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private SyncStatusStore(Context context) {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mLocationStatusKey = context.getString(R.string.pref_location_status_key);
+        mLastNotificationKey = context.getString(R.string.pref_last_notification);
+        mLastSyncKey = context.getString(R.string.pref_last_sync_key);
+        mLastPayloadHashKey = context.getString(R.string.pref_last_payload_hash_key);
+
+        // This is the only time the store reads from disk.
+        mStatus = new AtomicReference<Status>(new Status(
+                mPrefs.getInt(mLocationStatusKey, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN),
+                mPrefs.getLong(mLastSyncKey, 0),
+                mPrefs.getLong(mLastPayloadHashKey, 0),
+                mPrefs.getLong(mLastNotificationKey, 0),
+                new String[STAGE_COUNT], 0, 0));
+    }
+
+    public Status getStatus() {
+        return mStatus.get();
+    }
+
+    public @SunshineSyncAdapter.LocationStatus int getLocationStatus() {
+        return mStatus.get().getLocationStatus();
+    }
+
+    public void setLocationStatus(@SunshineSyncAdapter.LocationStatus final int locationStatus) {
+        update(new Mutation() {
+            @Override
+            public Status apply(Status current) {
+                if (current.mLocationStatus == locationStatus) return current;
+                return current.withLocationStatus(locationStatus);
+            }
+        });
+    }
+
+    /**
+     * Records a successful sync.  This also sets the location status to
+     * {@link SunshineSyncAdapter#LOCATION_STATUS_OK} and clears any stage errors.
+     */
+    public void recordSyncSuccess(final long syncTime, final long payloadHash) {
+        update(new Mutation() {
+            @Override
+            public Status apply(Status current) {
+                return current.withSyncSuccess(syncTime, payloadHash);
+            }
+        });
+    }
+
+    public void recordStageError(@SyncStage final int stage, final String error) {
+        update(new Mutation() {
+            @Override
+            public Status apply(Status current) {
+                return current.withStageError(stage, error);
+            }
+        });
+    }
+
+    /**
+     * Records the size of the last download, on the wire and decompressed.  Like the stage
+     * errors, this is only kept in memory.
+     */
+    public void recordTransfer(final long compressedBytes, final long uncompressedBytes) {
+        update(new Mutation() {
+            @Override
+            public Status apply(Status current) {
+                return current.withTransfer(compressedBytes, uncompressedBytes);
+            }
+        });
+    }
+
+    public void setLastNotificationTime(final long notificationTime) {
+        update(new Mutation() {
+            @Override
+            public Status apply(Status current) {
+                return current.withLastNotificationTime(notificationTime);
+            }
+        });
+    }
+
+    public void registerListener(OnStatusChangedListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void unregisterListener(OnStatusChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void update(Mutation mutation) {
+        Status current;
+        Status next;
+        do {
+            current = mStatus.get();
+            next = mutation.apply(current);
+            if (next == current) return;
+        } while (!mStatus.compareAndSet(current, next));
+
+        schedulePersist();
+        dispatchChanged();
+    }
+
+    private void dispatchChanged() {
+        if (mListeners.isEmpty()) return;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Status status = mStatus.get();
+                for (OnStatusChangedListener listener : mListeners) {
+                    listener.onStatusChanged(status);
+                }
+            }
+        });
+    }
+
+    private void schedulePersist() {
+        if (!mPersistScheduled.compareAndSet(false, true)) {
+            // A write is already pending, it will pick up the latest status.
+            return;
+        }
+        mPersistExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mPersistScheduled.set(false);
+                Status status = mStatus.get();
+                mPrefs.edit()
+                        .putInt(mLocationStatusKey, status.mLocationStatus)
+                        .putLong(mLastSyncKey, status.mLastSyncTime)
+                        .putLong(mLastPayloadHashKey, status.mLastPayloadHash)
+                        .putLong(mLastNotificationKey, status.mLastNotificationTime)
+                        .apply();
+            }
+        }, PERSIST_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+}
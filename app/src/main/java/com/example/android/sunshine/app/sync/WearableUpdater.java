@@ -0,0 +1,101 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.PackedForecast;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends today's forecast to the wearable.  Used by the sync adapter and by pushed forecast
+ * changes, both on background threads, so it connects and waits for the result synchronously.
+ */
+class WearableUpdater {
+    private static final String LOG_TAG = WearableUpdater.class.getSimpleName();
+
+    private static final String SUNSHINE_HIGH_TEMP = "weather-high";
+    private static final String SUNSHINE_LOW_TEMP = "weather-low";
+    private static final String SUNSHINE_ICON = "weather-icon";
+    private static final String SUNSHINE_DATA_PATH = "/sunshine-weather-data";
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final Context mContext;
+    private final GoogleApiClient mGoogleApiClient;
+    private final BitmapFactory.Options mBitmapFactoryOptions = new BitmapFactory.Options();
+
+    WearableUpdater(Context context) {
+        mContext = context;
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        mBitmapFactoryOptions.outHeight = 20;
+        mBitmapFactoryOptions.outWidth = 20;
+    }
+
+    /**
+     * Sends today's forecast, the first day of {@code forecast}.  Blocks until the data item was
+     * stored, so don't call it on the main thread.
+     */
+    void update(PackedForecast forecast) {
+        if (!mGoogleApiClient.isConnected()) {
+            ConnectionResult result =
+                    mGoogleApiClient.blockingConnect(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!result.isSuccess()) {
+                Log.e(LOG_TAG, "Unable to connect to the wearable: " + result);
+                return;
+            }
+        }
+
+        int weatherId = forecast.getWeatherId(0);
+        double high = forecast.getHigh(0);
+        double low = forecast.getLow(0);
+
+        PutDataMapRequest putDataMapRequest =
+                PutDataMapRequest.create(SUNSHINE_DATA_PATH);
+
+        putDataMapRequest.getDataMap().putString(SUNSHINE_HIGH_TEMP,
+                Utility.formatTemperature(mContext, high));
+
+        putDataMapRequest.getDataMap().putString(SUNSHINE_LOW_TEMP,
+                Utility.formatTemperature(mContext, low));
+
+        int weatherIconResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        Bitmap bitmap = BitmapFactory.decodeResource(
+                mContext.getResources(), weatherIconResource, mBitmapFactoryOptions);
+
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
+        Asset asset = Asset.createFromBytes(byteStream.toByteArray());
+
+        if (asset != null)
+            putDataMapRequest.getDataMap().putAsset(SUNSHINE_ICON, asset);
+
+        PutDataRequest request = putDataMapRequest.asPutDataRequest();
+
+        DataApi.DataItemResult dataItemResult = Wearable.DataApi
+                .putDataItem(mGoogleApiClient, request)
+                .await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (dataItemResult.getStatus().isSuccess()) {
+            Log.i(LOG_TAG, "Weather Data sent to wearable");
+        } else {
+            Log.e(LOG_TAG, "Failed to send weather data to wearable");
+        }
+    }
+
+    void disconnect() {
+        mGoogleApiClient.disconnect();
+    }
+}
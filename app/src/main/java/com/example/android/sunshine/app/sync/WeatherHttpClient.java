@@ -0,0 +1,416 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Downloads forecasts over HTTP.  The response is asked for gzip or deflate compressed and is
+ * decompressed as it is read, so it goes from the socket to the JSON parser without ever being
+ * held in memory as a whole.  The bytes read are counted on both sides of the decompression.
+ * <p>
+ * HttpURLConnection only decompresses by itself when it added the Accept-Encoding header, and
+ * then hides the compressed size, which is why the header is set and decoded here.
+ * <p>
+ * Connections are kept alive between requests: the platform pools a connection once its
+ * response was read to the end and closed without disconnecting, which is what closing a
+ * {@link Download} does.  So the requests of a sync, and of the next sync while the server
+ * keeps the connection open, share one handshake.  Several requests can be sent at once with
+ * {@link #fetchAll}, each on a connection of its own.  The threads for that are only started
+ * by the first call, and go away again when idle.
+ * <p>
+ * All requests time out, so a stalled server fails the sync instead of hanging it.
+ */
+final class WeatherHttpClient {
+    private static final String LOG_TAG = WeatherHttpClient.class.getSimpleName();
+
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    // At most this many requests are in flight at once, and idle threads go away after a while.
+    static final int MAX_CONCURRENT_REQUESTS = 4;
+    private static final long IDLE_THREAD_SECONDS = 30;
+
+    // What is left of a response after its body was parsed, typically the end of the chunked
+    // encoding or the gzip trailer, is read so the connection can be reused.  Beyond this many
+    // bytes it is cheaper to drop the connection.
+    private static final int MAX_DRAIN_BYTES = 16 * 1024;
+
+    // The socket is read in chunks of this size, into buffers that are reused across downloads.
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    private static final ArrayDeque<byte[]> sBufferPool = new ArrayDeque<byte[]>();
+
+    private static volatile WeatherHttpClient sInstance;
+
+    /**
+     * Reads the body of a response fetched by {@link #fetchAll}, on the thread that fetched it.
+     */
+    interface BodyHandler<T> {
+        T handle(URL url, Download download) throws IOException;
+    }
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    // Created by the first fetchAll, so a client that only makes single requests has no pool.
+    private ThreadPoolExecutor mExecutor;
+
+    /**
+     * @return the client shared by the sync package, with the default timeouts.
+     */
+    static WeatherHttpClient getInstance() {
+        if (sInstance == null) {
+            synchronized (WeatherHttpClient.class) {
+                if (sInstance == null) {
+                    sInstance = new WeatherHttpClient(DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                            DEFAULT_READ_TIMEOUT_MILLIS);
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param connectTimeoutMillis how long to wait for a connection.
+     * @param readTimeoutMillis how long to wait for each read of the response.
+     */
+    WeatherHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Sends a GET request for {@code url}.  The body is read from the returned download, which
+     * the caller must close.
+     *
+     * @throws IOException if the request failed or timed out, the server answered with an
+     * error, or the response uses an encoding that wasn't asked for.
+     */
+    Download get(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(mConnectTimeoutMillis);
+            connection.setReadTimeout(mReadTimeoutMillis);
+            connection.setRequestMethod("GET");
+            connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+            connection.connect();
+            return new Download(connection.getInputStream(), connection.getContentEncoding(),
+                    connection);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private synchronized ThreadPoolExecutor executor() {
+        if (mExecutor == null) {
+            mExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_REQUESTS, MAX_CONCURRENT_REQUESTS,
+                    IDLE_THREAD_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(
+                                            Process.THREAD_PRIORITY_BACKGROUND);
+                                    runnable.run();
+                                }
+                            }, LOG_TAG);
+                        }
+                    });
+            mExecutor.allowCoreThreadTimeOut(true);
+        }
+        return mExecutor;
+    }
+
+    /**
+     * Fetches all of {@code urls} at once and hands each response to {@code handler}.  Blocks
+     * until all of them were handled.
+     *
+     * @return what {@code handler} returned for each URL, in the order of {@code urls}.
+     * @throws IOException the first failure, in the order of {@code urls}.  The requests still
+     * running are cancelled.
+     */
+    <T> List<T> fetchAll(List<URL> urls, final BodyHandler<T> handler) throws IOException {
+        ThreadPoolExecutor executor = executor();
+        List<Future<T>> futures = new ArrayList<Future<T>>(urls.size());
+        try {
+            for (final URL url : urls) {
+                futures.add(executor.submit(new Callable<T>() {
+                    @Override
+                    public T call() throws IOException {
+                        Download download = get(url);
+                        try {
+                            return handler.handle(url, download);
+                        } finally {
+                            download.close();
+                        }
+                    }
+                }));
+            }
+            List<T> results = new ArrayList<T>(urls.size());
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + urls);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static byte[] obtainBuffer() {
+        byte[] buffer;
+        synchronized (sBufferPool) {
+            buffer = sBufferPool.pollFirst();
+        }
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    private static void releaseBuffer(byte[] buffer) {
+        synchronized (sBufferPool) {
+            if (sBufferPool.size() < MAX_POOLED_BUFFERS) {
+                sBufferPool.addFirst(buffer);
+            }
+        }
+    }
+
+    /**
+     * A response body being read.
+     */
+    static final class Download implements Closeable {
+        private final HttpURLConnection mConnection;
+        private final PooledInputStream mRaw;
+        private final CountingInputStream mBody;
+
+        /**
+         * @param raw the body as received.
+         * @param contentEncoding how {@code raw} is compressed, or null if it isn't.
+         * @param connection disconnected on close if it can't be reused, may be null.
+         */
+        Download(InputStream raw, String contentEncoding, HttpURLConnection connection)
+                throws IOException {
+            mConnection = connection;
+            mRaw = new PooledInputStream(raw);
+            try {
+                mBody = new CountingInputStream(decode(mRaw, contentEncoding));
+            } catch (IOException e) {
+                mRaw.close();
+                throw e;
+            }
+        }
+
+        private static InputStream decode(InputStream in, String contentEncoding)
+                throws IOException {
+            if (contentEncoding == null || contentEncoding.equalsIgnoreCase("identity")) {
+                return in;
+            } else if (contentEncoding.equalsIgnoreCase("gzip")
+                    || contentEncoding.equalsIgnoreCase("x-gzip")) {
+                return new GZIPInputStream(in);
+            } else if (contentEncoding.equalsIgnoreCase("deflate")) {
+                // The zlib format, as HTTP defines deflate.
+                return new InflaterInputStream(in);
+            }
+            throw new IOException("Unsupported content encoding: " + contentEncoding);
+        }
+
+        /**
+         * @return the decompressed body.
+         */
+        InputStream getBody() {
+            return mBody;
+        }
+
+        /**
+         * @return the number of bytes read from the connection so far.
+         */
+        long getCompressedBytes() {
+            return mRaw.mCount;
+        }
+
+        /**
+         * @return the number of bytes read from {@link #getBody()} so far.
+         */
+        long getUncompressedBytes() {
+            return mBody.mCount;
+        }
+
+        /**
+         * Releases the connection, back to the pool if what is left of the response was
+         * short enough to read.
+         */
+        @Override
+        public void close() {
+            boolean reusable = false;
+            try {
+                reusable = mRaw.drain(MAX_DRAIN_BYTES);
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Dropping the connection: " + e);
+            }
+            try {
+                mBody.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Error closing the download", e);
+                reusable = false;
+            }
+            if (!reusable && mConnection != null) {
+                mConnection.disconnect();
+            }
+        }
+    }
+
+    /*
+        Buffers the connection's stream in a pooled buffer, and counts the bytes read from it.
+     */
+    private static final class PooledInputStream extends InputStream {
+        private final InputStream mIn;
+        private byte[] mBuffer = obtainBuffer();
+        private int mPos;
+        private int mLimit;
+        long mCount;
+
+        PooledInputStream(InputStream in) {
+            mIn = in;
+        }
+
+        private boolean fill() throws IOException {
+            if (mBuffer == null) {
+                throw new IOException("Stream closed");
+            }
+            int n = mIn.read(mBuffer, 0, mBuffer.length);
+            if (n <= 0) {
+                return false;
+            }
+            mPos = 0;
+            mLimit = n;
+            mCount += n;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mPos == mLimit && !fill()) {
+                return -1;
+            }
+            return mBuffer[mPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (mPos == mLimit && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, mLimit - mPos);
+            System.arraycopy(mBuffer, mPos, b, off, n);
+            mPos += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (mLimit - mPos) + mIn.available();
+        }
+
+        /**
+         * Reads and counts the rest of the stream, unless it is longer than {@code maxBytes}.
+         *
+         * @return true if the end of the stream was reached.
+         */
+        boolean drain(int maxBytes) throws IOException {
+            if (mBuffer == null) {
+                return false;
+            }
+            long limit = mCount + maxBytes;
+            while (fill()) {
+                if (mCount > limit) {
+                    return false;
+                }
+            }
+            mPos = mLimit;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mBuffer != null) {
+                releaseBuffer(mBuffer);
+                mBuffer = null;
+            }
+            mIn.close();
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                mCount += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package android.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Stand-in for the platform class on the JVM.  The platform's JsonReader is Gson's, so this
+ * only translates Gson's MalformedJsonException to the platform's, for the methods the
+ * forecast parser uses.
+ */
+public final class JsonReader extends com.google.gson.stream.JsonReader {
+
+    public JsonReader(Reader in) {
+        super(in);
+    }
+
+    private static MalformedJsonException translate(
+            com.google.gson.stream.MalformedJsonException e) {
+        MalformedJsonException translated = new MalformedJsonException(e.getMessage());
+        translated.initCause(e);
+        return translated;
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        try {
+            super.beginArray();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        try {
+            super.endArray();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        try {
+            super.beginObject();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        try {
+            super.endObject();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        try {
+            return super.hasNext();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        try {
+            return super.nextName();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        try {
+            return super.nextString();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        try {
+            return super.nextDouble();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        try {
+            return super.nextLong();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        try {
+            return super.nextInt();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw translate(e);
+        }
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        try {
+            super.skipValue();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw translate(e);
+        }
+    }
+}
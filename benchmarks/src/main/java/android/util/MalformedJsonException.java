@@ -0,0 +1,13 @@
+package android.util;
+
+import java.io.IOException;
+
+/**
+ * Stand-in for the platform class, thrown by {@link JsonReader} on the JVM.
+ */
+public final class MalformedJsonException extends IOException {
+
+    public MalformedJsonException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    The layout of the watch face's seconds band, drawn every second while interactive.  Text is
+    measured at a fixed width per character instead of by a Paint.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BandLayoutBenchmark {
+
+    // A 320 pixel face, with the spacing and roughly the text size of RingsWatchFace.
+    private static final int WIDTH = 320;
+    private static final int SPACING = 5;
+    private static final float CHAR_WIDTH = 14f;
+
+    private final String[] mWords = new String[60];
+    private int mSecond;
+    private float mDrawn;
+
+    private final BandLayout.Painter mPainter = new BandLayout.Painter() {
+        @Override
+        public float measureText(String text) {
+            return text.length() * CHAR_WIDTH;
+        }
+
+        @Override
+        public void drawText(String text, float x) {
+            mDrawn += x;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < mWords.length; i++) {
+            mWords[i] = String.format("%02d", i);
+        }
+    }
+
+    @Benchmark
+    public float drawSecondsBand() {
+        mSecond = mSecond + 1 < mWords.length ? mSecond + 1 : 0;
+        int index = BandLayout.indexOf(mWords[mSecond], mWords);
+        BandLayout.layoutSides(mWords, index, mPainter.measureText(mWords[index]), WIDTH / 2f,
+                WIDTH, SPACING, mPainter);
+        return mDrawn;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Mapping condition ids to icons and art, which every list row and widget does, over ids
+    in the proportions of real forecasts: mostly clear and cloudy, some rain, few others.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WeatherConditionsBenchmark {
+
+    private static final int[] IDS = {
+            800, 800, 801, 802, 803, 804, 800, 500, 501, 801,
+            803, 520, 300, 800, 211, 600, 741, 804, 502, 781,
+            800, 511, 802, 0, 900, 622, 232, 321, 701, 800};
+
+    private int mIndex;
+
+    @Benchmark
+    public int classify() {
+        int id = IDS[mIndex];
+        mIndex = mIndex + 1 < IDS.length ? mIndex + 1 : 0;
+        return WeatherConditions.classify(id);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Formatting the temperatures and wind of a list row and the detail view, with the format
+    strings of the default resources.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WeatherFormatBenchmark {
+
+    private static final String FORMAT_TEMPERATURE = "%1.0f\u00B0";
+    private static final String FORMAT_WIND_KMH = "%1$1.0f km/h %2$s";
+    private static final String FORMAT_WIND_MPH = "%1$1.0f mph %2$s";
+
+    @Param({"true", "false"})
+    public boolean metric;
+
+    private double mTemperature = -3.25;
+    private float mDegrees = 10;
+
+    @Benchmark
+    public String formatTemperature() {
+        mTemperature = mTemperature > 40 ? -3.25 : mTemperature + 0.75;
+        return WeatherFormat.formatTemperature(FORMAT_TEMPERATURE, mTemperature, metric);
+    }
+
+    @Benchmark
+    public String formatWind() {
+        mDegrees = mDegrees > 360 ? 10 : mDegrees + 23;
+        return WeatherFormat.formatWind(metric ? FORMAT_WIND_KMH : FORMAT_WIND_MPH, 12.5f,
+                mDegrees, metric);
+    }
+}
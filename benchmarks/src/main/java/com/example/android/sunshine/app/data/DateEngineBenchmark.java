@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    The date conversions every stored day and every list row goes through.  The instants are
+    spread over two years, so the offset cache sees hits and misses like it does on a device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DateEngineBenchmark {
+
+    private static final int SAMPLES = 4096;
+    private static final int SAMPLE_MASK = SAMPLES - 1;
+
+    private final long[] mMillis = new long[SAMPLES];
+    private final int[] mJulianDays = new int[SAMPLES];
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        long start = 1420070400000L;  // 2015-01-01
+        long step = 2 * 365 * DateEngine.DAY_IN_MILLIS / SAMPLES;
+        for (int i = 0; i < SAMPLES; i++) {
+            mMillis[i] = start + i * step + (i * 7919L) % DateEngine.DAY_IN_MILLIS;
+            mJulianDays[i] = DateEngine.toJulianDay(mMillis[i]);
+        }
+    }
+
+    @Benchmark
+    public long normalizeDate() {
+        return DateEngine.normalizeDate(mMillis[mIndex++ & SAMPLE_MASK]);
+    }
+
+    @Benchmark
+    public int toJulianDay() {
+        return DateEngine.toJulianDay(mMillis[mIndex++ & SAMPLE_MASK]);
+    }
+
+    @Benchmark
+    public long fromJulianDay() {
+        return DateEngine.fromJulianDay(mJulianDays[mIndex++ & SAMPLE_MASK]);
+    }
+}
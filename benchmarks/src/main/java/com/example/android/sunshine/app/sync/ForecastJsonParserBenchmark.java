@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.DateEngine;
+import com.example.android.sunshine.app.data.ForecastRowSink;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Decoding the recorded forecasts the sync tests replay, as the sync adapter does, into a
+    sink that only adds the values up.  Measures the parser and JsonReader without the
+    provider.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ForecastJsonParserBenchmark {
+
+    @Param({"forecast_14_day.json", "forecast_16_day.json"})
+    public String fixture;
+
+    private byte[] mForecast;
+    private int mJulianStartDay;
+
+    private final ForecastJsonParser.Callbacks mCallbacks = new ForecastJsonParser.Callbacks() {
+        @Override
+        public boolean onResponseCode(int code) {
+            return code == 200;
+        }
+
+        @Override
+        public long onCity(String cityName, double lat, double lon) {
+            return 1;
+        }
+    };
+
+    private final SummingSink mSink = new SummingSink();
+
+    @Setup
+    public void setUp() throws IOException {
+        InputStream in = getClass().getResourceAsStream(fixture);
+        if (in == null) {
+            throw new IOException("No fixture " + fixture);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            mForecast = out.toByteArray();
+        } finally {
+            in.close();
+        }
+        mJulianStartDay = DateEngine.toJulianDay(System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public double parse() throws IOException, JSONException {
+        int rows = ForecastJsonParser.parse(new ByteArrayInputStream(mForecast),
+                mJulianStartDay, mCallbacks, mSink);
+        if (rows <= 0) {
+            throw new IllegalStateException("Nothing parsed from " + fixture);
+        }
+        return mSink.mSum;
+    }
+
+    private static final class SummingSink implements ForecastRowSink {
+        double mSum;
+
+        @Override
+        public void beginRow() {
+        }
+
+        @Override
+        public void locationId(long locationId) {
+            mSum += locationId;
+        }
+
+        @Override
+        public void date(long date) {
+            mSum += date;
+        }
+
+        @Override
+        public void weatherId(int weatherId) {
+            mSum += weatherId;
+        }
+
+        @Override
+        public void shortDesc(String shortDesc) {
+            mSum += shortDesc.length();
+        }
+
+        @Override
+        public void min(double low) {
+            mSum += low;
+        }
+
+        @Override
+        public void max(double high) {
+            mSum += high;
+        }
+
+        @Override
+        public void humidity(double humidity) {
+            mSum += humidity;
+        }
+
+        @Override
+        public void pressure(double pressure) {
+            mSum += pressure;
+        }
+
+        @Override
+        public void windSpeed(double windSpeed) {
+            mSum += windSpeed;
+        }
+
+        @Override
+        public void degrees(double degrees) {
+            mSum += degrees;
+        }
+
+        @Override
+        public void endRow() {
+        }
+
+        @Override
+        public int commit() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
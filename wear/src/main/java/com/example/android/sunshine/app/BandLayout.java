@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+/**
+ * Lays out a band of the watch face: the current word centered, and the words before and after
+ * it repeated to the left and right edges.
+ * <p>
+ * This class only uses java.* APIs so it can be benchmarked on a plain JVM.  The watch face
+ * measures and draws through {@link Painter}.
+ */
+final class BandLayout {
+
+    interface Painter {
+        float measureText(String text);
+
+        void drawText(String text, float x);
+    }
+
+    private BandLayout() {
+    }
+
+    /**
+     * @return the index of {@code word} in {@code words}.
+     * @throws IllegalArgumentException if it isn't there.
+     */
+    static int indexOf(String word, String[] words) {
+        for (int i = 0; i < words.length; i++) {
+            if (words[i].equals(word)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Cannot find word:" + word + " in word list");
+    }
+
+    /**
+     * Places the words around the current one, which the caller draws, from its edges out to
+     * the edges of the band.
+     *
+     * @param baseWordIndex the index of the current word.
+     * @param baseWordWidth how wide the current word is drawn.
+     * @param x the center of the current word.
+     * @param width the width of the band.
+     * @param spacing the space between words.
+     */
+    static void layoutSides(String[] words, int baseWordIndex, float baseWordWidth, float x,
+                            int width, int spacing, Painter painter) {
+        float textEnd = x - (baseWordWidth / 2f) - spacing;
+
+        // Draw to the left.
+        int currentWordIndex = baseWordIndex - 1;
+        if (currentWordIndex < 0) currentWordIndex = words.length - 1;
+
+        while (textEnd > 0)  {
+            float textWidth = painter.measureText(words[currentWordIndex]);
+            float textStart = textEnd - textWidth;
+            painter.drawText(words[currentWordIndex], textStart);
+            textEnd = textStart - spacing;
+            currentWordIndex -= 1;
+            if (currentWordIndex < 0) currentWordIndex = words.length - 1;
+        }
+
+        // Draw to the right
+        currentWordIndex = baseWordIndex + 1;
+        if (currentWordIndex >= words.length) currentWordIndex = 0;
+
+        float textStart = x + (baseWordWidth / 2f) + spacing;
+
+        while (textStart < width)  {
+            float textWidth = painter.measureText(words[currentWordIndex]);
+            painter.drawText(words[currentWordIndex], textStart);
+            textStart += textWidth + spacing;
+            currentWordIndex += 1;
+            if (currentWordIndex >= words.length) currentWordIndex = 0;
+        }
+    }
+}
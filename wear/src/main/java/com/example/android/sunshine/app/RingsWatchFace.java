@@ -103,6 +103,7 @@ public class RingsWatchFace extends CanvasWatchFaceService implements DataApi.Da
         Paint mInactivePaint;
         Paint mActivePaint;
         Paint mAmbientPaint;
+        final BandPainter mBandPainter = new BandPainter();
 
         boolean mAmbient;
         Calendar mCal;
@@ -320,19 +321,7 @@ public class RingsWatchFace extends CanvasWatchFaceService implements DataApi.Da
         private void drawBand(int y, float x, int width, int spacing, Canvas canvas,
                               String word, String[] words)  {
 
-            int baseWordIndex = -1;
-
-            for (int i = 0; i < words.length; i++)  {
-              if (words[i].equals(word))  {
-                  baseWordIndex = i;
-                  break;
-              }
-            }
-
-            if (baseWordIndex < 0) {
-                throw new IllegalArgumentException("Cannot find word:" + word + " in word list");
-            }
-
+            int baseWordIndex = BandLayout.indexOf(word, words);
 
             float baseWordWidth = (mAmbient) ? mAmbientPaint.measureText(words[baseWordIndex]) :
                     mActivePaint.measureText(words[baseWordIndex]);
@@ -347,37 +336,29 @@ public class RingsWatchFace extends CanvasWatchFaceService implements DataApi.Da
             */
             if (mAmbient) return;
 
-            float textEnd = textStart - spacing;
+            mBandPainter.mCanvas = canvas;
+            mBandPainter.mY = y;
+            BandLayout.layoutSides(words, baseWordIndex, baseWordWidth, x, width, spacing,
+                    mBandPainter);
+            mBandPainter.mCanvas = null;
+        }
 
-            // Draw to the left.
-            int currentWordIndex = baseWordIndex - 1;
-            if (currentWordIndex < 0) currentWordIndex = words.length - 1;
+        /*
+            Draws the words to the left and right of a band with the inactive paint.
+         */
+        private final class BandPainter implements BandLayout.Painter {
+            Canvas mCanvas;
+            int mY;
 
-            while (textEnd > 0)  {
-                float textWidth = mInactivePaint.measureText(words[currentWordIndex]);
-                textStart = textEnd - textWidth;
-                canvas.drawText(words[currentWordIndex], textStart, y, mInactivePaint);
-                textEnd = textStart - spacing;
-                currentWordIndex -= 1;
-                if (currentWordIndex < 0) currentWordIndex = words.length - 1;
+            @Override
+            public float measureText(String text) {
+                return mInactivePaint.measureText(text);
             }
 
-            // Draw to the right
-            currentWordIndex = baseWordIndex + 1;
-            if (currentWordIndex >= words.length) currentWordIndex = 0;
-
-            textStart = x + (baseWordWidth / 2f) + spacing;
-
-            while (textStart < width)  {
-                float textWidth = mInactivePaint.measureText(words[currentWordIndex]);
-                canvas.drawText(words[currentWordIndex], textStart, y, mInactivePaint);
-                textStart += textWidth + spacing;
-                currentWordIndex += 1;
-                if (currentWordIndex >= words.length) currentWordIndex = 0;
+            @Override
+            public void drawText(String text, float x) {
+                mCanvas.drawText(text, x, mY, mInactivePaint);
             }
-
-
-
         }
 
         @Override